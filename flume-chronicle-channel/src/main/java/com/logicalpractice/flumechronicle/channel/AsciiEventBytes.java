@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.lang.io.Bytes;
+import org.apache.flume.Event;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Length prefixed event encoding that copies ASCII strings byte for byte rather than
+ * measuring and re-encoding them as modified UTF-8, and records the offset of the body so
+ * that it can be reached without walking the headers.
+ *
+ * Record:
+ *    2-byte marker {@link EventBytes#ASCII_FORMAT}, with the compressed flag if the body is compressed
+ *    2-byte header count
+ *    4-byte offset of the body from the start of the record
+ *    per header: key string, value string
+ *    4-byte body length
+ *    body
+ * or, when compressed, the body section written by {@link BodyCompressor}
+ *
+ * String:
+ *    2-byte length followed by that many ASCII bytes, or
+ *    0xFFFF followed by a UTF string when it contains any non ASCII characters
+ */
+class AsciiEventBytes {
+
+    private static final int NOT_ASCII = 0xFFFF;
+
+    private AsciiEventBytes() {
+    }
+
+    /**
+     * Upper bound on the encoded size, avoids scanning the strings.
+     */
+    public static int sizeOf(Event event, BodyCompressor compressor) {
+        int size = 2 + 2 + 4;
+        for (Map.Entry<String, String> entry : event.getHeaders().entrySet()) {
+            size += 4 + 3 * entry.getKey().length();
+            size += 4 + 3 * entry.getValue().length();
+        }
+        if (compressor != null) {
+            size += compressor.sectionSize();
+        } else {
+            size += 4;
+            size += event.getBody().length;
+        }
+        return size;
+    }
+
+    /**
+     * @param compressor holding the compressed body, or null to store the body as is
+     */
+    public static void writeTo(Bytes out, Event event, BodyCompressor compressor) {
+        long start = out.position();
+        Map<String, String> headers = event.getHeaders();
+        out.writeShort(compressor != null
+                ? EventBytes.ASCII_FORMAT | EventBytes.COMPRESSED
+                : EventBytes.ASCII_FORMAT);
+        out.writeShort(headers.size());
+        long bodyOffsetPosition = out.position();
+        out.writeInt(0);
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        out.writeInt(bodyOffsetPosition, (int) (out.position() - start));
+
+        byte[] body = event.getBody();
+        if (compressor != null) {
+            compressor.writeSection(out, body.length);
+        } else {
+            out.writeInt(body.length);
+            out.write(body);
+        }
+    }
+
+    public static Map<String, String> readHeaders(Bytes in) {
+        in.skip(2); // marker
+        int numberOfHeaders = in.readShort();
+        in.skip(4); // body offset
+        Map<String, String> headers = new HashMap<String, String>(numberOfHeaders * 2);
+        for (int i = 0; i < numberOfHeaders; i++) {
+            headers.put(readString(in), readString(in));
+        }
+        return headers;
+    }
+
+    /**
+     * Jump straight to the body section.
+     */
+    public static void skipHeaders(Bytes in) {
+        long start = in.position();
+        in.position(start + in.readInt(start + 4));
+    }
+
+    private static void writeString(Bytes out, String value) {
+        int length = value.length();
+        if (length < NOT_ASCII) {
+            long lengthPosition = out.position();
+            out.writeUnsignedShort(length);
+            int i = 0;
+            for (; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                out.writeByte(c);
+            }
+            if (i == length) {
+                return;
+            }
+            out.position(lengthPosition); // not ASCII, rewind
+        }
+        out.writeUnsignedShort(NOT_ASCII);
+        out.writeUTF(value);
+    }
+
+    private static String readString(Bytes in) {
+        int length = in.readUnsignedShort();
+        if (length == NOT_ASCII) {
+            return in.readUTF();
+        }
+        byte[] bytes = new byte[length];
+        in.read(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
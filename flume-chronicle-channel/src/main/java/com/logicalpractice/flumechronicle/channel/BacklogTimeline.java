@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+/**
+ * A coarse record of when the records of a shard were put, used to tell the age of the
+ * oldest event still to be taken without the records having to hold a timestamp.
+ *
+ * Each mark (index, time) says that the records after 'index' were put at or after 'time'.
+ * A put marks at most once per granularity, and as the take position passes marks the ones
+ * behind it are dropped, leaving the last of them as the anchor whose time is that of the
+ * oldest untaken record, to within the granularity. Should the marks fill up every other one
+ * is dropped, trading resolution for a bounded size whatever the backlog.
+ */
+class BacklogTimeline {
+
+    private static final int CAPACITY = 4096;
+
+    private final long granularity;
+
+    // guarded by this, the live marks are [head, tail), 'head' being the anchor
+    private final long[] indexes = new long[CAPACITY];
+    private final long[] times = new long[CAPACITY];
+    private int head;
+    private int tail;
+
+    // read without the lock, by puts and takes respectively
+    private volatile long lastMarkTime;
+    private volatile long nextIndex;
+
+    private volatile long oldestPutTime;
+
+    /**
+     * @param position the take position
+     * @param putTime no later than the put of any record after 'position'
+     */
+    BacklogTimeline(long granularity, long position, long putTime) {
+        this.granularity = granularity;
+        indexes[0] = position;
+        times[0] = putTime;
+        tail = 1;
+        lastMarkTime = putTime;
+        nextIndex = Long.MAX_VALUE;
+        oldestPutTime = putTime;
+    }
+
+    /**
+     * Called before the record at 'index' is appended.
+     *
+     * @param index the index of the record
+     * @param now the time read before the append
+     */
+    public void mark(long index, long now) {
+        if (now - lastMarkTime < granularity) {
+            return;
+        }
+        synchronized (this) {
+            if (now - lastMarkTime < granularity || index <= indexes[tail - 1]) {
+                return; // marked by another put, or overtaken by one
+            }
+            if (tail == CAPACITY) {
+                makeRoom();
+            }
+            indexes[tail] = index;
+            times[tail] = now;
+            tail++;
+            lastMarkTime = now;
+            if (tail - head == 2) {
+                nextIndex = index;
+            }
+        }
+    }
+
+    /**
+     * Drop the marks the take 'position' has passed, called on take commit.
+     */
+    public void trim(long position) {
+        if (position < nextIndex) {
+            return; // still short of the next mark
+        }
+        synchronized (this) {
+            while (head + 1 < tail && indexes[head + 1] <= position) {
+                head++;
+            }
+            nextIndex = head + 1 < tail ? indexes[head + 1] : Long.MAX_VALUE;
+            oldestPutTime = times[head];
+        }
+    }
+
+    /**
+     * @return the time of the anchor, at or before the put of the oldest untaken record
+     */
+    public long oldestPutTime() {
+        return oldestPutTime;
+    }
+
+    private void makeRoom() {
+        if (head > 0) {
+            System.arraycopy(indexes, head, indexes, 0, tail - head);
+            System.arraycopy(times, head, times, 0, tail - head);
+            tail -= head;
+            head = 0;
+            if (tail < CAPACITY) {
+                return;
+            }
+        }
+        // keep the anchor and every other mark after it
+        int kept = 1;
+        for (int i = 2; i < tail; i += 2) {
+            indexes[kept] = indexes[i];
+            times[kept] = times[i];
+            kept++;
+        }
+        tail = kept;
+        nextIndex = indexes[1];
+    }
+}
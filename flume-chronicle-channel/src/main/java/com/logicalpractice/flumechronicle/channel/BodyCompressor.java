@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import net.openhft.lang.io.Bytes;
+import org.apache.flume.ChannelException;
+import org.iq80.snappy.Snappy;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses event bodies on the put path and decompresses them on the take path. Holds the
+ * scratch buffers and codec state so instances are not thread safe, the channel keeps one
+ * per thread and closes them all on stop, the zlib codecs hold native memory.
+ *
+ * A compressed body is stored as:
+ *    1-byte codec ({@link Compression} ordinal)
+ *    stop bit uncompressed length
+ *    stop bit compressed length
+ *    compressed bytes
+ *
+ * LZ4 uses the fastest available implementation, falling back to pure Java, and
+ * snappy is the pure Java port, so all of the codecs are available everywhere.
+ */
+class BodyCompressor {
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+    private final Compression compression;
+    private final int threshold;
+
+    private byte[] buffer = new byte[0];
+    private int length = -1;
+
+    private LZ4Compressor lz4Compressor;
+    private Deflater deflater;
+
+    // the take path's scratch buffer and inflater, the inflater created on first use
+    private byte[] input = new byte[0];
+    private Inflater inflater;
+
+    public BodyCompressor(Compression compression, int threshold) {
+        this.compression = compression;
+        this.threshold = threshold;
+        if (compression == Compression.LZ4) {
+            lz4Compressor = LZ4.fastCompressor();
+        }
+    }
+
+    /**
+     * Compress 'body' into the scratch buffer. Bodies smaller than the threshold, or that
+     * don't get any smaller, are left uncompressed.
+     *
+     * @return true if the body has been compressed
+     */
+    public boolean compress(byte[] body) {
+        length = -1;
+        if (compression == Compression.NONE || body.length < threshold) {
+            return false;
+        }
+        int max = maxCompressedLength(body.length);
+        if (buffer.length < max) {
+            buffer = new byte[max];
+        }
+        int compressed;
+        switch (compression) {
+            case LZ4:
+                compressed = lz4Compressor.compress(body, 0, body.length, buffer, 0, max);
+                break;
+            case SNAPPY:
+                compressed = Snappy.compress(body, 0, body.length, buffer, 0);
+                break;
+            case DEFLATE:
+                if (deflater == null) {
+                    deflater = new Deflater(Deflater.BEST_SPEED);
+                }
+                deflater.reset();
+                deflater.setInput(body);
+                deflater.finish();
+                compressed = deflater.deflate(buffer);
+                if (!deflater.finished()) {
+                    return false;
+                }
+                break;
+            default:
+                throw new AssertionError(compression);
+        }
+        if (compressed >= body.length) {
+            return false;
+        }
+        length = compressed;
+        return true;
+    }
+
+    /**
+     * @return true if the last body passed to {@link #compress(byte[])} was compressed
+     */
+    public boolean isCompressed() {
+        return length >= 0;
+    }
+
+    /**
+     * Upper bound on the size of the compressed body section.
+     */
+    public int sectionSize() {
+        return 1 + 5 + 5 + length;
+    }
+
+    public void writeSection(Bytes out, int uncompressedLength) {
+        out.writeByte(compression.ordinal());
+        out.writeStopBit(uncompressedLength);
+        out.writeStopBit(length);
+        out.write(buffer, 0, length);
+    }
+
+    public void close() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    private int maxCompressedLength(int length) {
+        switch (compression) {
+            case LZ4:
+                return lz4Compressor.maxCompressedLength(length);
+            case SNAPPY:
+                return Snappy.maxCompressedLength(length);
+            default:
+                // zlib's deflateBound
+                return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+        }
+    }
+
+    /**
+     * Read and decompress a body section written by {@link #writeSection(Bytes, int)}.
+     */
+    public static byte[] readSection(Bytes in) {
+        return readSection(in, null);
+    }
+
+    /**
+     * @param reuse the calling thread's compressor, whose scratch buffer and inflater are
+     *              reused, or null
+     */
+    public static byte[] readSection(Bytes in, BodyCompressor reuse) {
+        Compression compression = Compression.forId(in.readByte());
+        int uncompressedLength = (int) in.readStopBit();
+        int compressedLength = (int) in.readStopBit();
+        byte[] compressed;
+        if (reuse != null) {
+            if (reuse.input.length < compressedLength) {
+                reuse.input = new byte[compressedLength];
+            }
+            compressed = reuse.input;
+        } else {
+            compressed = new byte[compressedLength];
+        }
+        in.read(compressed, 0, compressedLength);
+
+        byte[] body = new byte[uncompressedLength];
+        switch (compression) {
+            case LZ4:
+                LZ4FastDecompressor decompressor = LZ4.fastDecompressor();
+                decompressor.decompress(compressed, 0, body, 0, uncompressedLength);
+                break;
+            case SNAPPY:
+                Snappy.uncompress(compressed, 0, compressedLength, body, 0);
+                break;
+            case DEFLATE:
+                Inflater inflater;
+                if (reuse != null) {
+                    if (reuse.inflater == null) {
+                        reuse.inflater = new Inflater();
+                    }
+                    inflater = reuse.inflater;
+                    inflater.reset();
+                } else {
+                    inflater = new Inflater();
+                }
+                try {
+                    inflater.setInput(compressed, 0, compressedLength);
+                    inflater.inflate(body);
+                } catch (DataFormatException e) {
+                    throw new ChannelException("corrupt compressed body", e);
+                } finally {
+                    if (reuse == null) {
+                        inflater.end();
+                    }
+                }
+                break;
+            default:
+                throw new ChannelException("unexpected body compression " + compression);
+        }
+        return body;
+    }
+}
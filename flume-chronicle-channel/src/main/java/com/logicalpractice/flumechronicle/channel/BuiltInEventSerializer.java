@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.lang.io.Bytes;
+import org.apache.flume.Event;
+
+import java.util.Map;
+
+/**
+ * Base of the built in serializers, reading is shared as {@link EventBytes} decodes any of
+ * the built in record formats. Writers compress the body in sizeOf and pick the compressed
+ * body up again in writeTo.
+ */
+abstract class BuiltInEventSerializer implements ChronicleEventSerializer {
+
+    protected final HeaderDictionary dictionary;
+
+    // null without compression
+    private final ThreadLocal<BodyCompressor> compressors;
+
+    protected BuiltInEventSerializer(HeaderDictionary dictionary, ThreadLocal<BodyCompressor> compressors) {
+        this.dictionary = dictionary;
+        this.compressors = compressors;
+    }
+
+    /**
+     * Compress the body of 'event' if compression is enabled.
+     *
+     * @return the compressor holding the compressed body or null to store the body as is
+     */
+    protected BodyCompressor compress(Event event) {
+        if (compressors == null) {
+            return null;
+        }
+        BodyCompressor compressor = compressors.get();
+        return compressor.compress(event.getBody()) ? compressor : null;
+    }
+
+    /**
+     * @return the compressor holding the body compressed by the last {@link #compress(Event)}
+     * on this thread, or null
+     */
+    protected BodyCompressor compressed() {
+        if (compressors == null) {
+            return null;
+        }
+        BodyCompressor compressor = compressors.get();
+        return compressor.isCompressed() ? compressor : null;
+    }
+
+    /**
+     * @return the calling thread's compressor, to be reused for decompressing, or null
+     */
+    private BodyCompressor decompressor() {
+        return compressors != null ? compressors.get() : null;
+    }
+
+    @Override
+    public Event readFrom(Bytes in) {
+        return EventBytes.readFrom(in, dictionary, decompressor());
+    }
+
+    @Override
+    public Map<String, String> readHeaders(Bytes in) {
+        return EventBytes.readHeaders(in, dictionary);
+    }
+
+    @Override
+    public byte[] readBody(Bytes in) {
+        return EventBytes.readBody(in, decompressor());
+    }
+
+    @Override
+    public int skipToBody(Bytes in) {
+        return EventBytes.skipToBody(in);
+    }
+
+    static class Standard extends BuiltInEventSerializer {
+        Standard(HeaderDictionary dictionary, ThreadLocal<BodyCompressor> compressors) {
+            super(dictionary, compressors);
+        }
+
+        @Override
+        public int sizeOf(Event event) {
+            return EventBytes.sizeOf(event, compress(event));
+        }
+
+        @Override
+        public void writeTo(Bytes out, Event event) {
+            EventBytes.writeTo(out, event, compressed());
+        }
+    }
+
+    static class Compact extends BuiltInEventSerializer {
+        Compact(HeaderDictionary dictionary, ThreadLocal<BodyCompressor> compressors) {
+            super(dictionary, compressors);
+        }
+
+        @Override
+        public int sizeOf(Event event) {
+            return CompactEventBytes.sizeOf(event, compress(event));
+        }
+
+        @Override
+        public void writeTo(Bytes out, Event event) {
+            CompactEventBytes.writeTo(out, event, dictionary, compressed());
+        }
+    }
+
+    static class Ascii extends BuiltInEventSerializer {
+        Ascii(HeaderDictionary dictionary, ThreadLocal<BodyCompressor> compressors) {
+            super(dictionary, compressors);
+        }
+
+        @Override
+        public int sizeOf(Event event) {
+            return AsciiEventBytes.sizeOf(event, compress(event));
+        }
+
+        @Override
+        public void writeTo(Bytes out, Event event) {
+            AsciiEventBytes.writeTo(out, event, compressed());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.apache.flume.ChannelFullException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the records held by the channel, both by count and by stored bytes.
+ *
+ * Space is acquired by puts before appending and released when a take commits or a put
+ * rolls back. Acquiring is a CAS on the counters when there is room, when full the caller
+ * parks on a condition until space is released or the keep-alive runs out. Releasing only
+ * takes the lock when a caller is waiting.
+ *
+ * A record is always admitted to an empty channel, so an event larger than the byte
+ * capacity can't wait forever.
+ */
+class CapacityLimiter {
+
+    private final long capacity;
+    private final long byteCapacity;
+    private final long keepAliveNanos;
+
+    private final AtomicLong events;
+    private final AtomicLong bytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private volatile int waiters;
+
+    /**
+     * @param capacity maximum records, 0 for no limit
+     * @param byteCapacity maximum stored bytes, 0 for no limit
+     * @param keepAlive how long to wait for space
+     * @param events records already held, ie recovered on start
+     * @param bytes bytes already held
+     */
+    public CapacityLimiter(long capacity, long byteCapacity, long keepAlive, TimeUnit unit,
+                           long events, long bytes) {
+        this.capacity = capacity > 0 ? capacity : Long.MAX_VALUE;
+        this.byteCapacity = byteCapacity > 0 ? byteCapacity : Long.MAX_VALUE;
+        this.keepAliveNanos = unit.toNanos(keepAlive);
+        this.events = new AtomicLong(events);
+        this.bytes = new AtomicLong(bytes);
+    }
+
+    /**
+     * Acquire space for a record of 'size' bytes, waiting up to the keep-alive for it.
+     *
+     * @throws ChannelFullException if no space became available in time
+     */
+    public void acquire(long size) throws InterruptedException {
+        if (tryAcquire(size)) {
+            return;
+        }
+        long remaining = keepAliveNanos;
+        lock.lockInterruptibly();
+        try {
+            waiters += 1;
+            // waiters is published before the re-check, so a release either sees the
+            // waiter or happens before the re-check sees the space it frees
+            while (!tryAcquire(size)) {
+                if (remaining <= 0L) {
+                    throw new ChannelFullException("Space for put couldn't be acquired, "
+                            + this + ", sinks are likely not keeping up with sources, or the"
+                            + " buffer size is too tight");
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+        } finally {
+            waiters -= 1;
+            lock.unlock();
+        }
+    }
+
+    private boolean tryAcquire(long size) {
+        for (;;) {
+            long currentEvents = events.get();
+            if (currentEvents >= capacity) {
+                return false;
+            }
+            if (events.compareAndSet(currentEvents, currentEvents + 1)) {
+                break;
+            }
+        }
+        for (;;) {
+            long currentBytes = bytes.get();
+            if (currentBytes > 0L && currentBytes + size > byteCapacity) {
+                release(1, 0L);
+                return false;
+            }
+            if (bytes.compareAndSet(currentBytes, currentBytes + size)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Count records that were put without acquiring space here, those put through another
+     * consumer group's channel before this one was attached. They may take the channel beyond
+     * its capacity.
+     */
+    public void admit(long count, long size) {
+        events.addAndGet(count);
+        bytes.addAndGet(size);
+    }
+
+    /**
+     * Return space, waking any waiting puts.
+     */
+    public void release(long count, long size) {
+        if (count != 0) {
+            events.addAndGet(-count);
+        }
+        if (size != 0L) {
+            bytes.addAndGet(-size);
+        }
+        if (waiters > 0) {
+            lock.lock();
+            try {
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public long events() {
+        return events.get();
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CapacityLimiter{" +
+                "events=" + events.get() + "/" + (capacity == Long.MAX_VALUE ? "unlimited" : capacity) +
+                ", bytes=" + bytes.get() + "/" + (byteCapacity == Long.MAX_VALUE ? "unlimited" : byteCapacity) +
+                '}';
+    }
+}
@@ -17,19 +17,32 @@
 package com.logicalpractice.flumechronicle.channel;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.openhft.affinity.AffinitySupport;
 import net.openhft.chronicle.*;
+import net.openhft.lang.Maths;
+import net.openhft.lang.io.VanillaMappedBytes;
 import org.apache.flume.ChannelException;
+import org.apache.flume.ChannelFullException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.channel.BasicChannelSemantics;
 import org.apache.flume.channel.BasicTransactionSemantics;
+import org.apache.flume.conf.Configurables;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -46,55 +59,435 @@ import java.util.concurrent.atomic.AtomicLong;
  *   on put => - thread id
  *   on commit => 0
  *
- *   on take => swapped for the consuming thread id
+ *   on take => flagged as taken
  *   on commit => set to Integer.MAX_VALUE (0x7fffffff)
  *
+ * With consumer groups several channels, one per group, read the same queue at the same
+ * path. Each group has its own bits of the control field (see {@link ConsumerGroup}) and its
+ * own position, frontier and recovery, the chronicle of each shard is shared between them
+ * by a {@link SharedChronicle} and a put through any of the channels is made available to
+ * every group.
+ *
  * The 'position' is a container for the last index for which there are no un-taken
- * events. It is maintained on committing takes and shuffles forward as the channel
- * is consumed.
+ * events. It shuffles forward as the channel is consumed, advanced by the
+ * {@link ChronicleShard} when a take commit consumes the record it is waiting on.
+ *
+ * Takers share a {@link TakeFrontier}, each record is visited once by the forward scan
+ * and records that become available again behind the frontier (rolled back takes, late
+ * committed puts) are handed out from its gap set.
+ *
+ * Puts acquire space from a {@link CapacityLimiter} before appending, waiting up to the
+ * keep-alive when the channel is full. The space is returned when the take commits.
+ *
+ * With a take timeout an empty take waits on the {@link TakeSignal}, which is raised
+ * whenever records are made visible to take.
+ *
+ * On start the records beyond the position are recovered by {@link ChronicleRecovery},
+ * which skips those summarised by the periodically saved {@link RecoveryCheckpoint}.
+ *
+ * With more than one shard the channel is made up of that many independent queues, each a
+ * {@link ChronicleShard} in its own directory under the path. A put goes to the shard picked
+ * by the hash of its shard key header or, without one, by the putting thread. A take starts
+ * with the taking thread's shard and moves on to the others when it is empty.
+ *
+ * Flume creates a new transaction object for each transaction, the buffers, cursors and
+ * chronicle appenders and tailers behind it are kept per thread and reset, so that a put or
+ * take and its commit allocate nothing beyond the events themselves.
  */
 public class ChronicleChannel extends BasicChannelSemantics {
     private static Logger LOGGER = LoggerFactory.getLogger(ChronicleChannel.class);
 
+    // how far ahead the cycle settings must work
+    private static final long CYCLE_HORIZON_MILLIS = TimeUnit.DAYS.toMillis(3653);
+
+    // the names of the consumer groups of the path, one per line
+    private static final String CONSUMER_GROUPS_FILE = "consumer-groups";
+
     // settings
     private String path;
 
+    private boolean zeroCopyTake;
+
+    private String eventFormat;
+
+    // set when eventFormat names a class rather than a built in format
+    private ChronicleEventSerializer customSerializer;
+
+    private Compression compression;
+
+    private int compressionThreshold;
+
+    // one per shard
+    private ChronicleQueueBuilder.VanillaChronicleQueueBuilder[] queueBuilders;
+
+    private String shardKey;
+
+    private long capacity;
+
+    private long byteCapacity;
+
+    private int transactionCapacity;
+
+    private int keepAlive;
+
+    private long takeTimeout;
+
+    private int takeSpins;
+
+    private int takeYields;
+
+    private int checkpointInterval;
+
+    private int metricsSampling;
+
+    private int cleanupInterval;
+
+    private int diskCheckInterval;
+
+    private long minFreeSpace;
+
+    private String durability;
+
+    // every consumer group of the path, just ConsumerGroup.SOLE without groups
+    private List<ConsumerGroup> groups;
+
+    // the group this channel takes for
+    private ConsumerGroup group;
+
+    private long durabilityInterval;
+
+    private long durabilityBytes;
+
     // internals
-    private Chronicle chronicle;
+    private ChronicleShard[] shards;
 
-    private ChroniclePosition position;
+    private SharedChannel sharedChannel;
+
+    private HeaderDictionary dictionary;
+
+    private ChronicleEventSerializer serializer;
 
     private AtomicLong committedSize = new AtomicLong(0L);
 
+    private CapacityLimiter limiter;
+
+    private TakeSignal takeSignal;
+
+    private ChronicleChannelCounter channelCounter;
+
+    // null with the 'os' durability
+    private GroupSync groupSync;
+
+    // body compressors hold scratch buffers so are kept per thread, null without compression
+    private ThreadLocal<BodyCompressor> compressors;
+
+    // every compressor handed out since the start, closed on stop
+    private final List<BodyCompressor> openCompressors = new CopyOnWriteArrayList<>();
+
+    // the buffers and cursors of each thread's transactions, replaced by each start
+    private ThreadLocal<TransactionState> transactionStates;
+
     private ScheduledExecutorService scheduledExecutorService;
 
-    private ScheduledFuture<?> cleanupFuture;
+    private List<ScheduledFuture<?>> cleanupFutures;
+
+    private ScheduledFuture<?> checkpointFuture;
+
+    private ScheduledFuture<?> syncFuture;
 
     @Override
     public void configure(Context context) {
         super.configure(context);
 
         path = context.getString(ChronicleChannelConfiguration.PATH_KEY);
+        Preconditions.checkArgument(path != null, "%s is required", ChronicleChannelConfiguration.PATH_KEY);
+        zeroCopyTake = context.getBoolean(ChronicleChannelConfiguration.ZERO_COPY_TAKE_KEY,
+                ChronicleChannelConfiguration.DEFAULT_ZERO_COPY_TAKE);
+
+        eventFormat = context.getString(ChronicleChannelConfiguration.EVENT_FORMAT_KEY,
+                ChronicleChannelConfiguration.DEFAULT_EVENT_FORMAT);
+        customSerializer = null;
+        if (!isBuiltInEventFormat(eventFormat)) {
+            customSerializer = createSerializer(eventFormat,
+                    context.getSubProperties(ChronicleChannelConfiguration.EVENT_FORMAT_KEY + "."));
+        }
+
+        String compressionName = context.getString(ChronicleChannelConfiguration.COMPRESSION_KEY,
+                ChronicleChannelConfiguration.DEFAULT_COMPRESSION);
+        try {
+            compression = Compression.forName(compressionName);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown " + ChronicleChannelConfiguration.COMPRESSION_KEY
+                    + ": " + compressionName, e);
+        }
+        compressionThreshold = context.getInteger(ChronicleChannelConfiguration.COMPRESSION_THRESHOLD_KEY,
+                ChronicleChannelConfiguration.DEFAULT_COMPRESSION_THRESHOLD);
+
+        int shardCount = context.getInteger(ChronicleChannelConfiguration.SHARDS_KEY,
+                ChronicleChannelConfiguration.DEFAULT_SHARDS);
+        Preconditions.checkArgument(shardCount > 0, "%s must be positive: %s",
+                ChronicleChannelConfiguration.SHARDS_KEY, shardCount);
+        queueBuilders = new ChronicleQueueBuilder.VanillaChronicleQueueBuilder[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            queueBuilders[i] = createQueueBuilder(shardPath(i, shardCount), context);
+        }
+        shardKey = context.getString(ChronicleChannelConfiguration.SHARD_KEY_KEY);
+
+        String groupNames = context.getString(ChronicleChannelConfiguration.CONSUMER_GROUPS_KEY);
+        String groupName = context.getString(ChronicleChannelConfiguration.CONSUMER_GROUP_KEY);
+        if (groupNames == null) {
+            Preconditions.checkArgument(groupName == null, "%s requires %s",
+                    ChronicleChannelConfiguration.CONSUMER_GROUP_KEY, ChronicleChannelConfiguration.CONSUMER_GROUPS_KEY);
+            groups = Collections.singletonList(ConsumerGroup.SOLE);
+            group = ConsumerGroup.SOLE;
+        } else {
+            groups = ConsumerGroup.parse(groupNames);
+            group = null;
+            for (ConsumerGroup candidate : groups) {
+                if (candidate.name().equals(groupName)) {
+                    group = candidate;
+                }
+            }
+            Preconditions.checkArgument(group != null, "%s must be one of the %s '%s': %s",
+                    ChronicleChannelConfiguration.CONSUMER_GROUP_KEY, ChronicleChannelConfiguration.CONSUMER_GROUPS_KEY,
+                    groupNames, groupName);
+        }
+
+        capacity = context.getLong(ChronicleChannelConfiguration.CAPACITY_KEY,
+                ChronicleChannelConfiguration.DEFAULT_CAPACITY);
+        byteCapacity = context.getLong(ChronicleChannelConfiguration.BYTE_CAPACITY_KEY,
+                ChronicleChannelConfiguration.DEFAULT_BYTE_CAPACITY);
+        transactionCapacity = context.getInteger(ChronicleChannelConfiguration.TRANSACTION_CAPACITY_KEY,
+                ChronicleChannelConfiguration.DEFAULT_TRANSACTION_CAPACITY);
+        keepAlive = context.getInteger(ChronicleChannelConfiguration.KEEP_ALIVE_KEY,
+                ChronicleChannelConfiguration.DEFAULT_KEEP_ALIVE);
+        Preconditions.checkArgument(capacity >= 0 && byteCapacity >= 0 && transactionCapacity >= 0 && keepAlive >= 0,
+                "%s, %s, %s and %s must not be negative",
+                ChronicleChannelConfiguration.CAPACITY_KEY, ChronicleChannelConfiguration.BYTE_CAPACITY_KEY,
+                ChronicleChannelConfiguration.TRANSACTION_CAPACITY_KEY, ChronicleChannelConfiguration.KEEP_ALIVE_KEY);
+        takeTimeout = context.getLong(ChronicleChannelConfiguration.TAKE_TIMEOUT_KEY,
+                ChronicleChannelConfiguration.DEFAULT_TAKE_TIMEOUT);
+        takeSpins = context.getInteger(ChronicleChannelConfiguration.TAKE_SPINS_KEY,
+                ChronicleChannelConfiguration.DEFAULT_TAKE_SPINS);
+        takeYields = context.getInteger(ChronicleChannelConfiguration.TAKE_YIELDS_KEY,
+                ChronicleChannelConfiguration.DEFAULT_TAKE_YIELDS);
+        Preconditions.checkArgument(takeTimeout >= 0 && takeSpins >= 0 && takeYields >= 0,
+                "%s, %s and %s must not be negative", ChronicleChannelConfiguration.TAKE_TIMEOUT_KEY,
+                ChronicleChannelConfiguration.TAKE_SPINS_KEY, ChronicleChannelConfiguration.TAKE_YIELDS_KEY);
+        checkpointInterval = context.getInteger(ChronicleChannelConfiguration.CHECKPOINT_INTERVAL_KEY,
+                ChronicleChannelConfiguration.DEFAULT_CHECKPOINT_INTERVAL);
+        Preconditions.checkArgument(checkpointInterval >= 0, "%s must not be negative: %s",
+                ChronicleChannelConfiguration.CHECKPOINT_INTERVAL_KEY, checkpointInterval);
+        metricsSampling = context.getInteger(ChronicleChannelConfiguration.METRICS_SAMPLING_KEY,
+                ChronicleChannelConfiguration.DEFAULT_METRICS_SAMPLING);
+        Preconditions.checkArgument(metricsSampling >= 0, "%s must not be negative: %s",
+                ChronicleChannelConfiguration.METRICS_SAMPLING_KEY, metricsSampling);
+        cleanupInterval = context.getInteger(ChronicleChannelConfiguration.CLEANUP_INTERVAL_KEY,
+                ChronicleChannelConfiguration.DEFAULT_CLEANUP_INTERVAL);
+        diskCheckInterval = context.getInteger(ChronicleChannelConfiguration.DISK_CHECK_INTERVAL_KEY,
+                ChronicleChannelConfiguration.DEFAULT_DISK_CHECK_INTERVAL);
+        Preconditions.checkArgument(cleanupInterval > 0 && diskCheckInterval > 0, "%s and %s must be positive",
+                ChronicleChannelConfiguration.CLEANUP_INTERVAL_KEY, ChronicleChannelConfiguration.DISK_CHECK_INTERVAL_KEY);
+        minFreeSpace = context.getLong(ChronicleChannelConfiguration.MIN_FREE_SPACE_KEY,
+                ChronicleChannelConfiguration.DEFAULT_MIN_FREE_SPACE);
+        Preconditions.checkArgument(minFreeSpace >= 0, "%s must not be negative: %s",
+                ChronicleChannelConfiguration.MIN_FREE_SPACE_KEY, minFreeSpace);
+        durability = context.getString(ChronicleChannelConfiguration.DURABILITY_KEY,
+                ChronicleChannelConfiguration.DEFAULT_DURABILITY);
+        Preconditions.checkArgument(ChronicleChannelConfiguration.DURABILITY_OS.equals(durability)
+                        || ChronicleChannelConfiguration.DURABILITY_PERIODIC.equals(durability)
+                        || ChronicleChannelConfiguration.DURABILITY_COMMIT.equals(durability),
+                "%s must be one of %s, %s or %s: %s", ChronicleChannelConfiguration.DURABILITY_KEY,
+                ChronicleChannelConfiguration.DURABILITY_OS, ChronicleChannelConfiguration.DURABILITY_PERIODIC,
+                ChronicleChannelConfiguration.DURABILITY_COMMIT, durability);
+        durabilityInterval = context.getLong(ChronicleChannelConfiguration.DURABILITY_INTERVAL_KEY,
+                ChronicleChannelConfiguration.DEFAULT_DURABILITY_INTERVAL);
+        durabilityBytes = context.getLong(ChronicleChannelConfiguration.DURABILITY_BYTES_KEY,
+                ChronicleChannelConfiguration.DEFAULT_DURABILITY_BYTES);
+        Preconditions.checkArgument(durabilityInterval > 0 && durabilityBytes >= 0,
+                "%s must be positive and %s not negative", ChronicleChannelConfiguration.DURABILITY_INTERVAL_KEY,
+                ChronicleChannelConfiguration.DURABILITY_BYTES_KEY);
+
+        if (channelCounter == null) {
+            channelCounter = new ChronicleChannelCounter(getName());
+        }
+        Preconditions.checkArgument(capacity == 0 || (transactionCapacity > 0 && transactionCapacity <= capacity),
+                "%s must be between 1 and the %s (%s) when the %s is limited: %s",
+                ChronicleChannelConfiguration.TRANSACTION_CAPACITY_KEY, ChronicleChannelConfiguration.CAPACITY_KEY,
+                capacity, ChronicleChannelConfiguration.CAPACITY_KEY, transactionCapacity);
     }
 
-    @Override
-    public synchronized void start() {
-        ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder;
+    /**
+     * A single shard is the path itself, as a channel was before it could be sharded.
+     */
+    private String shardPath(int shard, int shardCount) {
+        return shardCount == 1 ? path : new File(path, "shard-" + shard).getPath();
+    }
+
+    /**
+     * Build the vanilla chronicle settings, checking that the cycle settings can describe
+     * the cycles for the foreseeable future.
+     */
+    private static ChronicleQueueBuilder.VanillaChronicleQueueBuilder createQueueBuilder(String path, Context context) {
+        Preconditions.checkArgument(path != null, "%s is required", ChronicleChannelConfiguration.PATH_KEY);
+        int cycleLength = context.getInteger(ChronicleChannelConfiguration.CYCLE_LENGTH_KEY,
+                ChronicleChannelConfiguration.DEFAULT_CYCLE_LENGTH);
+        long entriesPerCycle = context.getLong(ChronicleChannelConfiguration.ENTRIES_PER_CYCLE_KEY,
+                ChronicleChannelConfiguration.DEFAULT_ENTRIES_PER_CYCLE);
+        long dataBlockSize = context.getLong(ChronicleChannelConfiguration.DATA_BLOCK_SIZE_KEY,
+                ChronicleChannelConfiguration.DEFAULT_DATA_BLOCK_SIZE);
+        long indexBlockSize = context.getLong(ChronicleChannelConfiguration.INDEX_BLOCK_SIZE_KEY,
+                ChronicleChannelConfiguration.DEFAULT_INDEX_BLOCK_SIZE);
+
+        Preconditions.checkArgument(cycleLength > 0, "%s must be positive: %s",
+                ChronicleChannelConfiguration.CYCLE_LENGTH_KEY, cycleLength);
+        checkBlockSize(ChronicleChannelConfiguration.DATA_BLOCK_SIZE_KEY, dataBlockSize);
+        checkBlockSize(ChronicleChannelConfiguration.INDEX_BLOCK_SIZE_KEY, indexBlockSize);
+
+        ChronicleQueueBuilder.VanillaChronicleQueueBuilder builder = ChronicleQueueBuilder
+                .vanilla(path)
+                .cycleFormat(context.getString(ChronicleChannelConfiguration.CYCLE_FORMAT_KEY,
+                        ChronicleChannelConfiguration.DEFAULT_CYCLE_FORMAT))
+                .cycleLength(cycleLength, false) // the index bits are checked below instead
+                .entriesPerCycle(entriesPerCycle) // checked by the builder
+                .dataBlockSize(dataBlockSize)
+                .indexBlockSize(indexBlockSize);
+
+        // index = cycle << log2(entriesPerCycle) | entry, and chronicle holds the cycle as an int
+        long lastCycle = (System.currentTimeMillis() + CYCLE_HORIZON_MILLIS) / cycleLength;
+        long maxCycle = Math.min(Integer.MAX_VALUE, (1L << (63 - Maths.intLog2(entriesPerCycle))) - 1);
+        Preconditions.checkArgument(lastCycle <= maxCycle,
+                "%s of %s ms runs out of index bits within 10 years, reduce %s: %s",
+                ChronicleChannelConfiguration.CYCLE_LENGTH_KEY, cycleLength,
+                ChronicleChannelConfiguration.ENTRIES_PER_CYCLE_KEY, entriesPerCycle);
+
+        checkCycleFormat(builder);
+        return builder;
+    }
+
+    private static void checkBlockSize(String key, long size) {
+        Preconditions.checkArgument(size >= 4096 && Maths.isPowerOf2(size),
+                "%s must be a power of 2 of at least 4096: %s", key, size);
+    }
+
+    /**
+     * The cycle format must name the cycles either side of the current one, and those a day,
+     * month or year away, differently from the current cycle.
+     */
+    private static void checkCycleFormat(ChronicleQueueBuilder.VanillaChronicleQueueBuilder builder) {
+        CycleMapper cycles;
         try {
-            queueBuilder = ChronicleQueueBuilder
-                    .vanilla(path)
-                    .cycleFormat("yyyyMMDDHH")
-                    .cycleLength((int) TimeUnit.HOURS.toMillis(1));
+            cycles = new CycleMapper(builder);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid " + ChronicleChannelConfiguration.CYCLE_FORMAT_KEY
+                    + ": " + builder.cycleFormat(), e);
+        }
+        int cycleLength = builder.cycleLength();
+        int current = cycles.currentCycle();
+        String name = cycles.nameOf(current);
+        List<Long> distances = new ArrayList<>(Arrays.asList(-1L, 1L));
+        for (int days : new int[]{1, 28, 29, 30, 31, 365, 366}) {
+            long distance = TimeUnit.DAYS.toMillis(days) / cycleLength;
+            if (distance > 1) {
+                distances.add(distance);
+            }
+        }
+        for (long distance : distances) {
+            Preconditions.checkArgument(!name.equals(cycles.nameOf((int) (current + distance))),
+                    "%s '%s' doesn't give each cycle of %s ms a distinct name, more than one is named %s",
+                    ChronicleChannelConfiguration.CYCLE_FORMAT_KEY, builder.cycleFormat(), cycleLength, name);
+        }
+    }
 
-            chronicle = queueBuilder.build();
-        } catch (IOException e) {
-            throw new ChannelException("Failed to start Chronicle instance", e);
+    private static boolean isBuiltInEventFormat(String eventFormat) {
+        return ChronicleChannelConfiguration.EVENT_FORMAT_STANDARD.equals(eventFormat)
+                || ChronicleChannelConfiguration.EVENT_FORMAT_COMPACT.equals(eventFormat)
+                || ChronicleChannelConfiguration.EVENT_FORMAT_ASCII.equals(eventFormat);
+    }
+
+    private static ChronicleEventSerializer createSerializer(String className, Map<String, String> properties) {
+        Object instance;
+        try {
+            instance = Class.forName(className).newInstance();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("unknown " + ChronicleChannelConfiguration.EVENT_FORMAT_KEY
+                    + ": " + className, e);
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalArgumentException("unable to create " + ChronicleChannelConfiguration.EVENT_FORMAT_KEY
+                    + ": " + className, e);
         }
+        Preconditions.checkArgument(instance instanceof ChronicleEventSerializer,
+                "%s: %s is not a ChronicleEventSerializer", ChronicleChannelConfiguration.EVENT_FORMAT_KEY, className);
+        Configurables.configure(instance, new Context(properties));
+        return (ChronicleEventSerializer) instance;
+    }
 
-        position = new ChroniclePosition(path);
+    @Override
+    public synchronized void start() {
+        checkShardLayout();
+        new File(path).mkdirs();
+        checkConsumerGroups();
+
+        channelCounter.start(); // resets the counters
+        channelCounter.setChannelCapacity(capacity);
+        // ready for the puts of the other groups' channels as soon as a shard has recovered
+        committedSize.set(0L);
+        limiter = new CapacityLimiter(capacity, byteCapacity, keepAlive, TimeUnit.SECONDS, 0L, 0L);
+        takeSignal = new TakeSignal(TimeUnit.MILLISECONDS.toNanos(takeTimeout), takeSpins, takeYields);
+        ChronicleShard.PeerListener peerListener = new ChronicleShard.PeerListener() {
+            @Override
+            public void published(int records, long bytes, CapacityLimiter[] acquired) {
+                if (!contains(acquired, limiter)) {
+                    limiter.admit(records, bytes); // put before this channel attached its limiter
+                }
+                channelCounter.setChannelSize(committedSize.addAndGet(records));
+                takeSignal.signal();
+            }
+        };
+
+        sharedChannel = SharedChannel.open(path, group);
+        dictionary = sharedChannel.dictionary();
 
-        performRecovery();
-        LOGGER.info("{} started, using path {}", getName(), path);
+        shards = new ChronicleShard[queueBuilders.length];
+        int started = 0; // a shard that fails to start closes what it opened
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = new ChronicleShard(i, shardPath(i, shards.length), queueBuilders[i], minFreeSpace,
+                        !ChronicleChannelConfiguration.DURABILITY_OS.equals(durability), group, groups, peerListener);
+                ChronicleRecovery.Result result = shards[i].start(getName());
+                started += 1;
+                limiter.admit(result.size, result.bytes);
+                committedSize.addAndGet(result.size);
+            }
+            channelCounter.setChannelSize(committedSize.get());
+            channelCounter.monitor(shards);
+            // puts through the other groups' channels acquire space in it from now on
+            sharedChannel.attach(limiter);
+        } catch (RuntimeException e) {
+            abandonStart(started, e);
+            throw e;
+        }
+        compressors = null;
+        if (compression != Compression.NONE) {
+            compressors = new ThreadLocal<BodyCompressor>() {
+                @Override
+                protected BodyCompressor initialValue() {
+                    BodyCompressor compressor = new BodyCompressor(compression, compressionThreshold);
+                    openCompressors.add(compressor);
+                    return compressor;
+                }
+            };
+        }
+        serializer = createSerializer();
+        final int shardCount = shards.length;
+        transactionStates = new ThreadLocal<TransactionState>() {
+            @Override
+            protected TransactionState initialValue() {
+                return new TransactionState(shardCount);
+            }
+        };
+        LOGGER.info("{} started, using path {} with {} shard(s){}", getName(), path, shards.length,
+                group.name() == null ? "" : " for consumer group " + group.name());
 
         ThreadFactory threadFactory = new ThreadFactoryBuilder()
                 .setDaemon(true)
@@ -102,73 +495,245 @@ public class ChronicleChannel extends BasicChannelSemantics {
                 .build();
 
         scheduledExecutorService = Executors.newScheduledThreadPool(1, threadFactory);
-        cleanupFuture = scheduledExecutorService.scheduleAtFixedRate(
-                new ChronicleCleanup(queueBuilder, new File(path), position),
-                1, 30, TimeUnit.MINUTES);
+        // sweep at least once a cycle so that short cycles are reclaimed promptly
+        long cleanupPeriod = Math.min(queueBuilders[0].cycleLength(), TimeUnit.SECONDS.toMillis(cleanupInterval));
+        long diskCheckPeriod = TimeUnit.SECONDS.toMillis(diskCheckInterval);
+        cleanupFutures = new ArrayList<>(shards.length * 2);
+        for (ChronicleShard shard : shards) {
+            cleanupFutures.add(scheduledExecutorService.scheduleAtFixedRate(shard.cleanupTask(),
+                    cleanupPeriod, cleanupPeriod, TimeUnit.MILLISECONDS));
+            cleanupFutures.add(scheduledExecutorService.scheduleWithFixedDelay(shard.diskCheck(),
+                    diskCheckPeriod, diskCheckPeriod, TimeUnit.MILLISECONDS));
+            shard.cleanupOn(scheduledExecutorService);
+        }
+
+        if (checkpointInterval > 0) {
+            checkpointFuture = scheduledExecutorService.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    updateCheckpoints();
+                }
+            }, checkpointInterval, checkpointInterval, TimeUnit.SECONDS);
+        }
+
+        groupSync = null;
+        if (!ChronicleChannelConfiguration.DURABILITY_OS.equals(durability)) {
+            boolean periodic = ChronicleChannelConfiguration.DURABILITY_PERIODIC.equals(durability);
+            groupSync = new GroupSync(!periodic, periodic ? durabilityBytes : 0L, scheduledExecutorService,
+                    channelCounter.syncLatency());
+            if (periodic) {
+                final GroupSync sync = groupSync;
+                syncFuture = scheduledExecutorService.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        sync.sync();
+                    }
+                }, durabilityInterval, durabilityInterval, TimeUnit.MILLISECONDS);
+            }
+        }
 
         super.start();
     }
 
-    private void performRecovery() throws ChannelException {
-        // starting at the initial position read forward, finding any records that
-        //  - where mid put - these should be discarded (ie flagged as taken)
-        //  - taken but not committed - these should be reset
-        // if we find a committed take (control == MAX_VALUE) and we are sequential from
-        // the current position, we must advance the position.
-        long putsDiscarded = 0, takesRecovered = 0, size = 0;
-        try (ExcerptTailer tailer = chronicle.createTailer()) {
-            long lastPosition = position.get();
-            tailer.index(lastPosition);
-            while (tailer.nextIndex()) {
-                long currentPosition = tailer.index();
-                int control = tailer.readInt(0L);
-                if (control == 0) {
-                    size += 1;
-                } else
-                if (control == Integer.MAX_VALUE && sequentialIndexFrom(chronicle, lastPosition, currentPosition)) {
-                    lastPosition = currentPosition;
-                } else
-                if (control < 0 && control > Integer.MIN_VALUE) {
-                    // is an un-committed put
-                    tailer.writeOrderedInt(0L, Integer.MAX_VALUE);
-                    putsDiscarded += 1;
-                } else
-                if (control > 0 && control < Integer.MAX_VALUE) {
-                    // is an un-committed take, put it back
-                    tailer.writeOrderedInt(0L, 0);
-                    takesRecovered += 1;
-                    size += 1;
+    /**
+     * Release what a start that failed part way had opened, so that the group's shards and the
+     * path's shared parts can be opened again by a later start.
+     */
+    private void abandonStart(int started, RuntimeException failure) {
+        sharedChannel.detach(limiter);
+        for (int i = 0; i < started; i++) {
+            try {
+                shards[i].stop();
+            } catch (IOException | RuntimeException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        sharedChannel.close();
+        channelCounter.stop();
+    }
+
+    /**
+     * The shards of a channel are fixed by the first start, the records of a missing shard
+     * would be silently lost.
+     */
+    private void checkShardLayout() {
+        File directory = new File(path);
+        String[] existing = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.matches("shard-\\d+");
+            }
+        });
+        int found = existing == null ? 0 : existing.length;
+        if (found == 0 && hasPositionFile(directory)) {
+            found = 1; // an unsharded channel
+        }
+        if (found != 0 && found != queueBuilders.length) {
+            throw new ChannelException(path + " holds a channel of " + found + " shard(s), "
+                    + ChronicleChannelConfiguration.SHARDS_KEY + " can't be changed to " + queueBuilders.length);
+        }
+    }
+
+    private static boolean hasPositionFile(File directory) {
+        String[] positions = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.matches("position(-\\w+)?\\.dat");
+            }
+        });
+        return positions != null && positions.length > 0;
+    }
+
+    private static boolean contains(CapacityLimiter[] limiters, CapacityLimiter limiter) {
+        for (CapacityLimiter candidate : limiters) {
+            if (candidate == limiter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The consumer groups of a path are fixed by the first start, each group's bits of the
+     * control field follow from its place in the list. They are kept in 'consumer-groups'.
+     */
+    private void checkConsumerGroups() {
+        File file = new File(path, CONSUMER_GROUPS_FILE);
+        List<String> names = new ArrayList<>(groups.size());
+        for (ConsumerGroup candidate : groups) {
+            if (candidate.name() != null) {
+                names.add(candidate.name());
+            }
+        }
+        try {
+            if (file.exists()) {
+                List<String> existing = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+                if (!existing.equals(names)) {
+                    throw new ChannelException(path + " holds a channel with the consumer groups " + existing
+                            + ", " + ChronicleChannelConfiguration.CONSUMER_GROUPS_KEY + " can't be changed to "
+                            + names);
+                }
+            } else if (!names.isEmpty()) {
+                File directory = new File(path);
+                if (hasPositionFile(directory) || new File(directory, "shard-0").exists()) {
+                    throw new ChannelException(path + " holds a channel without consumer groups, "
+                            + ChronicleChannelConfiguration.CONSUMER_GROUPS_KEY + " can't be added");
                 }
+                Files.write(file.toPath(), names, StandardCharsets.UTF_8);
             }
-            position.set(lastPosition);
         } catch (IOException e) {
-            throw new ChannelException("Failed recovery", e);
+            throw new ChannelException("Unable to check the consumer groups of " + path, e);
+        }
+    }
+
+    private ChronicleEventSerializer createSerializer() {
+        if (customSerializer != null) {
+            return customSerializer;
+        }
+        switch (eventFormat) {
+            case ChronicleChannelConfiguration.EVENT_FORMAT_COMPACT:
+                return new BuiltInEventSerializer.Compact(dictionary, compressors);
+            case ChronicleChannelConfiguration.EVENT_FORMAT_ASCII:
+                return new BuiltInEventSerializer.Ascii(dictionary, compressors);
+            default:
+                return new BuiltInEventSerializer.Standard(dictionary, compressors);
+        }
+    }
+
+    /**
+     * Bring the recovery checkpoints up to date with the records appended since they were
+     * last saved, and save them. The work is done on the scheduler thread.
+     */
+    @VisibleForTesting
+    void saveCheckpoint() {
+        try {
+            scheduledExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    updateCheckpoints();
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.warn("unable to update the recovery checkpoint - {}", e.getCause().toString());
+        }
+    }
+
+    private void updateCheckpoints() {
+        for (ChronicleShard shard : shards) {
+            shard.updateCheckpoint();
         }
-        LOGGER.info("recovery complete: committedSize={}, discarded={}, recovered={}",
-                size, putsDiscarded, takesRecovered);
-        committedSize.set(size);
     }
 
     @Override
     public synchronized void stop() {
+        if (checkpointFuture != null) {
+            checkpointFuture.cancel(false);
+        }
+        if (syncFuture != null) {
+            syncFuture.cancel(false);
+        }
+        saveCheckpoint();
+        if (groupSync != null) {
+            groupSync.sync(); // before the files are closed
+        }
         try {
-            chronicle.close();
+            sharedChannel.detach(limiter);
+            for (ChronicleShard shard : shards) {
+                shard.stop();
+            }
+            sharedChannel.close();
+            for (BodyCompressor compressor : openCompressors) {
+                compressor.close();
+            }
+            openCompressors.clear();
         } catch (IOException e) {
             throw new ChannelException("Unable to close the chronicle instance", e);
         } finally {
-            if (cleanupFuture != null) {
-                cleanupFuture.cancel(false);
+            if (cleanupFutures != null) {
+                for (ScheduledFuture<?> cleanupFuture : cleanupFutures) {
+                    cleanupFuture.cancel(false);
+                }
                 scheduledExecutorService.shutdown(); // it'll shutdown eventually
             }
         }
 
+        channelCounter.setChannelSize(committedSize.get());
+        channelCounter.stop();
         super.stop();
         LOGGER.info("{} stopped", getName());
     }
 
     @Override
     protected BasicTransactionSemantics createTransaction() {
-        return new ChronicleChannelTransaction(chronicle, position, committedSize);
+        // called on the thread that will own the transaction
+        return new ChronicleChannelTransaction(transactionStates.get(), shards, shardKey, committedSize,
+                serializer, maxRecordSize(), zeroCopyTake, limiter, sharedChannel.limiters(),
+                transactionCapacity > 0 ? transactionCapacity : Integer.MAX_VALUE, takeSignal,
+                channelCounter, metricsSampling, groupSync, groupSync != null ? dictionary : null);
+    }
+
+    /**
+     * A record can't span the data blocks, vanilla prefixes each with a 4 byte length.
+     */
+    private int maxRecordSize() {
+        return (int) Math.min(Integer.MAX_VALUE, queueBuilders[0].dataBlockSize() - 4);
+    }
+
+    /**
+     * Take up to 'max' events within the current thread's transaction. The run of records
+     * is claimed from the take frontier in one step rather than one record at a time.
+     *
+     * @param max the maximum number of events to take
+     * @param into receives the events taken
+     * @return the number of events added to 'into', 0 if none became available within the
+     * take timeout
+     */
+    public int takeBatch(int max, List<Event> into) throws ChannelException {
+        Preconditions.checkArgument(max > 0, "max must be positive");
+        ChronicleChannelTransaction transaction = (ChronicleChannelTransaction) getTransaction();
+        return transaction.takeBatch(max, into);
     }
 
     /**
@@ -179,14 +744,44 @@ public class ChronicleChannel extends BasicChannelSemantics {
         return committedSize.get();
     }
 
+    @VisibleForTesting
+    ChronicleShard[] getShards() {
+        return shards;
+    }
+
     @VisibleForTesting
     Chronicle getChronicle() {
-        return chronicle;
+        return shards[0].chronicle();
     }
 
     @VisibleForTesting
     ChroniclePosition getPosition() {
-        return position;
+        return shards[0].position();
+    }
+
+    @VisibleForTesting
+    TakeFrontier getFrontier() {
+        return shards[0].frontier();
+    }
+
+    @VisibleForTesting
+    CapacityLimiter getLimiter() {
+        return limiter;
+    }
+
+    @VisibleForTesting
+    TakeSignal getTakeSignal() {
+        return takeSignal;
+    }
+
+    @VisibleForTesting
+    ChronicleChannelCounter getChannelCounter() {
+        return channelCounter;
+    }
+
+    @VisibleForTesting
+    ChronicleRecovery.Result getLastRecovery() {
+        return shards[0].lastRecovery();
     }
 
     enum TransactionType {
@@ -195,103 +790,477 @@ public class ChronicleChannel extends BasicChannelSemantics {
 
     private static class ChronicleChannelTransaction extends BasicTransactionSemantics {
 
-        private final ResizingLongArray indexes = new ResizingLongArray(64);
+        private long scans;
 
-        private final Chronicle chronicle;
-
-        private final ChroniclePosition position;
+        private final ChronicleShard[] shards;
+        private final String shardKey;
         private final AtomicLong committedSize;
 
-        private TransactionType type = TransactionType.NONE;
+        private final ChronicleEventSerializer serializer;
+        private final int maxRecordSize;
+        private final boolean zeroCopyTake;
+        private final CapacityLimiter limiter;
+        // those of every group channel started, a put takes space in each group's backlog
+        private final CapacityLimiter[] putLimiters;
+        private final int transactionCapacity;
+        private final TakeSignal takeSignal;
+        private final ChronicleChannelCounter channelCounter;
 
-        // note that the chronicle keeps WeakReference to the appender & tailer instances
-        // but in order to ensure that these don't get collected during a transaction we
-        // keep a hard reference to them
-        private ExcerptAppender appender;
-        private ExcerptTailer tailer;
+        // the files written by this transaction, to be forced on commit, null when
+        // durability is left to the OS
+        private final GroupSync groupSync;
+        // forced before a put commit's records are made visible, null with the 'os' durability
+        private final HeaderDictionary durableDictionary;
+        private final List<VanillaMappedBytes> writtenFiles;
+        // the consumed bitmap blocks among them, reserved until handed over
+        private final List<VanillaMappedBytes> reservedBlocks;
+
+        // residence times are measured whenever histograms are sampled at all, latencies only
+        // when this transaction was picked for timing
+        private final boolean sampling;
+        private final boolean timed;
+
+        // the work of this transaction in each shard, created on the thread's first use and
+        // empty in the shards this transaction hasn't touched
+        private final ShardCursor[] cursors;
+
+        // number and stored size of the records put or taken by this transaction
+        private int size;
+        private long bytes;
 
-        public ChronicleChannelTransaction(Chronicle chronicle, ChroniclePosition position, AtomicLong committedSize) {
-            this.chronicle = chronicle;
-            this.position = position;
+        // the zero copy events handed out by this transaction and the mapped data files
+        // reserved so that they remain mapped until the transaction completes
+        private final List<ExcerptEvent> excerptEvents;
+        private final List<VanillaMappedBytes> reservedDataBytes;
+        private VanillaMappedBytes lastReserved;
+
+        private TransactionType type = TransactionType.NONE;
+
+        public ChronicleChannelTransaction(TransactionState state, ChronicleShard[] shards, String shardKey,
+                                           AtomicLong committedSize,
+                                           ChronicleEventSerializer serializer,
+                                           int maxRecordSize, boolean zeroCopyTake,
+                                           CapacityLimiter limiter, CapacityLimiter[] putLimiters,
+                                           int transactionCapacity,
+                                           TakeSignal takeSignal, ChronicleChannelCounter channelCounter,
+                                           int metricsSampling, GroupSync groupSync,
+                                           HeaderDictionary durableDictionary) {
+            this.shards = shards;
+            this.shardKey = shardKey;
             this.committedSize = committedSize;
+            this.serializer = serializer;
+            this.maxRecordSize = maxRecordSize;
+            this.zeroCopyTake = zeroCopyTake;
+            this.limiter = limiter;
+            this.putLimiters = putLimiters;
+            this.transactionCapacity = transactionCapacity;
+            this.takeSignal = takeSignal;
+            this.channelCounter = channelCounter;
+            this.groupSync = groupSync;
+            this.durableDictionary = durableDictionary;
+            this.sampling = metricsSampling > 0;
+            this.timed = sampling && ThreadLocalRandom.current().nextInt(metricsSampling) == 0;
+            state.reset();
+            this.cursors = state.cursors;
+            this.writtenFiles = groupSync != null ? state.writtenFiles : null;
+            this.reservedBlocks = groupSync != null ? state.reservedBlocks : null;
+            this.excerptEvents = zeroCopyTake ? state.excerptEvents : null;
+            this.reservedDataBytes = zeroCopyTake ? state.reservedDataBytes : null;
         }
 
         @Override
         protected void doPut(Event event) throws InterruptedException {
             becomeTransactionType(TransactionType.PUT);
-            initialiseAppenderIfRequired();
+            checkTransactionCapacity("Put");
+            channelCounter.incrementEventPutAttemptCount();
+            ShardCursor cursor = cursor(shardFor(event));
+            if (cursor.shard.isLowOnSpace()) {
+                throw new ChannelFullException("Put refused, the disk of " + cursor.shard
+                        + " has less than the " + ChronicleChannelConfiguration.MIN_FREE_SPACE_KEY + " free");
+            }
+            initialiseAppenderIfRequired(cursor);
+            ExcerptAppender appender = cursor.appender;
 
-            appender.startExcerpt(4 + EventBytes.sizeOf(event));
+            int recordSize = 4 + serializer.sizeOf(event);
+            if (recordSize > maxRecordSize) {
+                throw new ChannelException("event of " + recordSize + " bytes is larger than the "
+                        + ChronicleChannelConfiguration.DATA_BLOCK_SIZE_KEY + " allows: " + maxRecordSize);
+            }
+            acquire(recordSize); // the upper bound, trimmed once written
 
-            appender.writeInt(-AffinitySupport.getThreadId()); // initial value for the lock is a neg number
-                                                               // this will be zero'd in the commit phase
-            EventBytes.writeTo(appender, event);
-            appender.finish();
-            indexes.add(appender.lastWrittenIndex());
+            // read before the append, the backlog timeline needs a time no later than the put
+            boolean first = cursor.indexes.size() == 0;
+            long putTime = first ? System.currentTimeMillis() : 0L;
+
+            long written = 0L;
+            try {
+                appender.startExcerpt(recordSize);
+                appender.writeInt(-AffinitySupport.getThreadId()); // initial value for the lock is a neg number
+                                                                   // this will be zero'd in the commit phase
+                serializer.writeTo(appender, event);
+                written = appender.position();
+                appender.finish();
+                cursor.indexes.add(appender.lastWrittenIndex());
+                cursor.bytes += written;
+                size += 1;
+                bytes += written;
+                if (first) {
+                    cursor.shard.backlog().mark(appender.lastWrittenIndex(), putTime);
+                }
+                if (timed && size == 1) {
+                    // the first put of a timed transaction is followed through to its take
+                    cursor.shard.residenceSampler().put(appender.lastWrittenIndex(), System.nanoTime(),
+                            cursor.shard.position().get());
+                }
+            } finally {
+                // all of it if the append failed, otherwise the unused part of the bound
+                release(putLimiters, written == 0L ? 1 : 0, recordSize - written);
+            }
+        }
+
+        /**
+         * Acquire space in every group's limiter, or in none of them.
+         */
+        private void acquire(long recordSize) throws InterruptedException {
+            int acquired = 0;
+            try {
+                for (; acquired < putLimiters.length; acquired++) {
+                    putLimiters[acquired].acquire(recordSize);
+                }
+            } catch (InterruptedException | RuntimeException e) {
+                release(Arrays.copyOf(putLimiters, acquired), 1, recordSize);
+                throw e;
+            }
+        }
+
+        private void release(CapacityLimiter[] limiters, long count, long size) {
+            for (CapacityLimiter putLimiter : limiters) {
+                putLimiter.release(count, size);
+            }
+        }
+
+        /**
+         * The shard picked by the hash of the event's shard key, or else by the putting thread.
+         */
+        private int shardFor(Event event) {
+            if (shards.length == 1) {
+                return 0;
+            }
+            String key = shardKey != null ? event.getHeaders().get(shardKey) : null;
+            int hash = key != null ? key.hashCode() : AffinitySupport.getThreadId();
+            return (hash & Integer.MAX_VALUE) % shards.length;
         }
 
         @Override
         protected Event doTake() throws InterruptedException {
             becomeTransactionType(TransactionType.TAKE);
-            initialiseTailerIfRequired();
+            checkTransactionCapacity("Take");
+            channelCounter.incrementEventTakeAttemptCount();
+            scans = 0L;
+
+            if (!timed) {
+                return waitForEvent();
+            }
+            long started = System.nanoTime();
+            try {
+                return waitForEvent();
+            } finally {
+                channelCounter.takeLatency().record(System.nanoTime() - started);
+                channelCounter.takeScanLength().record(scans);
+            }
+        }
 
+        private Event waitForEvent() throws InterruptedException {
             int threadId = AffinitySupport.getThreadId();
-            long firstPos = tailer.index(); // could be 0
-            long scans = 0L;
+            // noted before looking so that a put committed while looking ends the wait
+            long seen = takeSignal.published();
+            Event event = tryTake(threadId);
+            if (event != null || takeSignal.timeoutNanos() == 0L) {
+                return event;
+            }
+            long deadline = System.nanoTime() + takeSignal.timeoutNanos();
+            while (takeSignal.await(seen, deadline)) {
+                seen = takeSignal.published();
+                event = tryTake(threadId);
+                if (event != null) {
+                    return event;
+                }
+            }
+            return null;
+        }
 
-            // first loop... from current pos until end
-            // hopefully this is the normal fast case.
-            while (tailer.nextIndex()) {
-                scans += 1;
-                if (acquireRecord(threadId)) {
-                    return EventBytes.readFrom(tailer);
+        /**
+         * Take from the taking thread's own shard, then from each of the others in turn.
+         */
+        private Event tryTake(int threadId) {
+            int home = threadId % shards.length;
+            for (int i = 0; i < shards.length; i++) {
+                ShardCursor cursor = cursor((home + i) % shards.length);
+                initialiseTailerIfRequired(cursor);
+                Event event = tryTake(cursor, threadId);
+                if (event != null) {
+                    return event;
                 }
             }
+            return null;
+        }
 
-            // else from position to firstPos.. this is the exhaustive step
-            // to make sure we scan all possible locations
-            for(
-                toIndex(position.get()); /* reset to earliest available */
-                tailer.index() < firstPos; /* while still before firstPos */
-                tailer.nextIndex()
-            ) {
-                scans += 1;
-                if (acquireRecord(threadId)) {
-                    return EventBytes.readFrom(tailer);
+        private Event tryTake(ShardCursor cursor, int threadId) {
+            ExcerptTailer tailer = cursor.tailer;
+            TakeFrontier frontier = cursor.shard.frontier();
+
+            // first any records that have been released behind the frontier
+            if (acquireFromGaps(cursor, threadId)) {
+                return readEvent(cursor);
+            }
+
+            // then forward from the frontier, each index is claimed from the frontier before
+            // examining it so that no two takers visit the same record
+            long from = frontier.scanned();
+            for (;;) {
+                if (tailer.index() != from) {
+                    toIndex(tailer, from);
+                }
+                if (!tailer.nextIndex()) {
+                    break; // end of the queue
+                }
+                if (frontier.advance(from, tailer.index())) {
+                    scans += 1;
+                    if (acquireRecord(cursor, threadId)) {
+                        return readEvent(cursor);
+                    }
                 }
+                from = frontier.scanned();
             }
-            // nope .. reset the tailer to position, ready for next time
-            toIndex(position.get());
 
             if (LOGGER.isTraceEnabled())
-                LOGGER.trace("doTake() - null, threadId={}, firstPos={}, position={}, scans={}, committedSize={}",
-                        threadId, firstPos, position.get(), scans, committedSize.get());
+                LOGGER.trace("doTake() - null, threadId={}, shard={}, scans={}, committedSize={}",
+                        threadId, cursor.shard, scans, committedSize.get());
             return null;
         }
 
-        private boolean acquireRecord(int threadId) {
-            if (tailer.compareAndSwapInt(0L, 0, threadId)) {
+        int takeBatch(int max, List<Event> into) {
+            Preconditions.checkState(getState() == State.OPEN,
+                    "takeBatch() called when transaction is %s!", getState());
+            becomeTransactionType(TransactionType.TAKE);
+            checkTransactionCapacity("Take");
+            max = Math.min(max, transactionCapacity - size);
+            channelCounter.incrementEventTakeAttemptCount();
+            scans = 0L;
+
+            if (!timed) {
+                return waitForEvents(max, into);
+            }
+            long started = System.nanoTime();
+            try {
+                return waitForEvents(max, into);
+            } finally {
+                channelCounter.takeLatency().record(System.nanoTime() - started);
+                channelCounter.takeScanLength().record(scans);
+            }
+        }
+
+        private int waitForEvents(int max, List<Event> into) {
+            int threadId = AffinitySupport.getThreadId();
+            long seen = takeSignal.published();
+            int taken = takeAvailable(threadId, max, into);
+            if (taken > 0 || takeSignal.timeoutNanos() == 0L) {
+                return taken;
+            }
+            long deadline = System.nanoTime() + takeSignal.timeoutNanos();
+            try {
+                while (takeSignal.await(seen, deadline)) {
+                    seen = takeSignal.published();
+                    taken = takeAvailable(threadId, max, into);
+                    if (taken > 0) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // as BasicTransactionSemantics.take()
+            }
+            return taken;
+        }
+
+        private int takeAvailable(int threadId, int max, List<Event> into) {
+            int taken = 0;
+            int home = threadId % shards.length;
+            for (int i = 0; i < shards.length && taken < max; i++) {
+                ShardCursor cursor = cursor((home + i) % shards.length);
+                initialiseTailerIfRequired(cursor);
+                taken += takeAvailable(cursor, threadId, max - taken, into);
+            }
+            return taken;
+        }
+
+        private int takeAvailable(ShardCursor cursor, int threadId, int max, List<Event> into) {
+            int taken = 0;
+
+            while (taken < max && acquireFromGaps(cursor, threadId)) {
+                into.add(readEvent(cursor));
+                taken += 1;
+            }
+
+            int before = into.size();
+            while (taken < max && takeRun(cursor, threadId, max - taken, into)) {
+                taken += into.size() - before;
+                before = into.size();
+            }
+
+            if (LOGGER.isTraceEnabled())
+                LOGGER.trace("takeBatch() - {}, threadId={}, shard={}, scans={}",
+                        taken, threadId, cursor.shard, scans);
+            return taken;
+        }
+
+        /**
+         * Claim the run of records following the frontier with a single advance, then take
+         * those available during one walk over it. The run is at most 'max' records and ends
+         * at the last committed record of its cycle, the entries of a cycle are contiguous so
+         * every index up to it is a record. Beyond that, at the end of a cycle or among puts
+         * still in flight, the records are claimed one at a time.
+         *
+         * @return false at the end of the queue
+         */
+        private boolean takeRun(ShardCursor cursor, int threadId, int max, List<Event> into) {
+            ExcerptTailer tailer = cursor.tailer;
+            TakeFrontier frontier = cursor.shard.frontier();
+            CycleMapper cycles = cursor.shard.cycles();
+            long first;
+            long last;
+            for (;;) {
+                long from = frontier.scanned();
+                if (tailer.index() != from) {
+                    toIndex(tailer, from);
+                }
+                if (!tailer.nextIndex()) {
+                    return false;
+                }
+                first = tailer.index();
+                long committed = cursor.shard.shared().lastCommitted();
+                last = committed > first && cycles.cycleOf(committed) == cycles.cycleOf(first)
+                        ? Math.min(committed, first + max - 1) : first;
+                if (frontier.advance(from, last)) {
+                    break;
+                }
+            }
+            for (long index = first; ; index++) {
+                if (index != first) {
+                    step(tailer, index);
+                }
+                scans += 1;
+                if (acquireRecord(cursor, threadId)) {
+                    into.add(readEvent(cursor));
+                }
+                if (index == last) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean acquireFromGaps(ShardCursor cursor, int threadId) {
+            TakeFrontier frontier = cursor.shard.frontier();
+            ChroniclePosition position = cursor.shard.position();
+            for (long gap = frontier.pollGap(); gap != TakeFrontier.NO_GAP; gap = frontier.pollGap()) {
+                if (gap <= position.get()) {
+                    continue; // stale, already consumed
+                }
+                scans += 1;
+                toIndex(cursor.tailer, gap);
+                if (acquireRecord(cursor, threadId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Read the event at the current tailer position, the tailer must be positioned
+         * just after the control field.
+         */
+        private Event readEvent(ShardCursor cursor) {
+            ExcerptTailer tailer = cursor.tailer;
+            if (!zeroCopyTake) {
+                return serializer.readFrom(tailer);
+            }
+            VanillaMappedBytes dataBytes = VanillaExcerptProxy.dataBytes(tailer);
+            if (dataBytes != lastReserved) {
+                dataBytes.reserve();
+                reservedDataBytes.add(dataBytes);
+                lastReserved = dataBytes;
+            }
+            ExcerptEvent event = new ExcerptEvent(tailer.index(), tailer.slice(), serializer);
+            excerptEvents.add(event);
+            return event;
+        }
+
+        private void releaseExcerptEvents() {
+            if (!zeroCopyTake) {
+                return;
+            }
+            for (int i = 0; i < excerptEvents.size(); i++) {
+                excerptEvents.get(i).release();
+            }
+            excerptEvents.clear();
+            for (int i = 0; i < reservedDataBytes.size(); i++) {
+                reservedDataBytes.get(i).release();
+            }
+            reservedDataBytes.clear();
+            lastReserved = null;
+        }
+
+        private boolean acquireRecord(ShardCursor cursor, int threadId) {
+            ExcerptTailer tailer = cursor.tailer;
+            if (cursor.shard.group().take(tailer)) {
                 if (LOGGER.isTraceEnabled())
                     LOGGER.trace("doTake() - {}, threadId={}", tailer.index(), threadId);
-                indexes.add(tailer.index());
+                cursor.indexes.add(tailer.index());
+                size += 1;
+                bytes += tailer.capacity();
+                if (sampling) {
+                    long putTime = cursor.shard.residenceSampler().take(tailer.index());
+                    if (putTime != -1L) {
+                        channelCounter.residenceTime().record(System.nanoTime() - putTime);
+                    }
+                }
                 tailer.position(4); // skip the control field ready for the read of payload
                 return true;
             }
             return false;
         }
 
-        private void initialiseTailerIfRequired() {
-            if (tailer == null) {
-                try {
-                    tailer = chronicle.createTailer();
-                    toIndex(position.get()); // fast forward to last known safe position
-                } catch (IOException e) {
-                    throw new ChannelException("unable to create new Tailer", e);
-                }
+        private void checkTransactionCapacity(String list) {
+            if (size >= transactionCapacity) {
+                throw new ChannelException(list + " list for ChronicleChannelTransaction, capacity "
+                        + transactionCapacity + " full, consider committing more frequently, "
+                        + "increasing capacity or increasing thread count");
+            }
+        }
+
+        private ShardCursor cursor(int shard) {
+            if (cursors[shard] == null) {
+                cursors[shard] = new ShardCursor(shards[shard]);
+            }
+            return cursors[shard];
+        }
+
+        private void initialiseTailerIfRequired(ShardCursor cursor) {
+            if (cursor.tailer == null) {
+                cursor.tailer = cursor.shard.shared().tailer();
+                toIndex(cursor.tailer, cursor.shard.position().get()); // fast forward to last known safe position
+            }
+        }
+
+        /**
+         * Move the tailer on to 'index', the record following its current one.
+         */
+        private static void step(ExcerptTailer tailer, long index) {
+            if (!tailer.nextIndex() || tailer.index() != index) {
+                toIndex(tailer, index);
             }
         }
 
-        private void toIndex(long index) {
+        private static void toIndex(ExcerptTailer tailer, long index) {
             if (index > 0) {
                 boolean success = tailer.index(index);
                 if (!success) {
@@ -302,13 +1271,9 @@ public class ChronicleChannel extends BasicChannelSemantics {
             }
         }
 
-        private void initialiseAppenderIfRequired() {
-            if (appender == null) {
-                try {
-                    appender = chronicle.createAppender();
-                } catch (IOException e) {
-                    throw new ChannelException("unable to create new Appender", e);
-                }
+        private void initialiseAppenderIfRequired(ShardCursor cursor) {
+            if (cursor.appender == null) {
+                cursor.appender = cursor.shard.shared().appender();
             }
         }
 
@@ -316,14 +1281,48 @@ public class ChronicleChannel extends BasicChannelSemantics {
         protected synchronized void doCommit() throws InterruptedException {
             switch (type) {
                 case PUT:
-                    makeIndexesVisibleToTake();
-                    committedSize.addAndGet(indexes.size());
+                    long started = timed ? System.nanoTime() : 0L;
+                    if (durableDictionary != null) {
+                        // a record made visible must never outlive the entries it refers to
+                        durableDictionary.sync();
+                    }
+                    for (ShardCursor cursor : cursors) {
+                        if (touched(cursor)) {
+                            SharedChronicle shared = cursor.shard.shared();
+                            shared.beginPublish();
+                            try {
+                                shared.committed(cursor.indexes.highest());
+                                makeIndexesVisibleToTake(cursor);
+                                cursor.shard.addSize(cursor.indexes.size());
+                                shared.published(cursor.shard, cursor.indexes, cursor.bytes, putLimiters);
+                            } finally {
+                                shared.endPublish();
+                            }
+                        }
+                    }
+                    takeSignal.signal();
+                    sync();
+                    if (timed) {
+                        channelCounter.putCommitLatency().record(System.nanoTime() - started);
+                    }
+                    channelCounter.addToEventPutSuccessCount(size);
+                    channelCounter.setChannelSize(committedSize.addAndGet(size));
                     break;
                 case TAKE:
-                    long currentPosition = position.get();
-                    makeIndexesFlaggedAsConsumed();
-                    committedSize.addAndGet(-indexes.size());
-                    LOGGER.debug("takeCommitted pos:{} => {}, size={}", currentPosition, position.get(), committedSize.get());
+                    for (ShardCursor cursor : cursors) {
+                        if (touched(cursor)) {
+                            makeIndexesFlaggedAsConsumed(cursor);
+                            cursor.shard.addSize(-cursor.indexes.size());
+                            noteWritten(cursor.shard.position().mappedBytes());
+                        }
+                    }
+                    sync();
+                    channelCounter.addToEventTakeSuccessCount(size);
+                    channelCounter.setChannelSize(committedSize.addAndGet(-size));
+                    limiter.release(size, bytes);
+                    releaseExcerptEvents();
+                    if (LOGGER.isDebugEnabled())
+                        LOGGER.debug("takeCommitted {}, size={}", size, committedSize.get());
                     break;
             }
         }
@@ -335,51 +1334,162 @@ public class ChronicleChannel extends BasicChannelSemantics {
                 case PUT:
                     // rolling back puts is exactly the same effect as
                     // them having been consumed by a take ... hence
-                    makeIndexesFlaggedAsConsumed();
+                    for (ShardCursor cursor : cursors) {
+                        if (touched(cursor)) {
+                            makeIndexesFlaggedAsConsumed(cursor);
+                        }
+                    }
+                    release(putLimiters, size, bytes);
                     break;
                 case TAKE:
-                    // undoing a Take is just setting the control int to zero
-                    // which is exactly the logic for committing puts
-                    makeIndexesVisibleToTake();
+                    // undoing a Take clears the group's bits of the control int, the same
+                    // as committing puts with a single group
+                    for (ShardCursor cursor : cursors) {
+                        if (touched(cursor)) {
+                            makeIndexesReleased(cursor);
+                        }
+                    }
+                    takeSignal.signal();
+                    releaseExcerptEvents();
                     break;
             }
+            if (writtenFiles != null) {
+                writtenFiles.clear(); // nothing to make durable
+                releaseReservedBlocks();
+            }
+        }
+
+        private static boolean touched(ShardCursor cursor) {
+            return cursor != null && cursor.indexes.size() > 0;
+        }
+
+        /**
+         * Hand the files written by the commit to the group sync, waiting for them to be
+         * forced when that's the durability.
+         */
+        private void sync() {
+            if (groupSync != null) {
+                groupSync.committed(writtenFiles, bytes);
+                writtenFiles.clear();
+                releaseReservedBlocks();
+            }
+        }
+
+        /**
+         * @return true if 'file' wasn't already noted
+         */
+        private boolean noteWritten(VanillaMappedBytes file) {
+            if (writtenFiles == null) {
+                return false;
+            }
+            for (int i = writtenFiles.size() - 1; i >= 0; i--) {
+                if (writtenFiles.get(i) == file) {
+                    return false;
+                }
+            }
+            writtenFiles.add(file);
+            return true;
+        }
+
+        private void releaseReservedBlocks() {
+            for (int i = 0; i < reservedBlocks.size(); i++) {
+                reservedBlocks.get(i).release();
+            }
+            reservedBlocks.clear();
         }
 
-        private void makeIndexesVisibleToTake() {
-            try (ExcerptTailer tailer = chronicle.createTailer()) {
-                for (int i = 0; i < indexes.size(); i ++) {
-                    long index = indexes.get(i);
-                    if (tailer.index(index)) {
-                        tailer.writeOrderedInt(0L, 0);
+        private void makeIndexesVisibleToTake(ShardCursor cursor) {
+            // each run is walked forward from a single lookup of its start. The ordered
+            // writes need no fence of their own, the single fence in released() publishes
+            // the whole batch before the frontier is checked.
+            initialiseTailerIfRequired(cursor);
+            ExcerptTailer tailer = cursor.tailer;
+            IndexRuns indexes = cursor.indexes;
+            for (int run = 0; run < indexes.runs(); run++) {
+                for (long index = indexes.start(run); index <= indexes.end(run); index++) {
+                    toRecord(tailer, indexes.start(run), index);
+                    tailer.writeOrderedInt(0L, 0);
+                    if (writtenFiles != null) {
+                        noteWritten(VanillaExcerptProxy.dataBytes(tailer));
+                        noteWritten(VanillaExcerptProxy.indexBytes(tailer)); // the appended index entry
                     }
                 }
-            } catch (IOException e) {
-                throw new ChannelException("unable to initialise a Tailer", e);
             }
+            cursor.shard.frontier().released(indexes);
         }
 
-        private void makeIndexesFlaggedAsConsumed() {
-            // first mark all the 'indexes' records as consumed
-            for (int i = 0; i < indexes.size(); i++) {
-                long index = indexes.get(i);
-                toIndex(index); // move to the record then, flag it as consumed
-                tailer.writeOrderedInt(0L, Integer.MAX_VALUE);
+        private void makeIndexesReleased(ShardCursor cursor) {
+            ExcerptTailer tailer = cursor.tailer;
+            ConsumerGroup group = cursor.shard.group();
+            IndexRuns indexes = cursor.indexes;
+            for (int run = 0; run < indexes.runs(); run++) {
+                for (long index = indexes.start(run); index <= indexes.end(run); index++) {
+                    toRecord(tailer, indexes.start(run), index);
+                    group.release(tailer);
+                }
             }
+            cursor.shard.frontier().released(indexes);
+        }
 
-            // now advance position by as much as we can by scanning the control flags
-            // after the current position, we stop at the first that isn't MAX_VALUE
+        /**
+         * Move to the record at 'index' of the run starting at 'start', looking up the start
+         * and stepping on to the rest. A run's records are consecutive entries of one cycle.
+         */
+        private static void toRecord(ExcerptTailer tailer, long start, long index) {
+            if (index == start) {
+                toIndex(tailer, index);
+            } else {
+                step(tailer, index);
+            }
+        }
 
-            long initialPosition = position.get();
-            long lastPosition = initialPosition;
+        private void makeIndexesFlaggedAsConsumed(ShardCursor cursor) {
+            IndexRuns indexes = cursor.indexes;
+            if (indexes.size() == 0) {
+                return;
+            }
+            initialiseTailerIfRequired(cursor); // a rolled back put won't have one yet
+            ExcerptTailer tailer = cursor.tailer;
 
-            toIndex(initialPosition);
-            while(tailer.nextIndex() && tailer.readInt(0L) == Integer.MAX_VALUE) {
-                lastPosition = tailer.index();
+            // mark all the 'indexes' records as consumed, the shard moves the position on
+            // over them once the records before them are consumed too. A rolled back put is
+            // consumed by every group.
+            boolean put = type == TransactionType.PUT;
+            ConsumerGroup group = cursor.shard.group();
+            for (int run = 0; run < indexes.runs(); run++) {
+                for (long index = indexes.start(run); index <= indexes.end(run); index++) {
+                    toRecord(tailer, indexes.start(run), index); // move to the record then, flag it as consumed
+                    if (put) {
+                        tailer.writeOrderedInt(0L, Integer.MAX_VALUE);
+                    } else {
+                        group.consume(tailer);
+                    }
+                    if (writtenFiles != null) {
+                        noteWritten(VanillaExcerptProxy.dataBytes(tailer));
+                    }
+                }
             }
-            if (lastPosition != initialPosition) {
-                // no need to redo the work on fail as the next commit will fix
-                // any gap
-                position.compareAndSwap(initialPosition, lastPosition);
+            if (writtenFiles != null) {
+                // reserved until handed to the group sync, the position can pass the records
+                // and release their blocks as soon as they are marked
+                ConsumedBitmap consumed = cursor.shard.consumedBitmap();
+                for (int run = 0; run < indexes.runs(); run++) {
+                    for (long index = indexes.start(run); index <= indexes.end(run); index++) {
+                        VanillaMappedBytes block = consumed.blockOf(index);
+                        if (block == null) {
+                            continue; // already passed by the position, nothing to force
+                        }
+                        if (noteWritten(block)) {
+                            reservedBlocks.add(block);
+                        } else {
+                            block.release();
+                        }
+                    }
+                }
+            }
+            cursor.shard.consumed(indexes);
+            if (put) {
+                cursor.shard.shared().discarded(cursor.shard, indexes);
             }
         }
 
@@ -392,22 +1502,53 @@ public class ChronicleChannel extends BasicChannelSemantics {
         }
     }
 
-    private static boolean sequentialIndexFrom(Chronicle chronicle, long from, long to) {
-        if ((from + 1) == to) {
-            return true;
+    /**
+     * The buffers and cursors reused by the transactions of one thread, reset as each begins.
+     * Flume gives a thread at most one open transaction of a channel at a time.
+     */
+    private static class TransactionState {
+        private final ShardCursor[] cursors;
+        private final List<VanillaMappedBytes> writtenFiles = new ArrayList<>(4);
+        private final List<VanillaMappedBytes> reservedBlocks = new ArrayList<>(2);
+        private final List<ExcerptEvent> excerptEvents = new ArrayList<>();
+        private final List<VanillaMappedBytes> reservedDataBytes = new ArrayList<>();
+
+        TransactionState(int shards) {
+            this.cursors = new ShardCursor[shards];
         }
-        try (Excerpt tmpTailer = chronicle.createExcerpt()) {
-            if (tmpTailer.index(from)) {
-                // only if 'from' is valid and the nextIndex is
-                // the 'to'
-                return tmpTailer.nextIndex() && tmpTailer.index() == to;
+
+        void reset() {
+            for (ShardCursor cursor : cursors) {
+                if (cursor != null) {
+                    cursor.indexes.clear();
+                    cursor.bytes = 0L;
+                }
             }
-            LOGGER.info("first element consumed?");
-            // from isn't valid then 'to' could be the first element?
-            tmpTailer.toStart();
-            return tmpTailer.nextIndex() && tmpTailer.index() == to;
-        } catch (IOException e) {
-            throw new ChannelException("unable to create tmp tailer", e);
+            writtenFiles.clear();
+            reservedBlocks.clear();
+            excerptEvents.clear();
+            reservedDataBytes.clear();
+        }
+    }
+
+    /**
+     * The records put or taken by a transaction in one shard.
+     */
+    private static class ShardCursor {
+        private final ChronicleShard shard;
+
+        private final IndexRuns indexes = new IndexRuns(8);
+        // the stored size of the records put
+        private long bytes;
+
+        // note that the chronicle keeps WeakReference to the appender & tailer instances
+        // but in order to ensure that these don't get collected we keep a hard reference
+        // to them, for as long as the thread's transactions use the shard
+        private ExcerptAppender appender;
+        private ExcerptTailer tailer;
+
+        ShardCursor(ChronicleShard shard) {
+            this.shard = shard;
         }
     }
 }
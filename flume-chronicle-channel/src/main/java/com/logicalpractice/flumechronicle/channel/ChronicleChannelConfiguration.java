@@ -17,4 +17,201 @@ package com.logicalpractice.flumechronicle.channel;
 
 public class ChronicleChannelConfiguration {
     public static final String PATH_KEY = "path";
+
+    /**
+     * Take returns {@link ExcerptEvent}s that read directly from the mapped file, these are
+     * only valid until the take transaction completes.
+     */
+    public static final String ZERO_COPY_TAKE_KEY = "zeroCopyTake";
+    public static final boolean DEFAULT_ZERO_COPY_TAKE = false;
+
+    /**
+     * Encoding used for new records, 'standard', 'compact', 'ascii' or the class name of a
+     * {@link ChronicleEventSerializer}. Records in any of the built in encodings can always
+     * be read. A custom serializer is configured with the 'eventFormat.' sub properties,
+     * compression only applies to the built in encodings.
+     */
+    public static final String EVENT_FORMAT_KEY = "eventFormat";
+    public static final String EVENT_FORMAT_STANDARD = "standard";
+    public static final String EVENT_FORMAT_COMPACT = "compact";
+    public static final String EVENT_FORMAT_ASCII = "ascii";
+    public static final String DEFAULT_EVENT_FORMAT = EVENT_FORMAT_STANDARD;
+
+    /**
+     * Body compression for new records: 'none', 'lz4', 'snappy' or 'deflate'.
+     */
+    public static final String COMPRESSION_KEY = "compression";
+    public static final String DEFAULT_COMPRESSION = "none";
+
+    /**
+     * Bodies smaller than this many bytes are never compressed.
+     */
+    public static final String COMPRESSION_THRESHOLD_KEY = "compressionThreshold";
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 256;
+
+    /**
+     * SimpleDateFormat pattern (GMT) naming the directory of each cycle, it must give every
+     * cycle a distinct name. The default is kept for compatibility with existing channels,
+     * patterns that also parse back to the cycle (e.g. 'yyyyMMddHHmm') let cleanup identify
+     * old cycles exactly.
+     */
+    public static final String CYCLE_FORMAT_KEY = "cycleFormat";
+    public static final String DEFAULT_CYCLE_FORMAT = "yyyyMMDDHH";
+
+    /**
+     * Length of each cycle in milliseconds, cleanup reclaims space a whole cycle at a time.
+     * Neither cycle setting can be changed once a channel has data.
+     */
+    public static final String CYCLE_LENGTH_KEY = "cycleLength";
+    public static final int DEFAULT_CYCLE_LENGTH = 60 * 60 * 1000;
+
+    /**
+     * Maximum records per cycle, a power of 2. The chronicle index is the cycle number
+     * shifted above these bits, so shorter cycles need fewer entries per cycle.
+     */
+    public static final String ENTRIES_PER_CYCLE_KEY = "entriesPerCycle";
+    public static final long DEFAULT_ENTRIES_PER_CYCLE = 1L << 40;
+
+    /**
+     * Size in bytes of each mapped data file block, a power of 2. Also limits the size of a
+     * single encoded event.
+     */
+    public static final String DATA_BLOCK_SIZE_KEY = "dataBlockSize";
+    public static final long DEFAULT_DATA_BLOCK_SIZE = 64L << 20;
+
+    /**
+     * Size in bytes of each mapped index file block, a power of 2.
+     */
+    public static final String INDEX_BLOCK_SIZE_KEY = "indexBlockSize";
+    public static final long DEFAULT_INDEX_BLOCK_SIZE = 16L << 20;
+
+    /**
+     * Maximum number of events held by the channel, 0 for no limit.
+     */
+    public static final String CAPACITY_KEY = "capacity";
+    public static final long DEFAULT_CAPACITY = 0L;
+
+    /**
+     * Maximum bytes of stored records held by the channel (after compression), 0 for no limit.
+     */
+    public static final String BYTE_CAPACITY_KEY = "byteCapacity";
+    public static final long DEFAULT_BYTE_CAPACITY = 0L;
+
+    /**
+     * Maximum number of puts or takes in a single transaction, 0 for no limit.
+     */
+    public static final String TRANSACTION_CAPACITY_KEY = "transactionCapacity";
+    public static final int DEFAULT_TRANSACTION_CAPACITY = 0;
+
+    /**
+     * Seconds a put waits for space in a full channel before failing with a
+     * ChannelFullException.
+     */
+    public static final String KEEP_ALIVE_KEY = "keepAlive";
+    public static final int DEFAULT_KEEP_ALIVE = 3;
+
+    /**
+     * Milliseconds a take waits for an event when the channel is empty, 0 returns null
+     * straight away.
+     */
+    public static final String TAKE_TIMEOUT_KEY = "takeTimeout";
+    public static final long DEFAULT_TAKE_TIMEOUT = 0L;
+
+    /**
+     * How a waiting take polls before parking, first busy-spinning this many times ...
+     */
+    public static final String TAKE_SPINS_KEY = "takeSpins";
+    public static final int DEFAULT_TAKE_SPINS = 1000;
+
+    /**
+     * ... then yielding this many times.
+     */
+    public static final String TAKE_YIELDS_KEY = "takeYields";
+    public static final int DEFAULT_TAKE_YIELDS = 10;
+
+    /**
+     * Seconds between saves of the recovery checkpoint, which lets a restart skip scanning
+     * the backlog. 0 only saves it when the channel stops.
+     */
+    public static final String CHECKPOINT_INTERVAL_KEY = "checkpointInterval";
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 30;
+
+    /**
+     * Number of independent queues the channel is striped across, fixed once the channel
+     * has been started.
+     */
+    public static final String SHARDS_KEY = "shards";
+    public static final int DEFAULT_SHARDS = 1;
+
+    /**
+     * Header whose value picks the shard of a put, keeping the events with the same value
+     * in order. Without it, or when an event lacks the header, the putting thread picks.
+     */
+    public static final String SHARD_KEY_KEY = "shardKey";
+
+    /**
+     * Names of the consumer groups reading the channel's queue, comma or space separated.
+     * Each group takes every event once, through a channel of its own configured with the
+     * same path and these same groups (in the same order) and naming its group with
+     * consumerGroup. An event put through any of the channels is stored once and is cleaned
+     * up once every group has taken it, so a source needs to put through only one of them.
+     * A put waits for room in the backlog of every group with a channel started, so capacity
+     * bounds the slowest of them. The groups are fixed when the path is first used.
+     */
+    public static final String CONSUMER_GROUPS_KEY = "consumerGroups";
+
+    /**
+     * The consumer group this channel takes for, one of the consumerGroups.
+     */
+    public static final String CONSUMER_GROUP_KEY = "consumerGroup";
+
+    /**
+     * 1 in this many transactions is timed for the latency histograms published with the
+     * channel counters, 0 turns the histograms off.
+     */
+    public static final String METRICS_SAMPLING_KEY = "metricsSampling";
+    public static final int DEFAULT_METRICS_SAMPLING = 0;
+    /**
+     * Seconds between cleanups, which are also run each time the take position passes
+     * another block of records. Cleanup runs at least once a cycle whatever the setting.
+     */
+    public static final String CLEANUP_INTERVAL_KEY = "cleanupInterval";
+    public static final int DEFAULT_CLEANUP_INTERVAL = 30 * 60;
+    /**
+     * Seconds between checks of the disk usage and free space.
+     */
+    public static final String DISK_CHECK_INTERVAL_KEY = "diskCheckInterval";
+    public static final int DEFAULT_DISK_CHECK_INTERVAL = 10;
+    /**
+     * Bytes of free disk space below which puts fail with a ChannelFullException and cleanup
+     * runs on every check and every advance of the take position, 0 to never check.
+     */
+    public static final String MIN_FREE_SPACE_KEY = "minFreeSpace";
+    public static final long DEFAULT_MIN_FREE_SPACE = 0L;
+
+    /**
+     * When committed transactions are forced to disk: 'os' leaves it to the OS writing back
+     * the mapped pages, 'periodic' forces them in the background every durabilityInterval
+     * and durabilityBytes, 'commit' forces them before a commit returns, concurrent commits
+     * sharing a force. Only 'commit' survives the loss of the machine without losing
+     * committed events.
+     */
+    public static final String DURABILITY_KEY = "durability";
+    public static final String DURABILITY_OS = "os";
+    public static final String DURABILITY_PERIODIC = "periodic";
+    public static final String DURABILITY_COMMIT = "commit";
+    public static final String DEFAULT_DURABILITY = DURABILITY_OS;
+
+    /**
+     * Milliseconds between the forces of 'periodic' durability.
+     */
+    public static final String DURABILITY_INTERVAL_KEY = "durabilityInterval";
+    public static final long DEFAULT_DURABILITY_INTERVAL = 1000L;
+
+    /**
+     * Stored bytes committed after which 'periodic' durability forces without waiting for
+     * the interval, 0 for only the interval.
+     */
+    public static final String DURABILITY_BYTES_KEY = "durabilityBytes";
+    public static final long DEFAULT_DURABILITY_BYTES = 0L;
 }
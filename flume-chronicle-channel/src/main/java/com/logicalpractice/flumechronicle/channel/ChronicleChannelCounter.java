@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.logicalpractice.flumechronicle.channel;
+
+import org.apache.flume.instrumentation.ChannelCounter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registered with JMX, and so the Flume metrics endpoints, under the channel's name.
+ */
+public class ChronicleChannelCounter extends ChannelCounter implements ChronicleChannelCounterMBean {
+
+    // nanoseconds
+    private final LatencyHistogram putCommitLatency = new LatencyHistogram();
+    private final LatencyHistogram takeLatency = new LatencyHistogram();
+    private final LatencyHistogram residenceTime = new LatencyHistogram();
+    private final LatencyHistogram syncLatency = new LatencyHistogram();
+
+    // records examined
+    private final LatencyHistogram takeScanLength = new LatencyHistogram();
+
+    // the gauges are read from the shards when asked for
+    private volatile ChronicleShard[] shards = new ChronicleShard[0];
+
+    public ChronicleChannelCounter(String name) {
+        super(name);
+    }
+
+    void monitor(ChronicleShard[] shards) {
+        this.shards = shards;
+    }
+
+    LatencyHistogram putCommitLatency() {
+        return putCommitLatency;
+    }
+
+    LatencyHistogram takeLatency() {
+        return takeLatency;
+    }
+
+    LatencyHistogram residenceTime() {
+        return residenceTime;
+    }
+
+    LatencyHistogram takeScanLength() {
+        return takeScanLength;
+    }
+
+    LatencyHistogram syncLatency() {
+        return syncLatency;
+    }
+
+    /**
+     * An unlimited channel is never full, rather than infinitely so.
+     */
+    @Override
+    public double getChannelFillPercentage() {
+        return getChannelCapacity() == 0L ? 0.0 : super.getChannelFillPercentage();
+    }
+
+    @Override
+    public long getBacklogAge() {
+        long now = System.currentTimeMillis();
+        long age = 0L;
+        for (ChronicleShard shard : shards) {
+            age = Math.max(age, shard.backlogAge(now));
+        }
+        return age;
+    }
+
+    @Override
+    public long getDiskUsage() {
+        long bytes = 0L;
+        for (ChronicleShard shard : shards) {
+            bytes += shard.diskUsage().bytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getPutCommitLatencyP50() {
+        return micros(putCommitLatency.percentile(50.0));
+    }
+
+    @Override
+    public long getPutCommitLatencyP99() {
+        return micros(putCommitLatency.percentile(99.0));
+    }
+
+    @Override
+    public long getPutCommitLatencyP999() {
+        return micros(putCommitLatency.percentile(99.9));
+    }
+
+    @Override
+    public long getPutCommitLatencyMax() {
+        return micros(putCommitLatency.max());
+    }
+
+    @Override
+    public long getTakeLatencyP50() {
+        return micros(takeLatency.percentile(50.0));
+    }
+
+    @Override
+    public long getTakeLatencyP99() {
+        return micros(takeLatency.percentile(99.0));
+    }
+
+    @Override
+    public long getTakeLatencyP999() {
+        return micros(takeLatency.percentile(99.9));
+    }
+
+    @Override
+    public long getTakeLatencyMax() {
+        return micros(takeLatency.max());
+    }
+
+    @Override
+    public long getResidenceTimeP50() {
+        return millis(residenceTime.percentile(50.0));
+    }
+
+    @Override
+    public long getResidenceTimeP99() {
+        return millis(residenceTime.percentile(99.0));
+    }
+
+    @Override
+    public long getResidenceTimeP999() {
+        return millis(residenceTime.percentile(99.9));
+    }
+
+    @Override
+    public long getResidenceTimeMax() {
+        return millis(residenceTime.max());
+    }
+
+    @Override
+    public long getTakeScanLengthP50() {
+        return takeScanLength.percentile(50.0);
+    }
+
+    @Override
+    public long getTakeScanLengthP99() {
+        return takeScanLength.percentile(99.0);
+    }
+
+    @Override
+    public long getTakeScanLengthP999() {
+        return takeScanLength.percentile(99.9);
+    }
+
+    @Override
+    public long getTakeScanLengthMax() {
+        return takeScanLength.max();
+    }
+
+    @Override
+    public long getSyncCount() {
+        return syncLatency.count();
+    }
+
+    @Override
+    public long getSyncLatencyP50() {
+        return micros(syncLatency.percentile(50.0));
+    }
+
+    @Override
+    public long getSyncLatencyP99() {
+        return micros(syncLatency.percentile(99.0));
+    }
+
+    @Override
+    public long getSyncLatencyP999() {
+        return micros(syncLatency.percentile(99.9));
+    }
+
+    @Override
+    public long getSyncLatencyMax() {
+        return micros(syncLatency.max());
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.logicalpractice.flumechronicle.channel;
+
+import org.apache.flume.instrumentation.ChannelCounterMBean;
+
+/**
+ * The standard channel counters plus the backlog and disk gauges and the sampled latency
+ * histograms of the chronicle channel. Latencies are in microseconds, residence times in
+ * milliseconds, all are 0 until sampling is enabled with
+ * {@link ChronicleChannelConfiguration#METRICS_SAMPLING_KEY}. Every force made for the
+ * {@link ChronicleChannelConfiguration#DURABILITY_KEY} is timed, sampling or not.
+ */
+public interface ChronicleChannelCounterMBean extends ChannelCounterMBean {
+
+    /**
+     * @return milliseconds since the put of the oldest untaken event, 0 when empty
+     */
+    long getBacklogAge();
+
+    /**
+     * @return bytes held in the channel directory
+     */
+    long getDiskUsage();
+
+    long getPutCommitLatencyP50();
+
+    long getPutCommitLatencyP99();
+
+    long getPutCommitLatencyP999();
+
+    long getPutCommitLatencyMax();
+
+    long getTakeLatencyP50();
+
+    long getTakeLatencyP99();
+
+    long getTakeLatencyP999();
+
+    long getTakeLatencyMax();
+
+    long getResidenceTimeP50();
+
+    long getResidenceTimeP99();
+
+    long getResidenceTimeP999();
+
+    long getResidenceTimeMax();
+
+    long getTakeScanLengthP50();
+
+    long getTakeScanLengthP99();
+
+    long getTakeScanLengthP999();
+
+    long getTakeScanLengthMax();
+
+    /**
+     * @return forces of the channel's files to disk
+     */
+    long getSyncCount();
+
+    long getSyncLatencyP50();
+
+    long getSyncLatencyP99();
+
+    long getSyncLatencyP999();
+
+    long getSyncLatencyMax();
+}
@@ -17,6 +17,7 @@
 package com.logicalpractice.flumechronicle.channel;
 
 import net.openhft.chronicle.ChronicleQueueBuilder;
+import net.openhft.chronicle.VanillaChronicle;
 import net.openhft.lang.Maths;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -25,61 +26,286 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static java.lang.Character.isDigit;
 
 /**
- * Simple runnable task that sweeps the chronicle directory deleting any directories that
- * are no longer reachable.
+ * Runnable task that reclaims the space of records that can never be read again, those up to
+ * the take position. With consumer groups that is the lowest of the positions of every
+ * group, whether or not its channel is running.
+ *
+ * Whole cycle directories before the cycle of the position are deleted. The directory is
+ * listed for these on the first run and when low on space, otherwise the directories of the
+ * cycles the position has moved on from are found by name.
+ *
+ * Within the cycle of the position the index entries passed since the last run are read,
+ * each appending thread fills its data files in turn so any of its data files before the one
+ * holding its last consumed record is released, as is any index file, and each group's
+ * {@link ConsumedBitmap} block, before that of the position.
+ *
+ * When listed, a directory is identified as a cycle by parsing its name with the cycle
+ * format. Names that don't parse back to themselves (the default 'yyyyMMDDHH' once the day of
+ * the year reaches 100) fall back to being compared with the name of the current cycle.
+ *
+ * With a minimum of free space set, the free space of the file system is checked on each
+ * run. Below it the channel is low on space, puts are refused until a run finds enough
+ * space again.
  */
 public class ChronicleCleanup implements Runnable {
+    // beyond this many cycles since the last sweep the directory is listed instead of
+    // looking up each of their directories
+    private static final int MAX_MAPPED_SWEEP = 1024;
+
     private final Logger logger = LoggerFactory.getLogger(ChronicleCleanup.class);
 
     private final ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder;
     private final File path ;
-    private final ChroniclePosition position;
+    private final ChroniclePosition[] positions;
+    private final List<ConsumerGroup> groups;
+    private final DiskUsage diskUsage;
+    private final long minFreeSpace;
+
+    private final CycleMapper cycles;
+
+    // stolen from VanillaChronicle
+    private final int indexBlockLongsBits;
+    private final int dataBlockSizeBits;
 
-    private final VanillaDateCacheProxy dateCache;
+    // guarded by this, the cycle last swept for old directories, those before it are gone
+    private int sweptCycle = -1;
+
+    // guarded by this, what is known of the cycle of the position
+    private int releaseCycle = -1;
+    private long scannedTo;
+    private int releasedIndexFiles;
+    private final Map<Integer, Integer> consumedDataFiles = new HashMap<>();
+    private final Map<Integer, Integer> releasedDataFiles = new HashMap<>();
+
+    private volatile boolean lowOnSpace;
 
     public ChronicleCleanup(ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder, File path, ChroniclePosition position) {
+        this(queueBuilder, new CycleMapper(queueBuilder), path, position, 0L);
+    }
+
+    private ChronicleCleanup(ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder, CycleMapper cycles,
+                             File path, ChroniclePosition position, long minFreeSpace) {
+        this(queueBuilder, cycles, path, position, new DiskUsage(cycles, path), minFreeSpace);
+    }
+
+    /**
+     * @param diskUsage told of each directory deleted
+     * @param minFreeSpace the bytes of free space below which the channel is low on space,
+     *                     0 to never check
+     */
+    public ChronicleCleanup(ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder, CycleMapper cycles,
+                            File path, ChroniclePosition position, DiskUsage diskUsage, long minFreeSpace) {
+        this(queueBuilder, cycles, path, Collections.singletonList(ConsumerGroup.SOLE),
+                new ChroniclePosition[]{position}, diskUsage, minFreeSpace);
+    }
+
+    /**
+     * @param positions the position of each of 'groups', in the same order
+     */
+    public ChronicleCleanup(ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder, CycleMapper cycles,
+                            File path, List<ConsumerGroup> groups, ChroniclePosition[] positions,
+                            DiskUsage diskUsage, long minFreeSpace) {
         this.queueBuilder = queueBuilder;
+        this.cycles = cycles;
         this.path = path;
-        this.position = position;
+        this.groups = groups;
+        this.positions = positions;
+        this.diskUsage = diskUsage;
+        this.minFreeSpace = minFreeSpace;
 
-        dateCache = new VanillaDateCacheProxy(queueBuilder);
+        indexBlockLongsBits = Maths.intLog2(queueBuilder.indexBlockSize() / 8);
+        dataBlockSizeBits = Maths.intLog2(queueBuilder.dataBlockSize());
     }
 
     @Override
-    public void run() {
-        long currentPosition = position.get();
-        if (currentPosition == 0) {
-            return; // no work to do as nothing has been
+    public synchronized void run() {
+        long currentPosition = Long.MAX_VALUE;
+        for (ChroniclePosition position : positions) {
+            currentPosition = Math.min(currentPosition, position.get());
         }
-        // stolen from VanillaChronicle
-        int entriesForCycleBits = Maths.intLog2(queueBuilder.entriesPerCycle());
-        int cycle = (int) (currentPosition >>> entriesForCycleBits);
+        if (currentPosition != 0) { // otherwise nothing has been taken yet by some group
+            int cycle = cycles.cycleOf(currentPosition);
+            if (sweptCycle == -1 || lowOnSpace || cycle - sweptCycle > MAX_MAPPED_SWEEP) {
+                deleteCyclesBefore(cycle);
+            } else {
+                for (int passed = sweptCycle; passed < cycle; passed++) {
+                    File directory = cycles.directoryOf(path, passed);
+                    if (directory.isDirectory()) {
+                        deleteCycle(directory);
+                    }
+                }
+            }
+            sweptCycle = cycle;
+            try {
+                releaseWithin(cycle, cycles.entryOf(currentPosition));
+            } catch (IOException e) {
+                logger.warn("unable to release the consumed files of {} - {}", path, e.toString());
+            }
+        }
+        checkFreeSpace();
+    }
 
-        String currentCycleFolder = dateCache.formatFor(cycle);
+    /**
+     * Check the free space of the file system.
+     *
+     * @return true if below the minimum
+     */
+    public boolean checkFreeSpace() {
+        if (minFreeSpace <= 0L) {
+            return false;
+        }
+        long usable = path.getUsableSpace();
+        boolean low = usable < minFreeSpace;
+        if (low != lowOnSpace) {
+            if (low) {
+                logger.warn("{} has only {} bytes of free space, refusing puts until there's {}",
+                        path, usable, minFreeSpace);
+            } else {
+                logger.info("{} has {} bytes of free space again, accepting puts", path, usable);
+            }
+            lowOnSpace = low;
+        }
+        return low;
+    }
+
+    /**
+     * @return true if the last check found less than the minimum free space
+     */
+    public boolean isLowOnSpace() {
+        return lowOnSpace;
+    }
 
-        File [] directories = path.listFiles(directoriesLessThan(currentCycleFolder));
+    private void deleteCyclesBefore(int cycle) {
+        String currentCycleFolder = cycles.nameOf(cycle);
 
+        File [] directories = path.listFiles(directoriesBefore(cycle, currentCycleFolder));
+        if (directories == null) {
+            return;
+        }
         for (File directory : directories) {
-            logger.info("deleting {}", directory);
-            try {
-                FileUtils.deleteDirectory(directory);
-            } catch (IOException e) {
-                logger.warn("unable to remove directory {} - {}", directory, e.toString());
+            deleteCycle(directory);
+        }
+    }
+
+    private void deleteCycle(File directory) {
+        logger.info("deleting {}", directory);
+        try {
+            FileUtils.deleteDirectory(directory);
+        } catch (IOException e) {
+            logger.warn("unable to remove directory {} - {}", directory, e.toString());
+        }
+        diskUsage.deleted(directory); // whatever is left is measured again on the next run
+    }
+
+    /**
+     * @param consumed the position as an entry of its cycle
+     */
+    private void releaseWithin(int cycle, long consumed) throws IOException {
+        if (cycle != releaseCycle) {
+            releaseCycle = cycle;
+            scannedTo = -1L;
+            releasedIndexFiles = 0;
+            consumedDataFiles.clear();
+            releasedDataFiles.clear();
+        }
+        if (consumed <= scannedTo) {
+            return;
+        }
+        File directory = cycles.directoryOf(path, cycle);
+        readEntries(directory, scannedTo + 1, consumed);
+        scannedTo = consumed;
+
+        // never the index file of the position, recovery starts by looking it up
+        int indexFile = (int) (consumed >>> indexBlockLongsBits);
+        for (; releasedIndexFiles < indexFile; releasedIndexFiles++) {
+            release(new File(directory, "index-" + releasedIndexFiles));
+            for (ConsumerGroup group : groups) { // and its consumed bitmaps
+                release(new File(directory, group.fileName("consumed", "-") + releasedIndexFiles));
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : consumedDataFiles.entrySet()) {
+            int threadId = entry.getKey();
+            Integer released = releasedDataFiles.get(threadId);
+            for (int n = released == null ? 0 : released; n < entry.getValue(); n++) {
+                release(new File(directory, "data-" + threadId + "-" + n));
+            }
+            releasedDataFiles.put(threadId, entry.getValue());
+        }
+    }
+
+    /**
+     * Read the index entries 'from' to 'to' inclusive, noting the data file of each.
+     */
+    private void readEntries(File directory, long from, long to) throws IOException {
+        long entriesPerFile = 1L << indexBlockLongsBits;
+        long entry = from;
+        while (entry <= to) {
+            int indexFile = (int) (entry >>> indexBlockLongsBits);
+            long last = Math.min(to, (indexFile + 1) * entriesPerFile - 1);
+            File file = new File(directory, "index-" + indexFile);
+            if (file.exists()) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    long offset = (entry & (entriesPerFile - 1)) * 8;
+                    long length = Math.min((last - entry + 1) * 8, channel.size() - offset);
+                    if (length > 0) {
+                        ByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, offset, length)
+                                .order(ByteOrder.nativeOrder());
+                        for (int i = 0; i + 8 <= length; i += 8) {
+                            noteDataFile(entries.getLong(i));
+                        }
+                    }
+                }
+            }
+            entry = last + 1;
+        }
+    }
+
+    private void noteDataFile(long indexEntry) {
+        if (indexEntry == 0L) {
+            return; // never written
+        }
+        int threadId = (int) (indexEntry >>> VanillaChronicle.INDEX_DATA_OFFSET_BITS);
+        int dataFile = (int) ((indexEntry & VanillaChronicle.INDEX_DATA_OFFSET_MASK) >>> dataBlockSizeBits);
+        Integer current = consumedDataFiles.get(threadId);
+        if (current == null || dataFile > current) {
+            consumedDataFiles.put(threadId, dataFile);
+        }
+    }
+
+    private void release(File file) {
+        if (file.exists()) {
+            logger.debug("releasing {}", file);
+            if (!file.delete()) {
+                logger.warn("unable to remove {}", file);
             }
         }
     }
 
-    private FileFilter directoriesLessThan(final String currentFolder) {
+    private FileFilter directoriesBefore(final int currentCycle, final String currentFolder) {
         return new FileFilter() {
             @Override
             public boolean accept(File pathname) {
+                if (!pathname.isDirectory()) {
+                    return false;
+                }
                 String name = pathname.getName();
-                return pathname.isDirectory()
-                        && name.length() == currentFolder.length()
+                int cycle = cycles.cycleOf(name);
+                if (cycle != CycleMapper.NOT_A_CYCLE) {
+                    return cycle < currentCycle;
+                }
+                return name.length() == currentFolder.length()
                         && isAllNumeric(name)
                         && name.compareTo(currentFolder) < 0;
             }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.lang.io.Bytes;
+import org.apache.flume.Event;
+
+import java.util.Map;
+
+/**
+ * Encoding of events into the chronicle records, selected with the 'eventFormat' setting.
+ *
+ * The built in formats ('standard', 'compact' and 'ascii') can all read records written by
+ * any of the others, so the format of a channel can be changed at any time. A custom
+ * implementation is configured by its class name, it must have a public no-arg constructor
+ * and if it implements {@link org.apache.flume.conf.Configurable} it is configured with the
+ * 'eventFormat.' sub properties. A custom implementation is responsible for reading any
+ * records already in the channel.
+ *
+ * Implementations are shared between all of the channel's threads.
+ */
+public interface ChronicleEventSerializer {
+
+    /**
+     * Returned by {@link #skipToBody(Bytes)} when the body can't be read in place.
+     */
+    int BODY_NOT_IN_PLACE = -1;
+
+    /**
+     * Upper bound on the encoded size of 'event', used to size the excerpt. This is always
+     * called immediately before {@link #writeTo(Bytes, Event)} on the same thread, so any
+     * work needed by both may be carried between the two.
+     */
+    int sizeOf(Event event);
+
+    /**
+     * Encode 'event' into the appender, this is on the put hot path and should not allocate.
+     */
+    void writeTo(Bytes out, Event event);
+
+    /**
+     * Decode a whole event, 'in' is positioned at the start of the record.
+     */
+    Event readFrom(Bytes in);
+
+    /**
+     * Decode just the headers, 'in' is positioned at the start of the record.
+     */
+    Map<String, String> readHeaders(Bytes in);
+
+    /**
+     * Decode just the body, 'in' is positioned at the start of the record.
+     */
+    byte[] readBody(Bytes in);
+
+    /**
+     * Position 'in' at the first byte of the body without decoding the headers, 'in' is
+     * positioned at the start of the record.
+     *
+     * @return the body size or {@link #BODY_NOT_IN_PLACE} if the stored body isn't the raw
+     * body, for example when compressed
+     */
+    int skipToBody(Bytes in);
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import com.google.common.base.Preconditions;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.conf.Configurables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drains the untaken events of one channel directory into another, for moving a channel
+ * onto settings that can't be changed in place: the cycle format and length, entries per
+ * cycle, block sizes or the number of shards.
+ *
+ * Both directories are opened as channels and each batch is taken from the source and put
+ * to the target in a pair of transactions, the target committing first. A failure between
+ * the two commits leaves the batch in both, so events are never lost but the last batch
+ * may be duplicated if the migration is interrupted, as with any flume hop.
+ *
+ * The source channel must not be in use by an agent while it is drained.
+ */
+public class ChronicleMigration {
+    private static Logger LOGGER = LoggerFactory.getLogger(ChronicleMigration.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final ChronicleChannel source;
+    private final ChronicleChannel target;
+    private final int batchSize;
+
+    /**
+     * @param source configured but not started
+     * @param target configured but not started, if it limits the transaction capacity this
+     *               must be at least the batch size
+     */
+    public ChronicleMigration(ChronicleChannel source, ChronicleChannel target, int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+        this.source = source;
+        this.target = target;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Move every committed event from the source to the target.
+     *
+     * @return the number of events moved
+     */
+    public long drain() {
+        source.start();
+        try {
+            target.start();
+            try {
+                return drainStarted();
+            } finally {
+                target.stop();
+            }
+        } finally {
+            source.stop();
+        }
+    }
+
+    private long drainStarted() {
+        LOGGER.info("migrating {} events", source.getCommittedSize());
+        List<Event> batch = new ArrayList<Event>(batchSize);
+        long moved = 0L;
+        while (true) {
+            batch.clear();
+            Transaction taking = source.getTransaction();
+            taking.begin();
+            try {
+                if (source.takeBatch(batchSize, batch) == 0) {
+                    taking.commit();
+                    break;
+                }
+                Transaction putting = target.getTransaction();
+                putting.begin();
+                try {
+                    for (Event event : batch) {
+                        target.put(event);
+                    }
+                    putting.commit();
+                } catch (RuntimeException e) {
+                    putting.rollback();
+                    throw e;
+                } finally {
+                    putting.close();
+                }
+                taking.commit();
+            } catch (RuntimeException e) {
+                taking.rollback();
+                throw e;
+            } finally {
+                taking.close();
+            }
+            moved += batch.size();
+            if (LOGGER.isDebugEnabled())
+                LOGGER.debug("moved {}, remaining {}", moved, source.getCommittedSize());
+        }
+        LOGGER.info("migrated {} events", moved);
+        return moved;
+    }
+
+    public static void main(String[] args) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("chronicle-migration")
+                .description("Move the untaken events of a chronicle channel into a new directory");
+
+        parser.addArgument("--source")
+                .metavar("path")
+                .required(true);
+
+        parser.addArgument("--target")
+                .metavar("path")
+                .required(true);
+
+        parser.addArgument("--source-param")
+                .action(Arguments.append())
+                .help("channel configuration parameter matching the agent's for the source");
+
+        parser.addArgument("--target-param")
+                .action(Arguments.append())
+                .help("channel configuration parameter for the target");
+
+        parser.addArgument("--batch-size")
+                .metavar("size")
+                .setDefault(DEFAULT_BATCH_SIZE)
+                .type(Integer.class);
+
+        Namespace ns = parser.parseArgsOrFail(args);
+
+        ChronicleChannel source = channel("source", ns.getString("source"), ns.<String>getList("source_param"));
+        ChronicleChannel target = channel("target", ns.getString("target"), ns.<String>getList("target_param"));
+
+        new ChronicleMigration(source, target, ns.getInt("batch_size")).drain(); // logs what it moved
+    }
+
+    private static ChronicleChannel channel(String name, String path, List<String> params) {
+        Map<String, String> properties = new HashMap<String, String>();
+        if (params != null) {
+            for (String param : params) {
+                String[] parts = param.split("=", 2);
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("invalid parameter '" + param + "'");
+                }
+                properties.put(parts[0], parts[1]);
+            }
+        }
+        properties.put(ChronicleChannelConfiguration.PATH_KEY, path);
+
+        ChronicleChannel channel = new ChronicleChannel();
+        channel.setName(name);
+        Configurables.configure(channel, new Context(properties));
+        return channel;
+    }
+}
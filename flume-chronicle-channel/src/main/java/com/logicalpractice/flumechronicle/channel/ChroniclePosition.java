@@ -23,16 +23,42 @@ import org.apache.flume.ChannelException;
 import java.io.File;
 import java.io.IOException;
 
+/**
+ * A position persisted in a mapped file of the channel directory, optionally followed by
+ * progress slots.
+ *
+ * The position is always the first 8 bytes of the file. Each slot holds the highest index a
+ * taker has flagged as consumed, the slots are a cache line apart so that takers recording
+ * their progress don't contend with one another or with the readers of the position.
+ */
 public class ChroniclePosition {
 
+    private static final int SLOT_SIZE = 64;
+
     private final VanillaMappedBytes bytes;
+    private final int slots;
 
     public ChroniclePosition(String path) {
+        this(path, "position.dat");
+    }
+
+    /**
+     * A position held in another file of the channel directory, 0 until first set.
+     */
+    public ChroniclePosition(String path, String fileName) {
+        this(path, fileName, 0);
+    }
+
+    /**
+     * @param slots the number of progress slots following the position
+     */
+    public ChroniclePosition(String path, String fileName, int slots) {
+        this.slots = slots;
         try {
-            File position = new File(path, "position.dat");
-            bytes = VanillaMappedFile.readWriteBytes(position, 8);
+            File position = new File(path, fileName);
+            bytes = VanillaMappedFile.readWriteBytes(position, slots == 0 ? 8 : SLOT_SIZE * (slots + 1));
         } catch (IOException e) {
-            throw new ChannelException("Failed to open take position file", e);
+            throw new ChannelException("Failed to open take position file " + fileName, e);
         }
     }
 
@@ -48,6 +74,67 @@ public class ChroniclePosition {
         bytes.writeOrderedLong(0L, update);
     }
 
+    public int slots() {
+        return slots;
+    }
+
+    public long progress(int slot) {
+        return bytes.readVolatileLong(slotOffset(slot));
+    }
+
+    /**
+     * Raise the progress of 'slot' to 'index', leaving it if it's already beyond. Always a
+     * full fence, ordering the caller's earlier writes before its later reads.
+     */
+    public void advanceProgress(int slot, long index) {
+        long offset = slotOffset(slot);
+        long current;
+        do {
+            current = bytes.readVolatileLong(offset);
+        } while (!bytes.compareAndSwapLong(offset, current, Math.max(current, index)));
+    }
+
+    /**
+     * @return the highest progress of all the slots
+     */
+    public long maxProgress() {
+        long max = 0L;
+        for (int i = 0; i < slots; i++) {
+            max = Math.max(max, progress(i));
+        }
+        return max;
+    }
+
+    /**
+     * Set every slot to 'index', no taker has any progress beyond the position on start.
+     */
+    public void resetProgress(long index) {
+        for (int i = 0; i < slots; i++) {
+            bytes.writeOrderedLong(slotOffset(i), index);
+        }
+    }
+
+    private long slotOffset(int slot) {
+        if (slot < 0 || slot >= slots) {
+            throw new IndexOutOfBoundsException("slot " + slot + " of " + slots);
+        }
+        return SLOT_SIZE * (slot + 1L);
+    }
+
+    /**
+     * The mapped position file, for forcing it to disk.
+     */
+    VanillaMappedBytes mappedBytes() {
+        return bytes;
+    }
+
+    /**
+     * Force the position file to disk.
+     */
+    public void force() {
+        bytes.force();
+    }
+
     public void close() {
         bytes.close();
     }
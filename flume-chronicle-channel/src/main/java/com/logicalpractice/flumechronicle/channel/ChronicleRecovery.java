@@ -0,0 +1,358 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.openhft.chronicle.Chronicle;
+import net.openhft.chronicle.ExcerptTailer;
+import org.apache.flume.ChannelException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Restores the channel state on start.
+ *
+ * The records from the take position onwards are scanned for one {@link ConsumerGroup}:
+ *  - uncommitted puts are discarded (flagged as consumed), unless another group's channel
+ *    already has the queue open and they may still be committed
+ *  - the group's uncommitted takes are put back
+ *  - the position is advanced over the run of consumed records following it
+ *  - the available records are counted
+ *
+ * Records summarised by the {@link RecoveryCheckpoint} are skipped, only those written
+ * since it was saved and those the lease has reached are scanned. Within the lease the runs
+ * of records marked in the {@link ConsumedBitmap} are passed without reading them, and the
+ * consumed records that are read are marked. Each cycle is scanned by
+ * its own task, in parallel, and the results combined in index order.
+ */
+class ChronicleRecovery {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChronicleRecovery.class);
+
+    private static final long UNBOUNDED = Long.MAX_VALUE;
+
+    static class Result {
+        long position;
+        long size;
+        long bytes;
+        long discarded;
+        long recovered;
+        long scanned;
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "position=" + position +
+                    ", size=" + size +
+                    ", bytes=" + bytes +
+                    ", discarded=" + discarded +
+                    ", recovered=" + recovered +
+                    ", scanned=" + scanned +
+                    '}';
+        }
+    }
+
+    /**
+     * The outcome of scanning the records of one cycle.
+     */
+    private static class CycleScan {
+        long first = -1L;
+        long last = -1L;
+        // the end of the run of consumed records at the start of the cycle, -1 if there's none
+        long consumedTo = -1L;
+        boolean allConsumed = true;
+        long size;
+        long bytes;
+        long discarded;
+        long recovered;
+        long scanned;
+        // the records beyond the lease
+        final List<RecoveryCheckpoint.Segment> segments = new ArrayList<>();
+    }
+
+    private final Chronicle chronicle;
+    private final CycleMapper cycles;
+    private final ConsumerGroup group;
+    private final ConsumedBitmap consumed;
+    private final boolean discardInFlight;
+    private final File path;
+    private final String name;
+
+    /**
+     * @param consumed the group's consumed bitmap
+     * @param discardInFlight false when puts may be in flight, they are then left for their
+     *                        commit to make available to the group
+     */
+    public ChronicleRecovery(Chronicle chronicle, CycleMapper cycles, ConsumerGroup group, ConsumedBitmap consumed,
+                             boolean discardInFlight, File path, String name) {
+        this.chronicle = chronicle;
+        this.cycles = cycles;
+        this.group = group;
+        this.consumed = consumed;
+        this.discardInFlight = discardInFlight;
+        this.path = path;
+        this.name = name;
+    }
+
+    /**
+     * Recover from 'position', bringing 'checkpoint' up to date with the records beyond
+     * 'lease'.
+     *
+     * @param position the saved take position
+     * @param lease the saved take lease, nothing beyond it has been taken
+     */
+    public Result recover(long position, long lease, RecoveryCheckpoint checkpoint) {
+        List<RecoveryCheckpoint.Segment> usable = new ArrayList<>(checkpoint.retainFrom(lease));
+        long coveredTo = checkpoint.coveredTo();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat(name + "-recovery-%s")
+                        .build());
+        try {
+            Result result = new Result();
+            result.position = position;
+
+            // up to the first summarised record, or everything when there's no usable summary
+            List<CycleScan> scans = scan(executor, position,
+                    usable.isEmpty() ? UNBOUNDED : usable.get(0).first, lease);
+            boolean sequential = true;
+            for (CycleScan scan : scans) {
+                if (sequential && scan.consumedTo != -1L) {
+                    result.position = scan.consumedTo;
+                }
+                sequential &= scan.allConsumed;
+            }
+
+            List<RecoveryCheckpoint.Segment> segments = new ArrayList<>();
+            collect(scans, result, segments);
+            if (!usable.isEmpty()) {
+                resolveInFlight(usable, result);
+                segments.addAll(usable);
+                // and those written after the summary
+                collect(scan(executor, coveredTo, UNBOUNDED, lease), result, segments);
+            }
+            if (!segments.isEmpty()) {
+                coveredTo = segments.get(segments.size() - 1).last;
+            }
+            checkpoint.replace(segments, coveredTo);
+            return result;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void collect(List<CycleScan> scans, Result result, List<RecoveryCheckpoint.Segment> segments) {
+        for (CycleScan scan : scans) {
+            result.size += scan.size;
+            result.bytes += scan.bytes;
+            result.discarded += scan.discarded;
+            result.recovered += scan.recovered;
+            result.scanned += scan.scanned;
+            segments.addAll(scan.segments);
+        }
+    }
+
+    /**
+     * Count the available records of the summary, discarding its puts that are still in
+     * flight.
+     */
+    private void resolveInFlight(List<RecoveryCheckpoint.Segment> segments, Result result) {
+        try (ExcerptTailer tailer = chronicle.createTailer()) {
+            for (RecoveryCheckpoint.Segment segment : segments) {
+                ResizingLongArray stillInFlight = new ResizingLongArray(4);
+                for (int i = 0; i < segment.inFlight.size(); i++) {
+                    if (!tailer.index(segment.inFlight.get(i))) {
+                        continue;
+                    }
+                    int control = tailer.readInt(0L);
+                    if (group.isAvailable(control)) {
+                        segment.available += 1;
+                        segment.bytes += tailer.capacity();
+                    } else if (control < 0 && control > Integer.MIN_VALUE) {
+                        if (discardInFlight) {
+                            tailer.writeOrderedInt(0L, Integer.MAX_VALUE);
+                            consumed.set(tailer.index());
+                            result.discarded += 1;
+                        } else {
+                            stillInFlight.add(tailer.index());
+                        }
+                    }
+                }
+                segment.inFlight = stillInFlight;
+                result.size += segment.available;
+                result.bytes += segment.bytes;
+            }
+        } catch (IOException e) {
+            throw new ChannelException("Failed recovery", e);
+        }
+    }
+
+    /**
+     * Scan the records after 'from' and before 'to', one task per cycle.
+     *
+     * @return the scan of each cycle, in order
+     */
+    private List<CycleScan> scan(ExecutorService executor, long from, final long to, final long lease) {
+        final long first;
+        try (ExcerptTailer tailer = chronicle.createTailer()) {
+            if (!tailer.index(from)) {
+                tailer.toStart();
+            }
+            if (!tailer.nextIndex() || tailer.index() >= to) {
+                return Collections.emptyList();
+            }
+            first = tailer.index();
+        } catch (IOException e) {
+            throw new ChannelException("Failed recovery", e);
+        }
+
+        int firstCycle = cycles.cycleOf(first);
+        int lastCycle = to == UNBOUNDED
+                ? Math.max(firstCycle, cycles.currentCycle())
+                : cycles.cycleOf(to);
+
+        List<Callable<CycleScan>> tasks = new ArrayList<>();
+        tasks.add(new CycleScanTask(first, firstCycle, firstCycle == lastCycle ? to : 0L, lease));
+        Set<String> directories = new HashSet<>(Arrays.asList(path.list()));
+        for (int cycle = firstCycle + 1; cycle <= lastCycle; cycle++) {
+            if (cycle == lastCycle || directories.contains(cycles.nameOf(cycle))) {
+                long start = cycles.firstIndexOf(cycle);
+                tasks.add(new CycleScanTask(start, cycle, cycle == lastCycle ? to : 0L, lease));
+            }
+        }
+        LOGGER.debug("scanning from {} to {} in {} cycles", from, to, tasks.size());
+
+        List<CycleScan> scans = new ArrayList<>(tasks.size());
+        try {
+            for (Future<CycleScan> future : executor.invokeAll(tasks)) {
+                scans.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ChannelException("Interrupted during recovery", e);
+        } catch (ExecutionException e) {
+            throw new ChannelException("Failed recovery", e.getCause());
+        }
+        return scans;
+    }
+
+    /**
+     * Scans one cycle from 'start', the last cycle scanned continues on into any cycles that
+     * follow it.
+     */
+    private class CycleScanTask implements Callable<CycleScan> {
+        private final long start;
+        private final int cycle;
+        // the end of the scan, 0 for the end of the cycle
+        private final long to;
+        private final long lease;
+
+        CycleScanTask(long start, int cycle, long to, long lease) {
+            this.start = start;
+            this.cycle = cycle;
+            this.to = to;
+            this.lease = lease;
+        }
+
+        @Override
+        public CycleScan call() throws IOException {
+            CycleScan scan = new CycleScan();
+            try (ExcerptTailer tailer = chronicle.createTailer()) {
+                boolean more = tailer.index(start);
+                while (more) {
+                    long index = tailer.index();
+                    if (to == 0L ? cycles.cycleOf(index) != cycle : index >= to) {
+                        break;
+                    }
+                    recover(scan, tailer);
+                    long last = skipConsumed(scan, index);
+                    if (last != index && !tailer.index(last)) {
+                        break;
+                    }
+                    // the entries of a cycle are contiguous, stepping rather than using
+                    // nextIndex() avoids probing every later cycle at the end of this one
+                    more = to == 0L ? tailer.index(last + 1) : tailer.nextIndex();
+                }
+            }
+            return scan;
+        }
+
+        /**
+         * Pass the run of marked records following 'index', up to the lease as the records
+         * beyond it are summarised for the checkpoint.
+         *
+         * @return the last record passed, 'index' if none were
+         */
+        private long skipConsumed(CycleScan scan, long index) {
+            long last = Math.min(consumed.runFrom(index), Math.min(lease, to == 0L ? Long.MAX_VALUE : to - 1));
+            if (last <= index) {
+                return index;
+            }
+            scan.last = last;
+            scan.scanned += last - index; // the entries of a cycle are contiguous
+            if (scan.allConsumed) {
+                scan.consumedTo = last;
+            }
+            return last;
+        }
+
+        private void recover(CycleScan scan, ExcerptTailer tailer) {
+            long index = tailer.index();
+            if (scan.first == -1L) {
+                scan.first = index;
+            }
+            scan.last = index;
+            scan.scanned += 1;
+
+            int control = tailer.readInt(0L);
+            if (group.isConsumed(control)) {
+                if (scan.allConsumed) {
+                    scan.consumedTo = index;
+                }
+                consumed.set(index); // a no-op unless consumed before the bitmap was kept
+            } else {
+                scan.allConsumed = false;
+                if (group.isAvailable(control)) {
+                    scan.size += 1;
+                    scan.bytes += tailer.capacity();
+                } else if (control < 0 && control > Integer.MIN_VALUE) {
+                    // is an un-committed put
+                    if (discardInFlight) {
+                        tailer.writeOrderedInt(0L, Integer.MAX_VALUE);
+                        consumed.set(index);
+                        scan.discarded += 1;
+                    }
+                } else if (group.isTaken(control)) {
+                    // is an un-committed take, put it back
+                    group.release(tailer);
+                    scan.recovered += 1;
+                    scan.size += 1;
+                    scan.bytes += tailer.capacity();
+                }
+            }
+            if (index > lease) {
+                RecoveryCheckpoint.append(scan.segments, tailer, group);
+            }
+        }
+    }
+}
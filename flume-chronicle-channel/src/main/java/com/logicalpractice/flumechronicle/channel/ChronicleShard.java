@@ -0,0 +1,505 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.chronicle.Chronicle;
+import net.openhft.chronicle.ChronicleQueueBuilder;
+import net.openhft.chronicle.ExcerptTailer;
+import net.openhft.lang.Maths;
+import org.apache.flume.ChannelException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One of the independent queues of a channel, each with its own chronicle, take position,
+ * take frontier and recovery checkpoint under its own directory.
+ *
+ * With consumer groups this is one group's view of the queue, the chronicle and the cleanup
+ * are shared with the channels of the other groups through a {@link SharedChronicle}, and the
+ * take position, frontier, checkpoint and consumed bitmap are the group's own.
+ *
+ * The take position is moved on lazily. A take commit flags its records as consumed and
+ * records its progress in the taking thread's own slot of the position file, only a commit
+ * that consumed the record the position is waiting on (the 'blocker') goes on to advance it.
+ * One thread advances at a time, passing the runs of records marked in the
+ * {@link ConsumedBitmap} a word at a time and reading a control field only where a run ends.
+ * The advance is otherwise caught up by the periodic tasks when the slots show progress
+ * beyond the position.
+ */
+class ChronicleShard {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChronicleShard.class);
+
+    // how far the take lease is extended beyond the frontier, each extension is a write of
+    // the lease file and the records within a stride are rescanned on recovery
+    private static final long LEASE_STRIDE = 1L << 16;
+
+    // the resolution of the backlog age
+    private static final long BACKLOG_GRANULARITY = TimeUnit.SECONDS.toMillis(1);
+
+    // cleanup is requested each time the take position passes a block of this many records,
+    // or an index file if that is smaller
+    private static final int RELEASE_STRIDE_BITS = 16;
+
+    // the progress slots of the position file, threads beyond this many share them
+    private static final int TAKER_SLOTS = 63;
+
+    // the blocker when the last advance reached the end of the queue
+    private static final long UNKNOWN_BLOCKER = Long.MAX_VALUE;
+
+    /**
+     * Told of the records made available to the shard's group through the channels of the
+     * other groups.
+     */
+    interface PeerListener {
+        /**
+         * @param acquired the limiters the put acquired space in
+         */
+        void published(int records, long bytes, CapacityLimiter[] acquired);
+    }
+
+    private final int id;
+    private final String path;
+    private final ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder;
+    private final CycleMapper cycles;
+    private final long minFreeSpace;
+    private final boolean forced;
+    private final int releaseStrideBits;
+    private final ConsumerGroup group;
+    private final List<ConsumerGroup> groups;
+    private final PeerListener peerListener;
+
+    private SharedChronicle shared;
+    private Chronicle chronicle;
+    private ChroniclePosition position;
+    private ChroniclePosition lease;
+    private ConsumedBitmap consumed;
+    private TakeFrontier frontier;
+    private RecoveryCheckpoint checkpoint;
+    private ChronicleRecovery.Result lastRecovery;
+    private BacklogTimeline backlog;
+    private DiskUsage diskUsage;
+    private ChronicleCleanup cleanup;
+
+    // where requested cleanups run, and whether one is waiting to
+    private volatile Executor cleanupExecutor;
+    private final AtomicBoolean cleanupRequested = new AtomicBoolean();
+
+    // the first record after the position that wasn't consumed when last advanced
+    private volatile long blocker = UNKNOWN_BLOCKER;
+
+    // requests to advance the position, the thread taking it from 0 advances until none remain
+    private final AtomicInteger advanceRequests = new AtomicInteger();
+
+    // each taking thread's slot of the position file
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final ThreadLocal<Integer> takerSlots = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return (nextSlot.getAndIncrement() & Integer.MAX_VALUE) % TAKER_SLOTS;
+        }
+    };
+
+    // committed and untaken records
+    private final AtomicLong size = new AtomicLong();
+
+    private final ResidenceSampler residenceSampler = new ResidenceSampler();
+
+    /**
+     * @param minFreeSpace the bytes of free disk space below which puts are refused, 0 for
+     *                     no minimum
+     * @param forced true when the channel forces its records, the lease and checkpoint are
+     *               forced too
+     * @param group the group taking through this shard
+     * @param groups every group of the channel
+     * @param peerListener told of the records put through the other groups' channels
+     */
+    ChronicleShard(int id, String path, ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder,
+                   long minFreeSpace, boolean forced, ConsumerGroup group, List<ConsumerGroup> groups,
+                   PeerListener peerListener) {
+        this.id = id;
+        this.path = path;
+        this.queueBuilder = queueBuilder;
+        this.cycles = new CycleMapper(queueBuilder);
+        this.minFreeSpace = minFreeSpace;
+        this.forced = forced;
+        this.releaseStrideBits = Math.min(RELEASE_STRIDE_BITS, Maths.intLog2(queueBuilder.indexBlockSize() / 8));
+        this.group = group;
+        this.groups = groups;
+        this.peerListener = peerListener;
+    }
+
+    /**
+     * Open the chronicle and recover its state.
+     *
+     * @param name the channel name, used to name the recovery threads
+     * @return the recovered state
+     */
+    public ChronicleRecovery.Result start(String name) {
+        shared = SharedChronicle.open(path, queueBuilder, cycles, groups, group, TAKER_SLOTS, minFreeSpace);
+        try {
+            chronicle = shared.chronicle();
+            position = shared.position(group);
+            lease = new ChroniclePosition(path, group.fileName("lease", ".dat"));
+            checkpoint = RecoveryCheckpoint.load(new File(path), group, forced);
+            consumed = new ConsumedBitmap(cycles, new File(path), queueBuilder.indexBlockSize(),
+                    group.fileName("consumed", "-"));
+            recover(name);
+            diskUsage = shared.diskUsage();
+            cleanup = shared.cleanup();
+            cleanup.checkFreeSpace();
+            checkpoint.save(frontier.lease()); // as brought up to date by the recovery
+            diskUsage.run();
+        } catch (RuntimeException e) {
+            shared.detach(this); // if recovered
+            if (consumed != null) {
+                consumed.close();
+            }
+            if (lease != null) {
+                lease.close();
+            }
+            try {
+                shared.close(group);
+            } catch (IOException closing) {
+                e.addSuppressed(closing);
+            }
+            throw e;
+        }
+        return lastRecovery;
+    }
+
+    /**
+     * Recover the group's state and attach to the shared chronicle, holding off put commits
+     * through the other groups' channels meanwhile.
+     */
+    private void recover(String name) {
+        boolean discardInFlight = shared.beginRecovery();
+        try {
+            lastRecovery = new ChronicleRecovery(chronicle, cycles, group, consumed, discardInFlight,
+                    new File(path), name).recover(position.get(), lease.get(), checkpoint);
+            position.set(lastRecovery.position);
+            position.resetProgress(lastRecovery.position);
+            LOGGER.info("recovery of {}{} complete: committedSize={}, bytes={}, discarded={}, recovered={}, scanned={}",
+                    path, group.name() == null ? "" : " for " + group.name(), lastRecovery.size, lastRecovery.bytes,
+                    lastRecovery.discarded, lastRecovery.recovered, lastRecovery.scanned);
+
+            frontier = new TakeFrontier(position.get(), lease, LEASE_STRIDE, forced);
+            size.set(lastRecovery.size);
+            backlog = new BacklogTimeline(BACKLOG_GRANULARITY, position.get(), recoveredPutTime());
+            shared.attach(this);
+        } finally {
+            shared.endRecovery();
+        }
+    }
+
+    /**
+     * The put times of the records are unknown after a restart, the start of the cycle
+     * holding the first untaken record is the best that can be said without storing them.
+     */
+    private long recoveredPutTime() {
+        long now = System.currentTimeMillis();
+        if (lastRecovery.size == 0L) {
+            return now; // anything untaken will be put from now on
+        }
+        ExcerptTailer tailer = shared.tailer();
+        if (!tailer.index(position.get())) {
+            tailer.toStart();
+        }
+        if (!tailer.nextIndex()) {
+            return now;
+        }
+        return Math.min(now, cycles.startMillisOf(cycles.cycleOf(tailer.index())));
+    }
+
+    /**
+     * Bring the recovery checkpoint up to date with the records appended since it was last
+     * saved, and save it.
+     */
+    public void updateCheckpoint() {
+        try {
+            catchUpPosition(); // so that the position saved with it is current
+            // read before the frontier, the summary may only cover records beyond it
+            long currentLease = frontier.lease();
+            checkpoint.update(shared.tailer(), currentLease, frontier.scanned());
+            checkpoint.save(currentLease);
+        } catch (RuntimeException e) {
+            LOGGER.warn("unable to update the recovery checkpoint of {} - {}", path, e.toString());
+        }
+    }
+
+    public ChronicleCleanup cleanup() {
+        return cleanup;
+    }
+
+    /**
+     * The periodic cleanup, which first catches the position up.
+     */
+    public Runnable cleanupTask() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                catchUpPosition();
+                cleanup.run();
+            }
+        };
+    }
+
+    /**
+     * Checks the disk, running the cleanup straight away when it is low on space.
+     */
+    public Runnable diskCheck() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                catchUpPosition();
+                if (cleanup.checkFreeSpace()) {
+                    cleanup.run();
+                }
+                diskUsage.run();
+            }
+        };
+    }
+
+    /**
+     * Run the cleanups requested as the take position advances with 'executor'.
+     */
+    public void cleanupOn(Executor executor) {
+        cleanupExecutor = executor;
+    }
+
+    /**
+     * Called by a take commit, or a put rollback, once it has flagged its records as consumed.
+     * Marks them in the bitmap, otherwise the common case touches nothing shared beyond a
+     * read of the blocker.
+     */
+    public void consumed(IndexRuns indexes) {
+        long lowest = indexes.lowest();
+        long highest = indexes.highest();
+        consumed.set(indexes);
+        // the CAS of the thread's own slot orders the flags before the read of the blocker,
+        // either this sees the blocker published or the advance sees the flag
+        position.advanceProgress(takerSlots.get(), highest);
+        if (lowest <= blocker) {
+            advancePosition();
+        }
+    }
+
+    /**
+     * Advance the position if any taker has flagged records beyond it.
+     */
+    public void catchUpPosition() {
+        if (position.maxProgress() > position.get()) {
+            advancePosition();
+        }
+    }
+
+    /**
+     * Move the position over the run of consumed records following it. A request made while
+     * another thread is advancing is carried out by that thread.
+     */
+    public void advancePosition() {
+        if (advanceRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int requests = 1;
+        do {
+            advance();
+            requests = advanceRequests.addAndGet(-requests);
+        } while (requests != 0);
+    }
+
+    private void advance() {
+        ExcerptTailer tailer = shared.tailer(); // navigated from wherever the thread left it
+        long initial = position.get();
+        long last = initial;
+        for (;;) {
+            last = consumed.runFrom(last);
+            if (last <= 0L) {
+                tailer.toStart();
+            } else if (tailer.index() != last && !tailer.index(last)) {
+                throw new ChannelException("Unable to navigate to " + last);
+            }
+            if (!tailer.nextIndex()) {
+                blocker = UNKNOWN_BLOCKER;
+                break;
+            }
+            long next = tailer.index();
+            if (!isConsumed(tailer)) {
+                blocker = next;
+                // the blocker may have been consumed by a commit that read the previous one
+                if (!isConsumed(tailer)) {
+                    break;
+                }
+            }
+            last = next;
+        }
+        if (last != initial) {
+            position.set(last);
+            positionAdvanced(initial, last);
+            backlog.trim(last);
+            consumed.releaseBefore(last);
+        }
+    }
+
+    /**
+     * Whether the record at the tailer is consumed. One whose control field says so but isn't
+     * marked, consumed before the bitmap was kept, is marked now.
+     */
+    private boolean isConsumed(ExcerptTailer tailer) {
+        long index = tailer.index();
+        if (consumed.isSet(index)) {
+            return true;
+        }
+        if (group.isConsumed(tailer.readVolatileInt(0L))) {
+            consumed.set(index);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Requests a cleanup when the advance of the position passed a block of records or, when
+     * low on space, on every advance.
+     */
+    private void positionAdvanced(long from, long to) {
+        if ((from >>> releaseStrideBits) == (to >>> releaseStrideBits) && !cleanup.isLowOnSpace()) {
+            return;
+        }
+        Executor executor = cleanupExecutor;
+        if (executor == null || !cleanupRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    cleanupRequested.set(false);
+                    cleanup.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            cleanupRequested.set(false); // stopping
+        }
+    }
+
+    public boolean isLowOnSpace() {
+        return cleanup.isLowOnSpace();
+    }
+
+    public DiskUsage diskUsage() {
+        return diskUsage;
+    }
+
+    public BacklogTimeline backlog() {
+        return backlog;
+    }
+
+    /**
+     * @param delta the records committed by a put, negative for a take
+     */
+    public void addSize(long delta) {
+        size.addAndGet(delta);
+    }
+
+    /**
+     * @return how long the oldest untaken record has been in the shard, 0 when it is empty
+     */
+    public long backlogAge(long now) {
+        return size.get() > 0L ? Math.max(0L, now - backlog.oldestPutTime()) : 0L;
+    }
+
+    /**
+     * Records committed through another group's channel, made available to this group.
+     *
+     * @param bytes their stored size
+     * @param acquired the limiters the put acquired space in
+     */
+    void peerPublished(IndexRuns indexes, long bytes, CapacityLimiter[] acquired) {
+        frontier.released(indexes);
+        size.addAndGet(indexes.size());
+        backlog.mark(indexes.lowest(), System.currentTimeMillis()); // soon after they were put
+        if (peerListener != null) {
+            peerListener.published(indexes.size(), bytes, acquired);
+        }
+    }
+
+    public void stop() throws IOException {
+        shared.detach(this);
+        consumed.close();
+        lease.close();
+        shared.close(group);
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public Chronicle chronicle() {
+        return chronicle;
+    }
+
+    public CycleMapper cycles() {
+        return cycles;
+    }
+
+    public SharedChronicle shared() {
+        return shared;
+    }
+
+    public ConsumerGroup group() {
+        return group;
+    }
+
+    public ChroniclePosition position() {
+        return position;
+    }
+
+    public ConsumedBitmap consumedBitmap() {
+        return consumed;
+    }
+
+    public TakeFrontier frontier() {
+        return frontier;
+    }
+
+    public ResidenceSampler residenceSampler() {
+        return residenceSampler;
+    }
+
+    public ChronicleRecovery.Result lastRecovery() {
+        return lastRecovery;
+    }
+
+    @Override
+    public String toString() {
+        return "ChronicleShard{" +
+                "id=" + id +
+                (group.name() == null ? "" : ", group=" + group.name()) +
+                ", frontier=" + frontier +
+                ", position=" + position.get() +
+                '}';
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.lang.io.Bytes;
+import org.apache.flume.Event;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact event encoding, header keys and values are written as ids into the channel's
+ * {@link HeaderDictionary} where possible and numeric values as 8 byte longs.
+ *
+ * Record:
+ *    2-byte marker {@link EventBytes#COMPACT_FORMAT}, with the compressed flag if the body is compressed
+ *    stop bit header count
+ *    per header:
+ *       stop bit key ref: 0 => inline UTF follows, n => dictionary id n - 1
+ *       stop bit value ref: 0 => inline UTF follows, 1 => 8-byte long follows, n => dictionary id n - 2
+ *    stop bit body length
+ *    body
+ * or, when compressed, the body section written by {@link BodyCompressor}
+ */
+class CompactEventBytes {
+
+    private static final int INLINE = 0;
+    private static final int LONG_VALUE = 1;
+
+    private CompactEventBytes() {
+    }
+
+    /**
+     * Upper bound on the encoded size, avoids the dictionary lookups and the UTF
+     * length scans.
+     */
+    public static int sizeOf(Event event, BodyCompressor compressor) {
+        int size = 2 + 5;
+        for (Map.Entry<String, String> entry : event.getHeaders().entrySet()) {
+            size += 5 + 2 + 3 * entry.getKey().length();
+            size += 5 + Math.max(8, 2 + 3 * entry.getValue().length());
+        }
+        if (compressor != null) {
+            size += compressor.sectionSize();
+        } else {
+            size += 5;
+            size += event.getBody().length;
+        }
+        return size;
+    }
+
+    /**
+     * @param compressor holding the compressed body, or null to store the body as is
+     */
+    public static void writeTo(Bytes out, Event event, HeaderDictionary dictionary, BodyCompressor compressor) {
+        Map<String, String> headers = event.getHeaders();
+        out.writeShort(compressor != null
+                ? EventBytes.COMPACT_FORMAT | EventBytes.COMPRESSED
+                : EventBytes.COMPACT_FORMAT);
+        out.writeStopBit(headers.size());
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            String key = entry.getKey();
+            int keyId = dictionary.internKey(key);
+            if (keyId == HeaderDictionary.NOT_FOUND) {
+                out.writeStopBit(INLINE);
+                out.writeUTF(key);
+            } else {
+                out.writeStopBit(keyId + 1);
+            }
+
+            String value = entry.getValue();
+            if (isCanonicalLong(value)) {
+                out.writeStopBit(LONG_VALUE);
+                out.writeLong(Long.parseLong(value));
+                continue;
+            }
+            int valueId = dictionary.internValue(key, value);
+            if (valueId == HeaderDictionary.NOT_FOUND) {
+                out.writeStopBit(INLINE);
+                out.writeUTF(value);
+            } else {
+                out.writeStopBit(valueId + 2);
+            }
+        }
+        byte[] body = event.getBody();
+        if (compressor != null) {
+            compressor.writeSection(out, body.length);
+        } else {
+            out.writeStopBit(body.length);
+            out.write(body);
+        }
+    }
+
+    public static Map<String, String> readHeaders(Bytes in, HeaderDictionary dictionary) {
+        in.skip(2); // marker
+        int numberOfHeaders = (int) in.readStopBit();
+        Map<String, String> headers = new HashMap<String, String>(numberOfHeaders * 2);
+        for (int i = 0; i < numberOfHeaders; i++) {
+            int keyRef = (int) in.readStopBit();
+            String key = keyRef == INLINE ? in.readUTF() : dictionary.get(keyRef - 1);
+
+            int valueRef = (int) in.readStopBit();
+            String value;
+            if (valueRef == INLINE) {
+                value = in.readUTF();
+            } else if (valueRef == LONG_VALUE) {
+                value = Long.toString(in.readLong());
+            } else {
+                value = dictionary.get(valueRef - 2);
+            }
+            headers.put(key, value);
+        }
+        return headers;
+    }
+
+    /**
+     * Advance past the headers, leaving 'in' positioned at the start of the body section.
+     */
+    public static void skipHeaders(Bytes in) {
+        in.skip(2); // marker
+        int numberOfHeaders = (int) in.readStopBit();
+        for (int i = 0; i < numberOfHeaders; i++) {
+            if (in.readStopBit() == INLINE) {
+                in.skip(in.readUnsignedShort());
+            }
+            long valueRef = in.readStopBit();
+            if (valueRef == INLINE) {
+                in.skip(in.readUnsignedShort());
+            } else if (valueRef == LONG_VALUE) {
+                in.skip(8);
+            }
+        }
+    }
+
+    /**
+     * @return true if 'value' is exactly the string Long.toString would produce for it
+     */
+    static boolean isCanonicalLong(String value) {
+        int len = value.length();
+        if (len == 0 || len > 20) {
+            return false;
+        }
+        int start = value.charAt(0) == '-' ? 1 : 0;
+        if (start == len || (value.charAt(start) == '0' && len > start + 1) || (start == 1 && len == 2 && value.charAt(1) == '0')) {
+            return false; // empty, leading zero or "-0"
+        }
+        for (int i = start; i < len; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        if (len - start < 19) {
+            return true;
+        }
+        try {
+            Long.parseLong(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false; // overflow
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+/**
+ * Body compression codecs, the ordinal is stored in each compressed record so the order
+ * must not change.
+ */
+enum Compression {
+    NONE, LZ4, SNAPPY, DEFLATE;
+
+    static Compression forId(int id) {
+        Compression[] values = values();
+        if (id < 0 || id >= values.length) {
+            throw new IllegalArgumentException("unknown compression id " + id);
+        }
+        return values[id];
+    }
+
+    static Compression forName(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
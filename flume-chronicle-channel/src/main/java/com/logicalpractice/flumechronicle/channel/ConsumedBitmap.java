@@ -0,0 +1,313 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.lang.Maths;
+import net.openhft.lang.io.VanillaMappedBytes;
+import net.openhft.lang.io.VanillaMappedFile;
+import org.apache.flume.ChannelException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A mapped bitmap of the records that have been consumed, one bit per entry of a cycle.
+ *
+ * The bits of each index file's worth of entries are held in a block file, 'consumed-N' (or
+ * 'consumed-group-N' for a named {@link ConsumerGroup}) alongside 'index-N' in the cycle
+ * directory, so the bitmap goes with the cycle when it is deleted. A bit is only ever set
+ * once the record's control field says the group has consumed it, a set bit is a consumed
+ * record but a clear bit may be either; the control field remains the record of truth and
+ * the bitmap lets runs of consumed records be passed a word at a time without reading the
+ * data files.
+ *
+ * Blocks are mapped on first use and released once the take position has passed them, a
+ * small cache of recently used blocks is looked up without locking. Each access holds the
+ * block, so one released while a late commit is still marking it is unmapped only once that
+ * commit is done. A block the position has passed is never mapped again, its bits are no
+ * longer needed and marking them is skipped.
+ */
+class ConsumedBitmap {
+
+    private static final int CACHE_SIZE = 64; // a power of 2
+
+    private final CycleMapper cycles;
+    private final File path;
+    private final String filePrefix;
+    private final int blockBits;
+    private final long blockEntries;
+    private final long blockBytes;
+
+    // each slot holds the latest block looked up there, replaced whole
+    private final AtomicReferenceArray<Block> cache = new AtomicReferenceArray<>(CACHE_SIZE);
+
+    // guarded by this, every mapped block
+    private final List<Block> mapped = new ArrayList<>();
+
+    // the start of the first block that may still be mapped, guarded by this for writes
+    private volatile long releasedTo;
+
+    /**
+     * @param indexBlockSize the size of the chronicle's index files, a block holds the bits of
+     *                       one index file's entries
+     */
+    public ConsumedBitmap(CycleMapper cycles, File path, long indexBlockSize) {
+        this(cycles, path, indexBlockSize, "consumed-");
+    }
+
+    /**
+     * @param filePrefix the name of the block files, before the block number
+     */
+    public ConsumedBitmap(CycleMapper cycles, File path, long indexBlockSize, String filePrefix) {
+        this.cycles = cycles;
+        this.path = path;
+        this.filePrefix = filePrefix;
+        this.blockBits = Math.min(Maths.intLog2(indexBlockSize / 8), cycles.entryBits());
+        this.blockEntries = 1L << blockBits;
+        this.blockBytes = Math.max(8L, blockEntries / 8);
+    }
+
+    public boolean isSet(long index) {
+        Block block = block(index, false);
+        if (block == null) {
+            return false;
+        }
+        try {
+            long offset = index - block.start;
+            return (block.bytes.readVolatileLong((offset >>> 6) << 3) & (1L << (offset & 63))) != 0L;
+        } finally {
+            block.release();
+        }
+    }
+
+    public void set(long index) {
+        Block block = block(index, true);
+        if (block == null) {
+            return; // passed by the take position
+        }
+        try {
+            long offset = index - block.start;
+            or(block.bytes, (offset >>> 6) << 3, 1L << (offset & 63));
+        } finally {
+            block.release();
+        }
+    }
+
+    /**
+     * Set the bits of 'indexes', each run a word at a time.
+     */
+    public void set(IndexRuns indexes) {
+        for (int run = 0; run < indexes.runs(); run++) {
+            long index = indexes.start(run);
+            long end = indexes.end(run);
+            while (index <= end) {
+                Block block = block(index, true);
+                if (block == null) {
+                    index = startOf(index) + blockEntries; // passed by the take position
+                    continue;
+                }
+                try {
+                    long offset = index - block.start;
+                    long last = Math.min(Math.min(end - block.start, offset | 63L), blockEntries - 1); // the word's last
+                    long mask = (-1L << (offset & 63)) & (-1L >>> (63 - (last & 63)));
+                    or(block.bytes, (offset >>> 6) << 3, mask);
+                    index = block.start + last + 1;
+                } finally {
+                    block.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the end of the run of set bits following 'index' within its cycle.
+     *
+     * @return the last index of the run, 'index' itself when the bit following it is clear
+     */
+    public long runFrom(long index) {
+        if (index <= 0L) {
+            return index; // nothing consumed yet
+        }
+        int cycle = cycles.cycleOf(index);
+        long next = index + 1;
+        while (cycles.cycleOf(next) == cycle) {
+            Block block = block(next, false);
+            if (block == null) {
+                break;
+            }
+            try {
+                long offset = next - block.start;
+                long clear = ~block.bytes.readVolatileLong((offset >>> 6) << 3) & (-1L << (offset & 63));
+                if (clear != 0L) {
+                    return block.start + (offset & ~63L) + Long.numberOfTrailingZeros(clear) - 1;
+                }
+                next = block.start + Math.min(blockEntries, (offset | 63L) + 1);
+            } finally {
+                block.release();
+            }
+        }
+        return next - 1;
+    }
+
+    /**
+     * The mapped block file holding the bit of 'index', for forcing it to disk.
+     *
+     * @return the block reserved for the caller to release, null once the take position has
+     * passed it
+     */
+    public VanillaMappedBytes blockOf(long index) {
+        Block block = block(index, true);
+        if (block == null) {
+            return null;
+        }
+        try {
+            block.bytes.reserve();
+            return block.bytes;
+        } finally {
+            block.release();
+        }
+    }
+
+    /**
+     * Release the blocks before the one holding 'index', called as the take position
+     * passes them.
+     */
+    public void releaseBefore(long index) {
+        long start = startOf(index);
+        if (start <= releasedTo) {
+            return;
+        }
+        synchronized (this) {
+            for (Iterator<Block> it = mapped.iterator(); it.hasNext(); ) {
+                Block block = it.next();
+                if (block.start < start) {
+                    it.remove();
+                    cache.compareAndSet(slotOf(block.start), block, null);
+                    block.release(); // unmapped once the last access to it is done
+                }
+            }
+            releasedTo = start;
+        }
+    }
+
+    public synchronized void close() {
+        releasedTo = Long.MAX_VALUE; // a late mark is skipped rather than mapping again
+        for (Block block : mapped) {
+            block.release();
+        }
+        mapped.clear();
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            cache.set(i, null);
+        }
+    }
+
+    private long startOf(long index) {
+        return index & -blockEntries;
+    }
+
+    private int slotOf(long start) {
+        return (int) (start >>> blockBits) & (CACHE_SIZE - 1);
+    }
+
+    /**
+     * @param create true to create the block file if it doesn't exist yet
+     * @return the block held for the caller to release, null if the take position has passed
+     * it or if not creating and there's no block file
+     */
+    private Block block(long index, boolean create) {
+        long start = startOf(index);
+        int slot = slotOf(start);
+        Block block = cache.get(slot);
+        if (block != null && block.start == start && block.acquire()) {
+            return block;
+        }
+        return map(slot, start, create);
+    }
+
+    private synchronized Block map(int slot, long start, boolean create) {
+        if (start < releasedTo) {
+            return null;
+        }
+        Block block = null;
+        for (Block candidate : mapped) {
+            if (candidate.start == start) {
+                block = candidate;
+                break;
+            }
+        }
+        if (block == null) {
+            File file = new File(cycles.directoryOf(path, cycles.cycleOf(start)),
+                    filePrefix + (cycles.entryOf(start) >>> blockBits));
+            if (!create && !file.exists()) {
+                return null;
+            }
+            try {
+                block = new Block(start, VanillaMappedFile.readWriteBytes(file, blockBytes));
+            } catch (IOException e) {
+                throw new ChannelException("Failed to map consumed bitmap " + file, e);
+            }
+            mapped.add(block);
+        }
+        cache.set(slot, block);
+        block.acquire(); // always succeeds, only a block removed from 'mapped' is let go
+        return block;
+    }
+
+    private static void or(VanillaMappedBytes bytes, long offset, long mask) {
+        long current;
+        do {
+            current = bytes.readVolatileLong(offset);
+            if ((current | mask) == current) {
+                return;
+            }
+        } while (!bytes.compareAndSwapLong(offset, current, current | mask));
+    }
+
+    private static final class Block {
+        final long start;
+        final VanillaMappedBytes bytes;
+        // the bitmap's own hold plus one per access in progress, once 0 it's never taken again
+        private final AtomicInteger holds = new AtomicInteger(1);
+
+        Block(long start, VanillaMappedBytes bytes) {
+            this.start = start;
+            this.bytes = bytes;
+        }
+
+        boolean acquire() {
+            int current;
+            do {
+                current = holds.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!holds.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void release() {
+            if (holds.decrementAndGet() == 0) {
+                bytes.release();
+            }
+        }
+    }
+}
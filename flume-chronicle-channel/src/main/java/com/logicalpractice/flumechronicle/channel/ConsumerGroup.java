@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import net.openhft.chronicle.ExcerptTailer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One of the named groups of takers reading the same queue, each group taking every record
+ * once. A channel without consumer groups has a single unnamed group, {@link #SOLE}.
+ *
+ * Each group has its own 2 bits of the record's control field, at twice its ordinal:
+ *   00 => available
+ *   01 => taken by an open transaction
+ *   11 => consumed
+ *
+ * A put in flight is still negative and Integer.MAX_VALUE is consumed by every group, the
+ * last group to consume a record sets it so. With a single group its bits are the whole
+ * field, so the values are the same 0, taken and Integer.MAX_VALUE as before groups, and a
+ * take left behind by an earlier version (the taker's thread id) reads as taken.
+ *
+ * The files a group keeps for itself, its position, lease, checkpoint and consumed bitmap,
+ * have the group's name appended to the name of the single group's file.
+ */
+final class ConsumerGroup {
+
+    // 2 bits each in the 31 bits of a non-negative control field
+    static final int MAX_GROUPS = 15;
+
+    static final ConsumerGroup SOLE = new ConsumerGroup(null, 0, 1);
+
+    private static final int CONSUMED_BY_ALL = Integer.MAX_VALUE;
+
+    private final String name;
+    private final int ordinal;
+    private final int taken;
+    private final int mask;
+    // the bits of every group
+    private final int all;
+
+    private ConsumerGroup(String name, int ordinal, int count) {
+        this.name = name;
+        this.ordinal = ordinal;
+        if (count == 1) {
+            this.taken = 1;
+            this.mask = CONSUMED_BY_ALL;
+            this.all = CONSUMED_BY_ALL;
+        } else {
+            this.taken = 1 << (2 * ordinal);
+            this.mask = 3 << (2 * ordinal);
+            this.all = (1 << (2 * count)) - 1;
+        }
+    }
+
+    /**
+     * The groups of a comma or space separated list of names, in order. The order fixes
+     * each group's bits so it can't be changed once the channel has data.
+     */
+    static List<ConsumerGroup> parse(String names) {
+        List<String> split = Lists.newArrayList(Splitter.onPattern("[,\\s]+").omitEmptyStrings().split(names));
+        Preconditions.checkArgument(!split.isEmpty() && split.size() <= MAX_GROUPS,
+                "between 1 and %s consumer groups are allowed: %s", MAX_GROUPS, names);
+        List<ConsumerGroup> groups = new ArrayList<>(split.size());
+        for (int i = 0; i < split.size(); i++) {
+            String name = split.get(i);
+            Preconditions.checkArgument(name.matches("\\w+"),
+                    "consumer group names are letters, digits and '_': %s", name);
+            Preconditions.checkArgument(split.indexOf(name) == i, "consumer group %s is listed twice", name);
+            groups.add(new ConsumerGroup(name, i, split.size()));
+        }
+        return Collections.unmodifiableList(groups);
+    }
+
+    /**
+     * @return null for {@link #SOLE}
+     */
+    public String name() {
+        return name;
+    }
+
+    public int ordinal() {
+        return ordinal;
+    }
+
+    /**
+     * The name of the group's own copy of a file, 'position' and '.dat' name the position
+     * file 'position-name.dat' or, for {@link #SOLE}, 'position.dat'.
+     */
+    public String fileName(String base, String suffix) {
+        return name == null ? base + suffix : base + "-" + name + suffix;
+    }
+
+    public boolean isAvailable(int control) {
+        return control >= 0 && (control & mask) == 0;
+    }
+
+    public boolean isTaken(int control) {
+        return control >= 0 && (control & mask) != 0 && (control & mask) != mask;
+    }
+
+    public boolean isConsumed(int control) {
+        return control >= 0 && (control & mask) == mask;
+    }
+
+    /**
+     * Take the record at the tailer for this group.
+     *
+     * @return false if it isn't available to the group
+     */
+    public boolean take(ExcerptTailer tailer) {
+        for (;;) {
+            int control = tailer.readVolatileInt(0L);
+            if (!isAvailable(control)) {
+                return false;
+            }
+            if (tailer.compareAndSwapInt(0L, control, control | taken)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Flag the record at the tailer, taken by this group, as consumed by it.
+     */
+    public void consume(ExcerptTailer tailer) {
+        for (;;) {
+            int control = tailer.readVolatileInt(0L);
+            int update = control | mask;
+            if ((update & all) == all) {
+                update = CONSUMED_BY_ALL;
+            }
+            if (tailer.compareAndSwapInt(0L, control, update)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Make the record at the tailer, taken by this group, available to it again.
+     */
+    public void release(ExcerptTailer tailer) {
+        for (;;) {
+            int control = tailer.readVolatileInt(0L);
+            if (tailer.compareAndSwapInt(0L, control, control & ~mask)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? "ConsumerGroup{sole}" : "ConsumerGroup{" + name + "}";
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.chronicle.ChronicleQueueBuilder;
+import net.openhft.lang.Maths;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Maps between the cycle number, the name of its directory and its range of indexes, naming
+ * the cycles just as VanillaChronicle does: the start of the cycle formatted in GMT with the
+ * cycle format.
+ *
+ * The names of the cycles around the current one are computed up front and held in a small
+ * cache, so finding the directory of a recent cycle neither formats a date nor locks.
+ */
+class CycleMapper {
+
+    public static final int NOT_A_CYCLE = -1;
+
+    private static final int CACHE_SIZE = 64; // a power of 2
+
+    private final SimpleDateFormat format; // guarded by itself
+    private final int cycleLength;
+    private final int entriesForCycleBits;
+
+    // each slot holds the latest cycle named there, replaced whole so no lock is needed
+    private final CycleName[] names = new CycleName[CACHE_SIZE];
+
+    public CycleMapper(ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder) {
+        this(queueBuilder.cycleFormat(), queueBuilder.cycleLength(), queueBuilder.entriesPerCycle());
+    }
+
+    /**
+     * @throws IllegalArgumentException if 'cycleFormat' isn't a valid date pattern
+     */
+    public CycleMapper(String cycleFormat, int cycleLength, long entriesPerCycle) {
+        this.format = new SimpleDateFormat(cycleFormat);
+        this.format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        this.cycleLength = cycleLength;
+        this.entriesForCycleBits = Maths.intLog2(entriesPerCycle);
+
+        int current = currentCycle();
+        for (int cycle = current - CACHE_SIZE / 2; cycle < current + CACHE_SIZE / 2; cycle++) {
+            nameOf(cycle);
+        }
+    }
+
+    public int currentCycle() {
+        return cycleOfMillis(System.currentTimeMillis());
+    }
+
+    public int cycleOfMillis(long millis) {
+        return (int) (millis / cycleLength);
+    }
+
+    public long startMillisOf(int cycle) {
+        return (long) cycle * cycleLength;
+    }
+
+    public int cycleOf(long index) {
+        return (int) (index >>> entriesForCycleBits);
+    }
+
+    /**
+     * @return the index of the first entry of 'cycle', never itself a record
+     */
+    public long firstIndexOf(int cycle) {
+        return (long) cycle << entriesForCycleBits;
+    }
+
+    /**
+     * @return the highest index 'cycle' can hold
+     */
+    public long lastIndexOf(int cycle) {
+        return firstIndexOf(cycle + 1) - 1;
+    }
+
+    /**
+     * @return the number of low bits of an index holding its entry
+     */
+    public int entryBits() {
+        return entriesForCycleBits;
+    }
+
+    /**
+     * @return the entry of 'index' within its cycle
+     */
+    public long entryOf(long index) {
+        return index & ((1L << entriesForCycleBits) - 1);
+    }
+
+    public String nameOf(int cycle) {
+        int slot = cycle & (CACHE_SIZE - 1);
+        CycleName name = names[slot];
+        if (name == null || name.cycle != cycle) {
+            String text;
+            synchronized (format) {
+                text = format.format(new Date(startMillisOf(cycle)));
+            }
+            name = new CycleName(cycle, text);
+            names[slot] = name;
+        }
+        return name.text;
+    }
+
+    public File directoryOf(File path, int cycle) {
+        return new File(path, nameOf(cycle));
+    }
+
+    /**
+     * @return the cycle named 'name', or {@link #NOT_A_CYCLE} if it doesn't name one. Note
+     * that patterns mixing month and day of year ('MMDD') don't parse back to their cycle.
+     */
+    public int cycleOf(String name) {
+        long millis;
+        try {
+            synchronized (format) {
+                millis = format.parse(name).getTime();
+            }
+        } catch (ParseException e) {
+            return NOT_A_CYCLE;
+        }
+        long cycle = millis / cycleLength;
+        if (cycle < 0 || cycle > Integer.MAX_VALUE || !name.equals(nameOf((int) cycle))) {
+            return NOT_A_CYCLE;
+        }
+        return (int) cycle;
+    }
+
+    private static final class CycleName {
+        final int cycle;
+        final String text;
+
+        CycleName(int cycle, String text) {
+            this.cycle = cycle;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The bytes held on disk by a chronicle directory, kept up to date without walking the
+ * whole directory each time.
+ *
+ * The size of each cycle directory is measured once, only the directories of the current
+ * and the previous cycle can still grow and so are measured again on each run. Directories
+ * deleted by {@link ChronicleCleanup} are subtracted as they go.
+ */
+class DiskUsage implements Runnable {
+
+    private final File path;
+    private final CycleMapper cycleMapper;
+
+    // guarded by this
+    private Map<String, Long> cycles = new HashMap<>();
+
+    private volatile long bytes;
+
+    public DiskUsage(CycleMapper cycleMapper, File path) {
+        this.path = path;
+        this.cycleMapper = cycleMapper;
+    }
+
+    @Override
+    public synchronized void run() {
+        int cycle = cycleMapper.currentCycle();
+        String current = cycleMapper.nameOf(cycle);
+        String previous = cycleMapper.nameOf(cycle - 1);
+
+        File[] files = path.listFiles();
+        if (files == null) {
+            return; // not created yet
+        }
+        Map<String, Long> measured = new HashMap<>();
+        long total = 0L;
+        for (File file : files) {
+            if (!file.isDirectory()) {
+                total += file.length(); // the position, lease and checkpoint files
+                continue;
+            }
+            String name = file.getName();
+            Long size = cycles.get(name);
+            if (size == null || name.equals(current) || name.equals(previous)) {
+                size = sizeOf(file);
+            }
+            measured.put(name, size);
+            total += size;
+        }
+        cycles = measured;
+        bytes = total;
+    }
+
+    /**
+     * Account for a cycle directory having been deleted.
+     */
+    public synchronized void deleted(File directory) {
+        Long size = cycles.remove(directory.getName());
+        if (size != null) {
+            bytes -= size;
+        }
+    }
+
+    /**
+     * @return the bytes on disk as of the last run
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    private static long sizeOf(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File pathname) {
+                return pathname.isFile();
+            }
+        });
+        long size = 0L;
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+}
@@ -25,24 +25,70 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
+ * The standard event encoding, also the entry point for decoding a record in any of the
+ * supported encodings.
  *
+ * Record:
+ *    2-byte header count
+ *    per header: UTF key, UTF value
+ *    4-byte body length
+ *    body
+ *
+ * A negative header count is a marker identifying another encoding, bit 0 of the marker
+ * flags a compressed body (see {@link BodyCompressor}):
+ *    {@link #COMPACT_FORMAT} the compact encoding, see {@link CompactEventBytes}
+ *    {@link #STANDARD_FORMAT} the standard encoding with a compressed body, the header count
+ *    follows the marker
+ *    {@link #ASCII_FORMAT} the ascii encoding, see {@link AsciiEventBytes}
  */
 public class EventBytes {
 
+    static final short COMPACT_FORMAT = -2;
+    static final short STANDARD_FORMAT = -4;
+    static final short ASCII_FORMAT = -6;
+    static final short COMPRESSED = 1;
+
+    /**
+     * Returned by {@link #skipToBody(Bytes)} in place of the size of a compressed body.
+     */
+    public static final int COMPRESSED_BODY = ChronicleEventSerializer.BODY_NOT_IN_PLACE;
+
     public static int sizeOf(Event event) {
+        return sizeOf(event, null);
+    }
+
+    /**
+     * @param compressor holding the compressed body, or null to store the body as is
+     */
+    public static int sizeOf(Event event, BodyCompressor compressor) {
         int size = 2; // short header
         for (Map.Entry<String, String> entry : event.getHeaders().entrySet()) {
             size += 4; // 2 * 2 length fields
             size += AbstractBytes.findUTFLength(entry.getKey(), entry.getKey().length());
             size += AbstractBytes.findUTFLength(entry.getValue(), entry.getValue().length());
         }
-        size += 4;
-        size += event.getBody().length;
+        if (compressor != null) {
+            size += 2; // marker
+            size += compressor.sectionSize();
+        } else {
+            size += 4;
+            size += event.getBody().length;
+        }
         return size;
     }
 
     public static void writeTo(Bytes out, Event event) {
+        writeTo(out, event, null);
+    }
+
+    /**
+     * @param compressor holding the compressed body, or null to store the body as is
+     */
+    public static void writeTo(Bytes out, Event event, BodyCompressor compressor) {
         Map<String, String> headers = event.getHeaders();
+        if (compressor != null) {
+            out.writeShort(STANDARD_FORMAT | COMPRESSED);
+        }
         out.writeShort(headers.size());
         if (headers.size() > 0) {
             for (Map.Entry<String, String> entry : headers.entrySet()) {
@@ -50,20 +96,127 @@ public class EventBytes {
                 out.writeUTF(entry.getValue());
             }
         }
-        out.writeInt(event.getBody().length);
-        out.write(event.getBody());
+        if (compressor != null) {
+            compressor.writeSection(out, event.getBody().length);
+        } else {
+            out.writeInt(event.getBody().length);
+            out.write(event.getBody());
+        }
     }
 
+    /**
+     * Read an event in any encoding but the compact one, which needs the channel's
+     * dictionary.
+     */
     public static Event readFrom(Bytes in) {
+        return readFrom(in, null);
+    }
+
+    public static Event readFrom(Bytes in, HeaderDictionary dictionary) {
+        return readFrom(in, dictionary, null);
+    }
+
+    /**
+     * @param decompressor the calling thread's compressor reused to decompress the body, or null
+     */
+    public static Event readFrom(Bytes in, HeaderDictionary dictionary, BodyCompressor decompressor) {
+        short marker = in.readShort(in.position());
+        Map<String, String> headers = readHeaders(in, dictionary);
+        return EventBuilder.withBody(readBodySection(in, marker, decompressor), headers);
+    }
+
+    public static Map<String, String> readHeaders(Bytes in, HeaderDictionary dictionary) {
+        short marker = in.readShort(in.position());
+        if (isCompact(marker)) {
+            return CompactEventBytes.readHeaders(in, dictionary);
+        }
+        if (isAscii(marker)) {
+            return AsciiEventBytes.readHeaders(in);
+        }
+        if (marker < 0) {
+            in.skip(2);
+        }
         int numberOfHeaders = in.readShort();
         Map<String, String> headers = new HashMap<String, String>();
         for (int i = 0; i < numberOfHeaders; i++) {
             headers.put(in.readUTF(), in.readUTF());
         }
-        int bodySize = in.readInt();
+        return headers;
+    }
+
+    /**
+     * Read just the body, decompressing it if required.
+     */
+    public static byte[] readBody(Bytes in) {
+        return readBody(in, null);
+    }
+
+    /**
+     * @param decompressor the calling thread's compressor reused to decompress the body, or null
+     */
+    public static byte[] readBody(Bytes in, BodyCompressor decompressor) {
+        short marker = in.readShort(in.position());
+        skipHeaders(in, marker);
+        return readBodySection(in, marker, decompressor);
+    }
+
+    /**
+     * Advance past the headers without decoding them, leaving 'in' positioned
+     * at the start of the body.
+     *
+     * @return the body size or {@link #COMPRESSED_BODY}
+     */
+    public static int skipToBody(Bytes in) {
+        short marker = in.readShort(in.position());
+        skipHeaders(in, marker);
+        if (isCompressed(marker)) {
+            return COMPRESSED_BODY;
+        }
+        return readBodySize(in, marker);
+    }
+
+    private static void skipHeaders(Bytes in, short marker) {
+        if (isCompact(marker)) {
+            CompactEventBytes.skipHeaders(in);
+            return;
+        }
+        if (isAscii(marker)) {
+            AsciiEventBytes.skipHeaders(in);
+            return;
+        }
+        if (marker < 0) {
+            in.skip(2);
+        }
+        int numberOfHeaders = in.readShort();
+        for (int i = 0; i < numberOfHeaders * 2; i++) {
+            in.skip(in.readUnsignedShort());
+        }
+    }
+
+    private static byte[] readBodySection(Bytes in, short marker, BodyCompressor decompressor) {
+        if (isCompressed(marker)) {
+            return BodyCompressor.readSection(in, decompressor);
+        }
+        int bodySize = readBodySize(in, marker);
         byte[] body = new byte[bodySize];
         int bodyRead = in.read(body);
         assert bodyRead == bodySize;
-        return EventBuilder.withBody(body, headers);
+        return body;
+    }
+
+    private static int readBodySize(Bytes in, short marker) {
+        return isCompact(marker) ? (int) in.readStopBit() : in.readInt();
+    }
+
+    private static boolean isCompact(short marker) {
+        return marker < 0 && (marker & ~COMPRESSED) == COMPACT_FORMAT;
+    }
+
+    private static boolean isAscii(short marker) {
+        return marker < 0 && (marker & ~COMPRESSED) == ASCII_FORMAT;
+    }
+
+    private static boolean isCompressed(short marker) {
+        return marker < 0 && (marker & COMPRESSED) != 0;
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.lang.io.ByteBufferBytes;
+import net.openhft.lang.io.Bytes;
+import org.apache.flume.Event;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Event backed directly by the record in the mapped chronicle data file. The headers are
+ * only decoded and the body only copied when they are first requested.
+ *
+ * The event is only usable until the take transaction that produced it commits or rolls
+ * back, after that the record may be unmapped and any access to undecoded content fails.
+ */
+public class ExcerptEvent implements Event {
+
+    private final long index;
+
+    private final ChronicleEventSerializer serializer;
+
+    // the encoded event, as written by the serializer
+    private Bytes record;
+
+    private Map<String, String> headers;
+    private byte[] body;
+
+    ExcerptEvent(long index, Bytes record, ChronicleEventSerializer serializer) {
+        this.index = index;
+        this.serializer = serializer;
+        this.record = record;
+    }
+
+    /**
+     * @return the chronicle index of the record backing this event
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        if (headers == null) {
+            Bytes in = record();
+            in.position(0L);
+            headers = serializer.readHeaders(in);
+        }
+        return headers;
+    }
+
+    @Override
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = headers;
+    }
+
+    @Override
+    public byte[] getBody() {
+        if (body == null) {
+            Bytes in = record();
+            in.position(0L);
+            body = serializer.readBody(in);
+        }
+        return body;
+    }
+
+    @Override
+    public void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    /**
+     * A view of the body as stored within the mapped file, no copy is made unless the
+     * body isn't stored in place, for example when compressed.
+     *
+     * @return bytes positioned at the start of the body, the limit is the end of the body
+     */
+    public Bytes getBodyBytes() {
+        Bytes in = record();
+        in.position(0L);
+        int bodySize = serializer.skipToBody(in);
+        if (bodySize == ChronicleEventSerializer.BODY_NOT_IN_PLACE) {
+            return ByteBufferBytes.wrap(ByteBuffer.wrap(getBody()));
+        }
+        return in.bytes(in.position(), bodySize);
+    }
+
+    /**
+     * Detach the event from the record, called once the take transaction has completed.
+     */
+    void release() {
+        record = null;
+    }
+
+    private Bytes record() {
+        if (record == null) {
+            throw new IllegalStateException("event " + index + " accessed after its take transaction completed");
+        }
+        return record;
+    }
+
+    @Override
+    public String toString() {
+        return "ExcerptEvent{" +
+                "index=" + index +
+                ", released=" + (record == null) +
+                '}';
+    }
+}
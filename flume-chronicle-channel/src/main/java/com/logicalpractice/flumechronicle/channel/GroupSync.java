@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.lang.io.VanillaMappedBytes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Forces the mapped files written by committed transactions to disk, sharing each force
+ * between the commits that arrive while the previous one is running (group commit).
+ *
+ * A commit hands over the files it wrote with {@link #written(List, long)}, each is reserved
+ * so that it stays mapped until forced, and gets a ticket. {@link #syncTo(long)} returns once
+ * a force covering the ticket has completed: the first waiter forces everything pending on
+ * behalf of all the commits so far, those arriving meanwhile are covered by the next.
+ *
+ * {@link #committed(List, long)} applies the durability mode: waiting for the force when
+ * syncing on commit, otherwise leaving the files for the periodic {@link #sync()} or
+ * scheduling one early once enough bytes are pending. Without a force the files reach the
+ * disk whenever the OS writes the pages back.
+ */
+class GroupSync {
+
+    // guarded by this
+    private List<VanillaMappedBytes> pending = new ArrayList<>();
+    private List<VanillaMappedBytes> forcing = new ArrayList<>();
+    private long requested;
+    private long pendingBytes;
+
+    // held for the duration of a force
+    private final Object forceLock = new Object();
+    private volatile long synced;
+
+    private final AtomicBoolean syncScheduled = new AtomicBoolean();
+    private final Runnable scheduledSync = new Runnable() {
+        @Override
+        public void run() {
+            syncScheduled.set(false);
+            sync();
+        }
+    };
+
+    private final boolean onCommit;
+    private final long syncBytes;
+    private final Executor executor;
+    private final LatencyHistogram syncLatency;
+
+    /**
+     * @param onCommit true for a commit to wait for its force
+     * @param syncBytes pending bytes that schedule a sync on 'executor', 0 for never
+     */
+    GroupSync(boolean onCommit, long syncBytes, Executor executor, LatencyHistogram syncLatency) {
+        this.onCommit = onCommit;
+        this.syncBytes = syncBytes;
+        this.executor = executor;
+        this.syncLatency = syncLatency;
+    }
+
+    /**
+     * Called by a commit once it has written 'files'.
+     *
+     * @param bytes stored size of the commit's records
+     */
+    void committed(List<VanillaMappedBytes> files, long bytes) {
+        long ticket = written(files, bytes);
+        if (onCommit) {
+            syncTo(ticket);
+        } else if (syncBytes > 0L && pendingBytes() >= syncBytes) {
+            syncSoon();
+        }
+    }
+
+    /**
+     * Record the files written by a commit.
+     *
+     * @param bytes stored size of the commit's records
+     * @return the ticket to wait for with {@link #syncTo(long)}
+     */
+    synchronized long written(List<VanillaMappedBytes> files, long bytes) {
+        for (int i = 0; i < files.size(); i++) {
+            VanillaMappedBytes file = files.get(i);
+            if (!containsSame(pending, file)) {
+                file.reserve();
+                pending.add(file);
+            }
+        }
+        pendingBytes += bytes;
+        return ++requested;
+    }
+
+    /**
+     * @return stored size of the records written since the last force started
+     */
+    synchronized long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Wait until everything written up to 'ticket' has been forced, forcing it if no one
+     * else is.
+     */
+    void syncTo(long ticket) {
+        if (synced >= ticket) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (synced >= ticket) {
+                return; // covered by the force we were waiting on
+            }
+            sync();
+        }
+    }
+
+    /**
+     * Force everything written so far.
+     */
+    void sync() {
+        synchronized (forceLock) {
+            long upTo;
+            List<VanillaMappedBytes> files;
+            synchronized (this) {
+                upTo = requested;
+                files = pending;
+                pending = forcing;
+                forcing = files;
+                pendingBytes = 0L;
+            }
+            if (files.isEmpty()) {
+                synced = upTo;
+                return;
+            }
+            long started = System.nanoTime();
+            try {
+                for (int i = 0; i < files.size(); i++) {
+                    files.get(i).force();
+                }
+            } finally {
+                for (int i = 0; i < files.size(); i++) {
+                    files.get(i).release();
+                }
+                files.clear();
+            }
+            syncLatency.record(System.nanoTime() - started);
+            synced = upTo;
+        }
+    }
+
+    /**
+     * Run a sync on the executor unless one is already waiting to run.
+     */
+    private void syncSoon() {
+        if (syncScheduled.compareAndSet(false, true)) {
+            executor.execute(scheduledSync);
+        }
+    }
+
+    private static boolean containsSame(List<VanillaMappedBytes> files, VanillaMappedBytes file) {
+        for (int i = 0; i < files.size(); i++) {
+            if (files.get(i) == file) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
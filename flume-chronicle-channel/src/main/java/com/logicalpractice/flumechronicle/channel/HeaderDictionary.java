@@ -0,0 +1,249 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.apache.flume.ChannelException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per channel dictionary of interned header keys and values, used by the compact event format.
+ *
+ * Entries are appended to 'headers.dict' next to the position file, the id of an entry is
+ * its ordinal in the file. An entry is always written before the first record that refers to
+ * it. The file is only created once the first entry is added.
+ *
+ * Entry:
+ *    UTF string
+ *    4-byte owner: the id of the key of a value, -1 for a key
+ *
+ * Values are only interned while their key has seen fewer than {@link #MAX_VALUES_PER_KEY}
+ * distinct values, so high cardinality headers (ids, free text) stay inline rather than
+ * filling the dictionary. The counts are rebuilt from the owners on load, so the limit holds
+ * across restarts.
+ *
+ * The file is written through the page cache, when the channel forces its records to disk a
+ * put commit first forces the entries appended since the last {@link #sync()}.
+ */
+class HeaderDictionary {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeaderDictionary.class);
+
+    public static final int NOT_FOUND = -1;
+
+    static final int MAX_ENTRIES = 1 << 16;
+    static final int MAX_VALUES_PER_KEY = 64;
+    static final int MAX_LENGTH = 128;
+
+    private static final int KEY = -1;
+
+    private final File file;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, AtomicInteger> valuesPerKey = new ConcurrentHashMap<>();
+
+    private volatile String[] strings = new String[64];
+
+    private int size;
+
+    private RandomAccessFile out;
+
+    // set by an append, cleared once forced to disk
+    private volatile boolean unsynced;
+
+    public HeaderDictionary(String path) {
+        file = new File(path, "headers.dict");
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    private void load() {
+        try {
+            out = new RandomAccessFile(file, "rw");
+            long valid = 0L;
+            try {
+                while (valid < out.length()) {
+                    String value = out.readUTF();
+                    int owner = out.readInt();
+                    publish(value);
+                    if (owner != KEY && owner < size) {
+                        valuesOf(strings[owner]).incrementAndGet();
+                    }
+                    valid = out.getFilePointer();
+                }
+            } catch (EOFException e) {
+                LOGGER.warn("truncating partially written entry at {} in {}", valid, file);
+                out.setLength(valid);
+            }
+            out.seek(valid);
+        } catch (IOException e) {
+            throw new ChannelException("Failed to read header dictionary " + file, e);
+        }
+        LOGGER.info("loaded {} header dictionary entries", size);
+    }
+
+    /**
+     * @return the string for a previously interned id
+     */
+    public String get(int id) {
+        return strings[id];
+    }
+
+    /**
+     * @return the id of 'value' or {@link #NOT_FOUND}
+     */
+    public int idOf(String value) {
+        Integer id = ids.get(value);
+        return id == null ? NOT_FOUND : id;
+    }
+
+    /**
+     * Intern a header key.
+     *
+     * @return the id of 'key' or {@link #NOT_FOUND} if it can't be interned
+     */
+    public int internKey(String key) {
+        int id = idOf(key);
+        return id != NOT_FOUND ? id : add(key, KEY, null);
+    }
+
+    /**
+     * Intern a header value, subject to the cardinality limit of its key. The key is
+     * interned too, a value whose key can't be isn't either.
+     *
+     * @return the id of 'value' or {@link #NOT_FOUND} if it can't be interned
+     */
+    public int internValue(String key, String value) {
+        int id = idOf(value);
+        if (id != NOT_FOUND) {
+            return id;
+        }
+        int keyId = internKey(key);
+        if (keyId == NOT_FOUND) {
+            return NOT_FOUND;
+        }
+        // reserve one of the key's slots before adding, released if the value isn't added
+        AtomicInteger count = valuesOf(key);
+        for (;;) {
+            int current = count.get();
+            if (current >= MAX_VALUES_PER_KEY) {
+                return NOT_FOUND;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        return add(value, keyId, count);
+    }
+
+    private AtomicInteger valuesOf(String key) {
+        AtomicInteger count = valuesPerKey.get(key);
+        if (count == null) {
+            AtomicInteger existing = valuesPerKey.putIfAbsent(key, count = new AtomicInteger());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        return count;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param owner the id of the key of a value, or {@link #KEY}
+     * @param reserved the slot of the key reserved for a value, released unless it is added
+     */
+    private synchronized int add(String value, int owner, AtomicInteger reserved) {
+        Integer existing = ids.get(value);
+        if (existing != null || size >= MAX_ENTRIES || value.length() > MAX_LENGTH) {
+            if (reserved != null) {
+                reserved.decrementAndGet();
+            }
+            return existing != null ? existing : NOT_FOUND;
+        }
+        try {
+            if (out == null) {
+                out = new RandomAccessFile(file, "rw");
+            }
+            out.writeUTF(value);
+            out.writeInt(owner);
+            unsynced = true;
+        } catch (IOException e) {
+            if (reserved != null) {
+                reserved.decrementAndGet();
+            }
+            throw new ChannelException("Failed to append to header dictionary " + file, e);
+        }
+        return publish(value);
+    }
+
+    private int publish(String value) {
+        int id = size;
+        String[] current = strings;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[id] = value;
+        strings = current; // volatile write publishes the entry before the id is visible
+        ids.put(value, id);
+        size += 1;
+        return id;
+    }
+
+    /**
+     * Force the entries appended since the last sync to disk, the common case of nothing
+     * appended is a volatile read.
+     */
+    public void sync() {
+        if (!unsynced) {
+            return;
+        }
+        synchronized (this) {
+            if (!unsynced) {
+                return;
+            }
+            try {
+                out.getFD().sync();
+            } catch (IOException e) {
+                throw new ChannelException("Failed to sync header dictionary " + file, e);
+            }
+            unsynced = false;
+        }
+    }
+
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.warn("unable to close {} - {}", file, e.toString());
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+/**
+ * The indexes of the records put or taken by a transaction, in the order they were added,
+ * with each run of consecutive indexes held as its start and length.
+ *
+ * A put appends records one after another and a take batch claims a run from the frontier, so
+ * a transaction's indexes are usually a handful of runs however many records it holds. The
+ * arrays only grow, the buffer is cleared and reused by the thread's next transaction.
+ */
+class IndexRuns {
+
+    private long[] starts;
+    private int[] lengths;
+    private int runs = 0;
+    private int size = 0;
+
+    public IndexRuns(int initialRuns) {
+        this.starts = new long[initialRuns];
+        this.lengths = new int[initialRuns];
+    }
+
+    public void add(long index) {
+        if (runs > 0 && index == starts[runs - 1] + lengths[runs - 1]
+                && lengths[runs - 1] != Integer.MAX_VALUE) {
+            lengths[runs - 1] += 1;
+        } else {
+            if (runs == starts.length) {
+                grow();
+            }
+            starts[runs] = index;
+            lengths[runs] = 1;
+            runs += 1;
+        }
+        size += 1;
+    }
+
+    /**
+     * @return the number of indexes
+     */
+    public int size() {
+        return size;
+    }
+
+    public int runs() {
+        return runs;
+    }
+
+    public long start(int run) {
+        return starts[run];
+    }
+
+    public int length(int run) {
+        return lengths[run];
+    }
+
+    /**
+     * @return the last index of 'run'
+     */
+    public long end(int run) {
+        return starts[run] + lengths[run] - 1;
+    }
+
+    public long lowest() {
+        long lowest = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            lowest = Math.min(lowest, starts[i]);
+        }
+        return lowest;
+    }
+
+    public long highest() {
+        long highest = Long.MIN_VALUE;
+        for (int i = 0; i < runs; i++) {
+            highest = Math.max(highest, end(i));
+        }
+        return highest;
+    }
+
+    public void clear() {
+        runs = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        long[] replacementStarts = new long[Math.max(4, starts.length * 2)];
+        int[] replacementLengths = new int[replacementStarts.length];
+        System.arraycopy(starts, 0, replacementStarts, 0, runs);
+        System.arraycopy(lengths, 0, replacementLengths, 0, runs);
+        starts = replacementStarts;
+        lengths = replacementLengths;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("IndexRuns{size=").append(size).append(", runs=[");
+        for (int i = 0; i < runs; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(starts[i]);
+            if (lengths[i] > 1) {
+                builder.append("..").append(end(i));
+            }
+        }
+        return builder.append("]}").toString();
+    }
+}
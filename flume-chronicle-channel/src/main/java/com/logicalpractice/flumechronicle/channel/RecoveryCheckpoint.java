@@ -0,0 +1,298 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.chronicle.ExcerptTailer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Summary of the records beyond the take lease, so that recovery doesn't need to scan them.
+ *
+ * No taker has touched a record beyond the lease (see {@link TakeFrontier}), so the only
+ * change such a record can see after being summarised is an in-flight put being committed
+ * or rolled back. Each segment holds the number and stored size of its available records and
+ * the indexes of its in-flight puts, which recovery reads again. A segment is only usable
+ * while its first record is beyond the lease.
+ *
+ * Segments are contiguous and 'coveredTo' is the last record summarised. The summary is
+ * extended incrementally by {@link #update(ExcerptTailer, long, long)} and saved to
+ * 'checkpoint.dat' next to the position file. Each {@link ConsumerGroup} has its own, counting
+ * the records available to the group.
+ *
+ * When the channel forces its records the file is forced before it replaces the previous one,
+ * so a crash leaves a whole checkpoint. It may be older than the records, that's safe as its
+ * segments still lie beyond a lease that is forced before takers pass it. It can't be newer
+ * than the lease, one saved with a higher lease than the lease file holds is ignored.
+ *
+ * File:
+ *    4-byte version
+ *    8-byte lease when saved, a lower lease on load means the lease file was lost
+ *    8-byte coveredTo
+ *    4-byte segment count
+ *    per segment: 8-byte first, last, records, available, bytes, 4-byte in-flight count, 8-byte indexes
+ */
+class RecoveryCheckpoint {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecoveryCheckpoint.class);
+
+    static final String FILE_NAME = "checkpoint.dat";
+
+    private static final int VERSION = 1;
+
+    // records per segment, bounds how much is lost to the scan when the lease enters a segment
+    static final int SEGMENT_RECORDS = 1 << 16;
+
+    static class Segment {
+        final long first;
+        long last;
+        long records;
+        long available;
+        long bytes;
+        ResizingLongArray inFlight = new ResizingLongArray(4);
+
+        Segment(long first) {
+            this.first = first;
+            this.last = first;
+        }
+
+        @Override
+        public String toString() {
+            return "Segment{" +
+                    "first=" + first +
+                    ", last=" + last +
+                    ", available=" + available +
+                    ", inFlight=" + inFlight.size() +
+                    '}';
+        }
+    }
+
+    private final File file;
+
+    private final ConsumerGroup group;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private long coveredTo;
+
+    private long savedLease;
+
+    // true to force each save to disk
+    private final boolean forced;
+
+    RecoveryCheckpoint(File directory, ConsumerGroup group, boolean forced) {
+        this.file = new File(directory, group.fileName("checkpoint", ".dat"));
+        this.group = group;
+        this.forced = forced;
+    }
+
+    /**
+     * Load the saved checkpoint of 'group', an unreadable checkpoint is treated as empty.
+     *
+     * @param forced true to force each save to disk
+     */
+    public static RecoveryCheckpoint load(File directory, ConsumerGroup group, boolean forced) {
+        RecoveryCheckpoint checkpoint = new RecoveryCheckpoint(directory, group, forced);
+        if (!checkpoint.file.exists()) {
+            return checkpoint;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint.file)))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                LOGGER.warn("ignoring checkpoint {}, unknown version {}", checkpoint.file, version);
+                return checkpoint;
+            }
+            checkpoint.savedLease = in.readLong();
+            checkpoint.coveredTo = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Segment segment = new Segment(in.readLong());
+                segment.last = in.readLong();
+                segment.records = in.readLong();
+                segment.available = in.readLong();
+                segment.bytes = in.readLong();
+                int inFlight = in.readInt();
+                for (int j = 0; j < inFlight; j++) {
+                    segment.inFlight.add(in.readLong());
+                }
+                checkpoint.segments.add(segment);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("ignoring unreadable checkpoint {} - {}", checkpoint.file, e.toString());
+            checkpoint.segments.clear();
+            checkpoint.coveredTo = 0L;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Write the checkpoint to a temporary file and move it over the previous one.
+     */
+    public void save(long lease) {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            FileOutputStream fileOut = new FileOutputStream(tmp);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+                out.writeInt(VERSION);
+                out.writeLong(lease);
+                out.writeLong(coveredTo);
+                out.writeInt(segments.size());
+                for (Segment segment : segments) {
+                    out.writeLong(segment.first);
+                    out.writeLong(segment.last);
+                    out.writeLong(segment.records);
+                    out.writeLong(segment.available);
+                    out.writeLong(segment.bytes);
+                    out.writeInt(segment.inFlight.size());
+                    for (int i = 0; i < segment.inFlight.size(); i++) {
+                        out.writeLong(segment.inFlight.get(i));
+                    }
+                }
+                if (forced) {
+                    out.flush();
+                    fileOut.getFD().sync();
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedLease = lease;
+        } catch (IOException e) {
+            LOGGER.warn("unable to save checkpoint {} - {}", file, e.toString());
+        }
+    }
+
+    /**
+     * Drop the segments that are no longer beyond the lease.
+     *
+     * @return the usable segments, empty if the lease file has gone backwards
+     */
+    public List<Segment> retainFrom(long lease) {
+        if (lease < savedLease) {
+            LOGGER.warn("lease {} is behind the checkpoint's lease {}, ignoring the checkpoint", lease, savedLease);
+            segments.clear();
+            coveredTo = 0L;
+            savedLease = 0L;
+        }
+        Iterator<Segment> iterator = segments.iterator();
+        while (iterator.hasNext() && iterator.next().first <= lease) {
+            iterator.remove();
+        }
+        return segments;
+    }
+
+    /**
+     * Extend the summary with the records appended since the last update.
+     *
+     * @param tailer used to read the records
+     * @param lease the current lease
+     * @param scanned the frontier's scanned index, a record at or before the lease
+     */
+    public void update(ExcerptTailer tailer, long lease, long scanned) {
+        retainFrom(lease);
+        for (Segment segment : segments) {
+            resolveInFlight(tailer, segment, group);
+        }
+
+        long start = coveredTo > lease ? coveredTo : scanned;
+        if (!tailer.index(start)) {
+            tailer.toStart();
+        }
+        while (tailer.nextIndex()) {
+            if (tailer.index() > lease) {
+                append(segments, tailer, group);
+                coveredTo = tailer.index();
+            }
+        }
+    }
+
+    /**
+     * Add the record at the tailer to the last of 'segments', starting a new segment once
+     * it is full. The records of a segment must be contiguous.
+     *
+     * @param group the group the records are counted as available to
+     */
+    static void append(List<Segment> segments, ExcerptTailer tailer, ConsumerGroup group) {
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.records >= SEGMENT_RECORDS) {
+            segment = new Segment(tailer.index());
+            segments.add(segment);
+        }
+        segment.last = tailer.index();
+        segment.records += 1;
+        int control = tailer.readInt(0L);
+        if (group.isAvailable(control)) {
+            segment.available += 1;
+            segment.bytes += tailer.capacity();
+        } else if (control < 0 && control > Integer.MIN_VALUE) {
+            segment.inFlight.add(tailer.index());
+        }
+        // anything else has been consumed or, if the lease has since passed it, taken; either
+        // way the segment won't be used
+    }
+
+    /**
+     * Fold the in-flight puts that have completed into the segment's totals.
+     */
+    private static void resolveInFlight(ExcerptTailer tailer, Segment segment, ConsumerGroup group) {
+        ResizingLongArray stillInFlight = new ResizingLongArray(4);
+        for (int i = 0; i < segment.inFlight.size(); i++) {
+            long index = segment.inFlight.get(i);
+            if (!tailer.index(index)) {
+                continue;
+            }
+            int control = tailer.readInt(0L);
+            if (group.isAvailable(control)) {
+                segment.available += 1;
+                segment.bytes += tailer.capacity();
+            } else if (control < 0 && control > Integer.MIN_VALUE) {
+                stillInFlight.add(index);
+            }
+        }
+        segment.inFlight = stillInFlight;
+    }
+
+    public List<Segment> segments() {
+        return segments;
+    }
+
+    public long coveredTo() {
+        return coveredTo;
+    }
+
+    /**
+     * Replace the summary, as rebuilt by recovery.
+     */
+    void replace(List<Segment> segments, long coveredTo) {
+        this.segments.clear();
+        this.segments.addAll(segments);
+        this.coveredTo = coveredTo;
+    }
+
+    @Override
+    public String toString() {
+        return "RecoveryCheckpoint{" +
+                "coveredTo=" + coveredTo +
+                ", segments=" + segments.size() +
+                '}';
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.logicalpractice.flumechronicle.channel;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Put times of a sample of the records of a shard, used to measure how long events wait in
+ * the channel. Records don't hold their put time so a sampled put notes it here and the take
+ * of the record picks it up.
+ *
+ * The samples are held in a small table indexed by the record index, a put is only sampled
+ * when its slot is free. A slot is also free once the take position has passed its record,
+ * as happens to the samples of rolled back puts.
+ *
+ * A put claims the slot before writing the time and publishes the index after it, so the time
+ * a take reads belongs to the index it read whenever the take's removal of that index succeeds.
+ */
+class ResidenceSampler {
+
+    private static final int SLOTS = 1024;
+
+    private static final long EMPTY = 0L; // never a record index, cycle 0 isn't used
+
+    private static final long CLAIMED = -1L; // a put is writing its time
+
+    private final AtomicLongArray indexes = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray putTimes = new AtomicLongArray(SLOTS);
+
+    /**
+     * Note the put time of the record at 'index', if its slot is free.
+     *
+     * @param position the shard's take position
+     */
+    public void put(long index, long nanoTime, long position) {
+        int slot = slotOf(index);
+        long current = indexes.get(slot);
+        if (current == CLAIMED || (current != EMPTY && current > position)) {
+            return;
+        }
+        if (!indexes.compareAndSet(slot, current, CLAIMED)) {
+            return; // lost to another put
+        }
+        putTimes.set(slot, nanoTime);
+        indexes.set(slot, index);
+    }
+
+    /**
+     * Remove the sample of the record at 'index'.
+     *
+     * @return the put time of the record, or -1 if it wasn't sampled
+     */
+    public long take(long index) {
+        int slot = slotOf(index);
+        if (indexes.get(slot) != index) {
+            return -1L;
+        }
+        long putTime = putTimes.get(slot);
+        return indexes.compareAndSet(slot, index, EMPTY) ? putTime : -1L;
+    }
+
+    private static int slotOf(long index) {
+        return (int) (index ^ (index >>> 32)) & (SLOTS - 1);
+    }
+}
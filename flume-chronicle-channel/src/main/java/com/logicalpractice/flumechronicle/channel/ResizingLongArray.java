@@ -43,15 +43,19 @@ class ResizingLongArray {
     }
 
     public void add(long value) {
-        if (size == (array.length - 1)) {
-            long[] replacement = new long[array.length * 2];
-            System.arraycopy(array, 0, replacement, 0, array.length);
+        if (size == array.length) {
+            long[] replacement = new long[Math.max(4, array.length * 2)];
+            System.arraycopy(array, 0, replacement, 0, size);
             array = replacement;
         }
         array[size] = value;
         size += 1;
     }
 
+    public void clear() {
+        size = 0;
+    }
+
     @Override
     public String toString() {
         return "ResizingLongArray{" +
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.apache.flume.ChannelException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The part of a channel shared by the channels of the {@link ConsumerGroup}s of a path, those
+ * parts that cover every shard rather than one of them, see {@link SharedChronicle} for the
+ * shards' own.
+ *
+ * There's one header dictionary for the path, each channel interning into a dictionary of its
+ * own would hand out conflicting ids for the same file. Opened by the first channel of the
+ * path to start and closed with the last, a channel without consumer groups has its own.
+ *
+ * Each started channel's {@link CapacityLimiter} bounds its group's backlog, a put through any
+ * of the channels acquires space in all of them so the slowest group holds the puts back.
+ */
+class SharedChannel {
+
+    // guarded by itself, the open group channels by canonical path
+    private static final Map<String, SharedChannel> OPEN = new HashMap<>();
+
+    // null when not shared
+    private final String key;
+    private final HeaderDictionary dictionary;
+
+    // guarded by OPEN
+    private int references;
+
+    // guarded by this when replaced, those of the channels started
+    private volatile CapacityLimiter[] limiters = new CapacityLimiter[0];
+
+    private SharedChannel(String path, String key) {
+        this.key = key;
+        this.dictionary = new HeaderDictionary(path);
+    }
+
+    /**
+     * Open the channel at 'path' for 'group', sharing it with the channels of the other groups.
+     */
+    static SharedChannel open(String path, ConsumerGroup group) {
+        if (group == ConsumerGroup.SOLE) {
+            return new SharedChannel(path, null);
+        }
+        String key;
+        try {
+            key = new File(path).getCanonicalPath();
+        } catch (IOException e) {
+            throw new ChannelException("Unable to resolve " + path, e);
+        }
+        synchronized (OPEN) {
+            SharedChannel shared = OPEN.get(key);
+            if (shared == null) {
+                shared = new SharedChannel(path, key);
+                OPEN.put(key, shared);
+            }
+            shared.references += 1;
+            return shared;
+        }
+    }
+
+    public HeaderDictionary dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Start bounding the puts through every channel of the path by 'limiter', called once the
+     * channel has recovered its group's backlog into it.
+     */
+    public synchronized void attach(CapacityLimiter limiter) {
+        CapacityLimiter[] replacement = Arrays.copyOf(limiters, limiters.length + 1);
+        replacement[limiters.length] = limiter;
+        limiters = replacement;
+    }
+
+    public synchronized void detach(CapacityLimiter limiter) {
+        CapacityLimiter[] replacement = new CapacityLimiter[limiters.length];
+        int count = 0;
+        for (CapacityLimiter other : limiters) {
+            if (other != limiter) {
+                replacement[count++] = other;
+            }
+        }
+        limiters = Arrays.copyOf(replacement, count);
+    }
+
+    /**
+     * @return the limiters a put has to acquire space in, to be left unchanged
+     */
+    public CapacityLimiter[] limiters() {
+        return limiters;
+    }
+
+    /**
+     * Called as a channel of the path stops, closing the dictionary with the last.
+     */
+    public void close() {
+        if (key == null) {
+            dictionary.close();
+            return;
+        }
+        synchronized (OPEN) {
+            references -= 1;
+            if (references == 0) {
+                OPEN.remove(key);
+                dictionary.close();
+            }
+        }
+    }
+}
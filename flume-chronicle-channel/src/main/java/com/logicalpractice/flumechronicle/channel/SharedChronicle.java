@@ -0,0 +1,364 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.chronicle.Chronicle;
+import net.openhft.chronicle.ChronicleQueueBuilder;
+import net.openhft.chronicle.ExcerptAppender;
+import net.openhft.chronicle.ExcerptTailer;
+import org.apache.flume.ChannelException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The part of a shard shared by the {@link ConsumerGroup}s reading it: the chronicle, the take
+ * position of every group and the cleanup that follows the slowest of them.
+ *
+ * The channels of the groups of a path within the JVM share each shard's SharedChronicle, it
+ * is opened by the first of them to start and closed with the last. Each group's
+ * {@link ChronicleShard} attaches to it once recovered and is told of the records put through
+ * the other channels. A channel without consumer groups has its shards to itself.
+ *
+ * A put commit holds the publish lock shared while making its records visible and telling the
+ * other groups of them, a group recovering holds it exclusively until attached; each record
+ * committed meanwhile is either counted by the recovery or published to the group.
+ *
+ * Chronicle hands each thread the same tailer and appender however often they are created,
+ * so they are held here per thread and closed before the chronicle, otherwise the files
+ * they have mapped would stay mapped after it is closed. The groups' position files are
+ * closed with them.
+ */
+class SharedChronicle {
+
+    // guarded by itself, the open shards of group channels by canonical path
+    private static final Map<String, SharedChronicle> OPEN = new HashMap<>();
+
+    private final String path;
+    // null when not shared
+    private final String key;
+    private final List<ConsumerGroup> groups;
+    private final Chronicle chronicle;
+    private final ChroniclePosition[] positions;
+    private final DiskUsage diskUsage;
+    private final ChronicleCleanup cleanup;
+
+    // the highest index made visible by a put commit, or the last record at open
+    private final AtomicLong lastCommitted;
+
+    // guarded by itself, the tailers and appenders handed out, closed with the chronicle
+    private final List<Closeable> excerpts = new ArrayList<>();
+
+    private final ThreadLocal<ExcerptTailer> tailers = new ThreadLocal<ExcerptTailer>() {
+        @Override
+        protected ExcerptTailer initialValue() {
+            try {
+                return opened(chronicle.createTailer());
+            } catch (IOException e) {
+                throw new ChannelException("unable to create new Tailer", e);
+            }
+        }
+    };
+
+    private final ThreadLocal<ExcerptAppender> appenders = new ThreadLocal<ExcerptAppender>() {
+        @Override
+        protected ExcerptAppender initialValue() {
+            try {
+                return opened(chronicle.createAppender());
+            } catch (IOException e) {
+                throw new ChannelException("unable to create new Appender", e);
+            }
+        }
+    };
+
+    // null when not shared
+    private final ReadWriteLock publishLock;
+
+    // guarded by OPEN, the ordinals of the groups with a channel started
+    private final boolean[] started;
+    private int references;
+
+    // guarded by this, whether a recovery has discarded the puts left in flight
+    private boolean recovered;
+
+    // guarded by this when replaced
+    private volatile ChronicleShard[] attached = new ChronicleShard[0];
+
+    private SharedChronicle(String path, String key, ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder,
+                            CycleMapper cycles, List<ConsumerGroup> groups, int takerSlots, long minFreeSpace) {
+        this.path = path;
+        this.key = key;
+        this.groups = groups;
+        try {
+            chronicle = queueBuilder.build();
+        } catch (IOException e) {
+            throw new ChannelException("Failed to start Chronicle instance", e);
+        }
+        new File(path).mkdirs(); // chronicle only creates it on the first append
+        ExcerptTailer tailer = tailer();
+        tailer.toEnd();
+        lastCommitted = new AtomicLong(tailer.index());
+        positions = new ChroniclePosition[groups.size()];
+        for (ConsumerGroup group : groups) {
+            positions[group.ordinal()] = new ChroniclePosition(path, group.fileName("position", ".dat"), takerSlots);
+        }
+        diskUsage = new DiskUsage(cycles, new File(path));
+        cleanup = new ChronicleCleanup(queueBuilder, cycles, new File(path), groups, positions, diskUsage,
+                minFreeSpace);
+        publishLock = key != null ? new ReentrantReadWriteLock() : null;
+        started = new boolean[groups.size()];
+    }
+
+    /**
+     * Open the shard at 'path' for 'group', sharing it with the channels of the other groups.
+     *
+     * @param groups all the groups of the channel, [{@link ConsumerGroup#SOLE}] without groups
+     * @param takerSlots the progress slots of each position file
+     * @throws ChannelException if 'group' already has a channel started, or the groups differ
+     *                          from those of the channels already started
+     */
+    static SharedChronicle open(String path, ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder,
+                                CycleMapper cycles, List<ConsumerGroup> groups, ConsumerGroup group,
+                                int takerSlots, long minFreeSpace) {
+        if (group == ConsumerGroup.SOLE) {
+            return new SharedChronicle(path, null, queueBuilder, cycles, groups, takerSlots, minFreeSpace);
+        }
+        String key;
+        try {
+            key = new File(path).getCanonicalPath();
+        } catch (IOException e) {
+            throw new ChannelException("Unable to resolve " + path, e);
+        }
+        synchronized (OPEN) {
+            SharedChronicle shared = OPEN.get(key);
+            if (shared == null) {
+                shared = new SharedChronicle(path, key, queueBuilder, cycles, groups, takerSlots, minFreeSpace);
+                OPEN.put(key, shared);
+            } else if (!Arrays.equals(names(shared.groups), names(groups))) {
+                throw new ChannelException(path + " is open with the consumer groups "
+                        + Arrays.toString(names(shared.groups)) + ", not " + Arrays.toString(names(groups)));
+            }
+            if (shared.started[group.ordinal()]) {
+                throw new ChannelException("consumer group " + group.name() + " of " + path
+                        + " is already read by a started channel");
+            }
+            shared.started[group.ordinal()] = true;
+            shared.references += 1;
+            return shared;
+        }
+    }
+
+    private static String[] names(List<ConsumerGroup> groups) {
+        String[] names = new String[groups.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = groups.get(i).name();
+        }
+        return names;
+    }
+
+    public Chronicle chronicle() {
+        return chronicle;
+    }
+
+    /**
+     * @return the calling thread's tailer, its position is whatever the thread last left it at
+     */
+    public ExcerptTailer tailer() {
+        return tailers.get();
+    }
+
+    public ExcerptAppender appender() {
+        return appenders.get();
+    }
+
+    private <T extends Closeable> T opened(T excerpt) {
+        synchronized (excerpts) {
+            excerpts.add(excerpt);
+        }
+        return excerpt;
+    }
+
+    public ChroniclePosition position(ConsumerGroup group) {
+        return positions[group.ordinal()];
+    }
+
+    public DiskUsage diskUsage() {
+        return diskUsage;
+    }
+
+    public ChronicleCleanup cleanup() {
+        return cleanup;
+    }
+
+    /**
+     * Called by a put commit before it makes its records visible.
+     *
+     * @param index the highest index among them
+     */
+    public void committed(long index) {
+        for (;;) {
+            long current = lastCommitted.get();
+            if (index <= current || lastCommitted.compareAndSet(current, index)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the highest index a put commit has made visible, every index of its cycle up
+     *         to it is a record as the entries of a cycle are contiguous
+     */
+    public long lastCommitted() {
+        return lastCommitted.get();
+    }
+
+    /**
+     * Hold off put commits while a group recovers, until {@link #endRecovery()}.
+     *
+     * @return true for the first recovery since opened, no puts can be in flight and those
+     *         left by an earlier run are discarded
+     */
+    public boolean beginRecovery() {
+        if (publishLock != null) {
+            publishLock.writeLock().lock();
+        }
+        synchronized (this) {
+            boolean first = !recovered;
+            recovered = true;
+            return first;
+        }
+    }
+
+    public void endRecovery() {
+        if (publishLock != null) {
+            publishLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Start telling 'shard' of the records put through the other groups' channels, called
+     * within the recovery.
+     */
+    public synchronized void attach(ChronicleShard shard) {
+        ChronicleShard[] replacement = Arrays.copyOf(attached, attached.length + 1);
+        replacement[attached.length] = shard;
+        attached = replacement;
+    }
+
+    public synchronized void detach(ChronicleShard shard) {
+        ChronicleShard[] replacement = new ChronicleShard[attached.length];
+        int count = 0;
+        for (ChronicleShard other : attached) {
+            if (other != shard) {
+                replacement[count++] = other;
+            }
+        }
+        attached = Arrays.copyOf(replacement, count);
+    }
+
+    /**
+     * Held by a put commit from before it makes its records visible until it has published
+     * them, see the class comment.
+     */
+    public void beginPublish() {
+        if (publishLock != null) {
+            publishLock.readLock().lock();
+        }
+    }
+
+    public void endPublish() {
+        if (publishLock != null) {
+            publishLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Tell the other groups of the records made visible by a put commit through the channel
+     * of 'from'.
+     *
+     * @param bytes the stored size of the records
+     * @param acquired the limiters the put acquired space in
+     */
+    public void published(ChronicleShard from, IndexRuns indexes, long bytes, CapacityLimiter[] acquired) {
+        for (ChronicleShard shard : attached) {
+            if (shard != from) {
+                shard.peerPublished(indexes, bytes, acquired);
+            }
+        }
+    }
+
+    /**
+     * Tell the other groups of the records of a put rolled back through the channel of
+     * 'from', they are consumed by every group.
+     */
+    public void discarded(ChronicleShard from, IndexRuns indexes) {
+        for (ChronicleShard shard : attached) {
+            if (shard != from) {
+                shard.consumed(indexes);
+            }
+        }
+    }
+
+    /**
+     * Called as the channel of 'group' stops, closing the chronicle with the last.
+     */
+    public void close(ConsumerGroup group) throws IOException {
+        if (key == null) {
+            closeChronicle();
+            return;
+        }
+        synchronized (OPEN) {
+            started[group.ordinal()] = false;
+            references -= 1;
+            if (references == 0) {
+                OPEN.remove(key);
+                closeChronicle();
+            }
+        }
+    }
+
+    private void closeChronicle() throws IOException {
+        synchronized (excerpts) {
+            for (Closeable excerpt : excerpts) {
+                excerpt.close();
+            }
+            excerpts.clear();
+        }
+        for (ChroniclePosition position : positions) {
+            position.close();
+        }
+        chronicle.close();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedChronicle{" +
+                "path='" + path + '\'' +
+                ", groups=" + Arrays.toString(names(groups)) +
+                ", attached=" + attached.length +
+                '}';
+    }
+}
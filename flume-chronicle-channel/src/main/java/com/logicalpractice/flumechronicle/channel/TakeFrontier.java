@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The shared take frontier of the channel.
+ *
+ * 'scanned' is the highest index that has been handed to a taker for examination, every
+ * record at or before it has been visited at least once. Takers claim the next index to
+ * examine by swapping 'scanned' forward so each record is only visited once by the forward
+ * scan, regardless of the number of takers.
+ *
+ * Records can become available again behind the frontier, either by a take being rolled back
+ * or by a put that was skipped while still in flight being committed. These are recorded
+ * in 'gaps' by {@link #released(long)} so that takers can jump straight to them rather
+ * than rescanning.
+ *
+ * The protocol relies on takers advancing 'scanned' before reading the control field and
+ * releasers writing the control field before reading 'scanned'; either the taker sees the
+ * released record or the releaser sees the advanced frontier and records a gap.
+ *
+ * 'lease' is a persisted upper bound on 'scanned', extended in strides ahead of it, so no
+ * taker has ever touched a record beyond it. Recovery trusts the checkpoint summaries of
+ * records beyond the lease (see {@link RecoveryCheckpoint}). It is never moved backwards.
+ * When the channel forces its records to disk each extension is forced before any taker can
+ * pass the old lease, otherwise a crash could leave a take's control word on disk beyond a
+ * lease that never made it there, and recovery would skip the record.
+ */
+class TakeFrontier {
+
+    public static final long NO_GAP = -1L;
+
+    private final AtomicLong scanned;
+
+    private final ConcurrentSkipListSet<Long> gaps = new ConcurrentSkipListSet<>();
+
+    // null when the lease isn't persisted
+    private final ChroniclePosition leaseStore;
+    private final long leaseStride;
+    private final boolean forceLease;
+    private volatile long lease;
+
+    public TakeFrontier(long initial) {
+        this(initial, null, 0L, false);
+    }
+
+    /**
+     * @param leaseStore where the lease is persisted
+     * @param leaseStride how far ahead of 'scanned' each extension of the lease reaches
+     * @param forceLease true to force each extension to disk
+     */
+    public TakeFrontier(long initial, ChroniclePosition leaseStore, long leaseStride, boolean forceLease) {
+        this.scanned = new AtomicLong(initial);
+        this.leaseStore = leaseStore;
+        this.leaseStride = leaseStride;
+        this.forceLease = forceLease;
+        if (leaseStore != null) {
+            this.lease = Math.max(leaseStore.get(), initial);
+            storeLease(lease);
+        } else {
+            this.lease = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return the highest index handed out for examination
+     */
+    public long scanned() {
+        return scanned.get();
+    }
+
+    /**
+     * Attempt to claim 'next' as the next index to examine.
+     *
+     * @param from the value of {@link #scanned()} the caller navigated from
+     * @param next the index following 'from', or the last of a run of indexes following it
+     * @return true if the caller now owns the examination of 'next' and of the run up to it
+     */
+    public boolean advance(long from, long next) {
+        if (next > lease) {
+            extendLease(next);
+        }
+        return scanned.compareAndSet(from, next);
+    }
+
+    private synchronized void extendLease(long next) {
+        if (next > lease) {
+            long extended = next + leaseStride;
+            storeLease(extended); // persisted before 'scanned' can pass the old lease
+            lease = extended;
+        }
+    }
+
+    private void storeLease(long value) {
+        leaseStore.set(value);
+        if (forceLease) {
+            leaseStore.force();
+        }
+    }
+
+    /**
+     * @return the upper bound on the indexes handed out for examination
+     */
+    public long lease() {
+        return lease;
+    }
+
+    /**
+     * Notify the frontier that the record at 'index' has had its control field set
+     * back to zero.
+     */
+    public void released(long index) {
+        // the read-modify-write is a full fence ordering the control write
+        // before the read of 'scanned'
+        if (index <= scanned.getAndAdd(0L)) {
+            gaps.add(index);
+        }
+    }
+
+    /**
+     * Batch version of {@link #released(long)}, only the one fence is required.
+     */
+    public void released(IndexRuns indexes) {
+        if (indexes.size() == 0) {
+            return;
+        }
+        long mark = scanned.getAndAdd(0L);
+        for (int run = 0; run < indexes.runs(); run++) {
+            long end = Math.min(indexes.end(run), mark);
+            for (long index = indexes.start(run); index <= end; index++) {
+                gaps.add(index);
+            }
+        }
+    }
+
+    /**
+     * Remove and return the lowest known gap.
+     *
+     * @return the index or {@link #NO_GAP}
+     */
+    public long pollGap() {
+        Long gap = gaps.pollFirst();
+        return gap == null ? NO_GAP : gap;
+    }
+
+    public int gapCount() {
+        return gaps.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TakeFrontier{" +
+                "scanned=" + scanned.get() +
+                ", lease=" + lease +
+                ", gaps=" + gaps.size() +
+                '}';
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wakes takers waiting on an empty channel when records are made visible to take.
+ *
+ * 'published' is bumped every time records become available. A taker notes it before
+ * scanning and, finding nothing, waits for it to move: busy-spinning first, then yielding
+ * and finally parking until unparked by {@link #signal()} or the deadline passes.
+ *
+ * Parked takers register before re-checking 'published' and signal bumps 'published'
+ * before looking for parked takers, so a signal can't fall between the two. Each thread
+ * has one waiter, created the first time it parks and flagged while parked, so parking
+ * allocates nothing.
+ */
+class TakeSignal {
+
+    private final AtomicLong published = new AtomicLong();
+
+    // every thread that has parked, replaced whole under 'this'
+    private volatile Waiter[] waiters = new Waiter[0];
+
+    private final AtomicInteger parked = new AtomicInteger();
+
+    private final ThreadLocal<Waiter> waiter = new ThreadLocal<Waiter>() {
+        @Override
+        protected Waiter initialValue() {
+            return register(new Waiter(Thread.currentThread()));
+        }
+    };
+
+    private final long timeoutNanos;
+    private final int spins;
+    private final int yields;
+
+    /**
+     * @param timeoutNanos how long takes wait, 0 for not at all
+     */
+    public TakeSignal(long timeoutNanos, int spins, int yields) {
+        this.timeoutNanos = timeoutNanos;
+        this.spins = spins;
+        this.yields = yields;
+    }
+
+    /**
+     * @return how long a take waits for an event, 0 if takes don't wait
+     */
+    public long timeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * @return the value to pass to {@link #await(long, long)}
+     */
+    public long published() {
+        return published.get();
+    }
+
+    /**
+     * Records have been made visible to take.
+     */
+    public void signal() {
+        published.incrementAndGet();
+        if (parked.get() > 0) {
+            for (Waiter candidate : waiters) {
+                if (candidate.parked) {
+                    LockSupport.unpark(candidate.thread);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for a signal after 'seen' was read from {@link #published()}.
+     *
+     * @param deadline in System.nanoTime() terms
+     * @return true if signalled, false if the deadline passed first
+     */
+    public boolean await(long seen, long deadline) throws InterruptedException {
+        for (int i = 0; i < spins; i++) {
+            if (published.get() != seen) {
+                return true;
+            }
+        }
+        for (int i = 0; i < yields; i++) {
+            Thread.yield();
+            if (published.get() != seen) {
+                return true;
+            }
+        }
+        Waiter current = waiter.get();
+        current.parked = true;
+        parked.incrementAndGet();
+        try {
+            while (published.get() == seen) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return true;
+        } finally {
+            current.parked = false;
+            parked.decrementAndGet();
+        }
+    }
+
+    public int parkedCount() {
+        return parked.get();
+    }
+
+    /**
+     * @return the threads with a waiter, each counted once however often it has parked
+     */
+    int waiterCount() {
+        return waiters.length;
+    }
+
+    /**
+     * Add the waiter of a thread parking for the first time, dropping those of threads that
+     * have since died.
+     */
+    private synchronized Waiter register(Waiter added) {
+        List<Waiter> live = new ArrayList<>(waiters.length + 1);
+        for (Waiter existing : waiters) {
+            if (existing.thread.isAlive()) {
+                live.add(existing);
+            }
+        }
+        live.add(added);
+        waiters = live.toArray(new Waiter[live.size()]);
+        return added;
+    }
+
+    private static final class Waiter {
+        final Thread thread;
+        volatile boolean parked;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+}
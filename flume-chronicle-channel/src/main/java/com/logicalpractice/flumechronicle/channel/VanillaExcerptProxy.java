@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.chronicle.ExcerptCommon;
+import net.openhft.lang.io.VanillaMappedBytes;
+
+import java.lang.reflect.Field;
+
+/**
+ * Wrapper that uses reflection to access the mapped data and index files of a VanillaChronicle
+ * excerpt.
+ */
+class VanillaExcerptProxy {
+
+    private static final Field DATA_BYTES;
+    private static final Field INDEX_BYTES;
+
+    static {
+        try {
+            Class<?> clz = Class.forName("net.openhft.chronicle.VanillaChronicle$AbstractVanillaExcerpt");
+            DATA_BYTES = clz.getDeclaredField("dataBytes");
+            DATA_BYTES.setAccessible(true);
+            INDEX_BYTES = clz.getDeclaredField("indexBytes");
+            INDEX_BYTES.setAccessible(true);
+        } catch (ClassNotFoundException | NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private VanillaExcerptProxy() {
+    }
+
+    /**
+     * The mapped data file the excerpt is currently positioned in.
+     */
+    public static VanillaMappedBytes dataBytes(ExcerptCommon excerpt) {
+        try {
+            return (VanillaMappedBytes) DATA_BYTES.get(excerpt);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The mapped index file the excerpt is currently positioned in.
+     */
+    public static VanillaMappedBytes indexBytes(ExcerptCommon excerpt) {
+        try {
+            return (VanillaMappedBytes) INDEX_BYTES.get(excerpt);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -17,12 +17,16 @@
 package com.logicalpractice.flumechronicle.channel
 
 import org.apache.flume.Channel
+import org.apache.flume.Context
 
 /**
  *
  */
 trait ChannelTransactionSupport {
 
+    // the channels started by newChronicleChannel
+    List<ChronicleChannel> startedChannels = []
+
     void begin(Channel channel) {
         channel.getTransaction().begin();
     }
@@ -37,4 +41,36 @@ trait ChannelTransactionSupport {
         channel.getTransaction().rollback();
         channel.getTransaction().close();
     }
+
+    /**
+     * A started channel on the spec's tempDir, configured with 'settings'.
+     */
+    ChronicleChannel newChronicleChannel(Map settings) {
+        newChronicleChannel(this.tempDir as File, settings)
+    }
+
+    ChronicleChannel newChronicleChannel(File path, Map settings) {
+        def result = configureChronicleChannel(path, settings)
+        result.start()
+        startedChannels << result
+        result
+    }
+
+    /**
+     * A channel on 'path' configured with 'settings', left for the spec to start.
+     */
+    ChronicleChannel configureChronicleChannel(File path, Map settings) {
+        def result = new ChronicleChannel(name: channelName(path, settings))
+        result.configure(new Context([(ChronicleChannelConfiguration.PATH_KEY): path.canonicalPath] +
+                settings.collectEntries { key, value -> [key.toString(), value.toString()] }))
+        result
+    }
+
+    /**
+     * Each channel registers its counters by name, a spec with several running at once names
+     * them apart.
+     */
+    String channelName(File path, Map settings) {
+        'chronicle-channel'
+    }
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel
+
+import com.google.common.base.Charsets
+import com.google.common.io.Files
+import org.apache.flume.ChannelException
+import org.apache.flume.ChannelFullException
+import org.apache.flume.Context
+import org.apache.flume.event.EventBuilder
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ *
+ */
+class ChronicleChannelCapacitySpec extends Specification implements ChannelTransactionSupport {
+
+    File tempDir = Files.createTempDir()
+
+    def executor = Executors.newSingleThreadExecutor()
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def "put fails with ChannelFullException once the keep-alive expires"() {
+        given:
+        def channel = newChronicleChannel(capacity: "2", transactionCapacity: "2", keepAlive: "0")
+        begin(channel)
+        2.times { channel.put(EventBuilder.withBody("event $it", Charsets.UTF_8)) }
+        commitAndClose(channel)
+
+        when:
+        begin(channel)
+        channel.put(EventBuilder.withBody("too many", Charsets.UTF_8))
+
+        then:
+        thrown(ChannelFullException)
+
+        cleanup:
+        rollbackAndClose(channel)
+        channel.stop()
+    }
+
+    def "a waiting put proceeds once a take commits"() {
+        given:
+        def channel = newChronicleChannel(capacity: "1", transactionCapacity: "1", keepAlive: "10")
+        begin(channel)
+        channel.put(EventBuilder.withBody("first", Charsets.UTF_8))
+        commitAndClose(channel)
+
+        when:
+        def waiting = executor.submit({
+            begin(channel)
+            channel.put(EventBuilder.withBody("second", Charsets.UTF_8))
+            commitAndClose(channel)
+            null
+        } as Callable<Void>)
+        Thread.sleep(100)
+        def blocked = !waiting.isDone()
+
+        begin(channel)
+        def first = channel.take()
+        commitAndClose(channel)
+        waiting.get(5, TimeUnit.SECONDS)
+
+        begin(channel)
+        def second = channel.take()
+        commitAndClose(channel)
+
+        then:
+        blocked
+        new String(first.body, Charsets.UTF_8) == "first"
+        new String(second.body, Charsets.UTF_8) == "second"
+
+        cleanup:
+        channel.stop()
+    }
+
+    def "byte capacity is returned by take commits and put rollbacks"() {
+        given:
+        def channel = newChronicleChannel(byteCapacity: "100000", compression: "lz4", compressionThreshold: "1")
+        def body = ("compressible " * 100).getBytes(Charsets.UTF_8)
+
+        when:
+        begin(channel)
+        10.times { channel.put(EventBuilder.withBody(body)) }
+        commitAndClose(channel)
+        def afterPut = channel.limiter.bytes()
+
+        begin(channel)
+        5.times { channel.put(EventBuilder.withBody(body)) }
+        rollbackAndClose(channel)
+        def afterRollback = channel.limiter.bytes()
+
+        begin(channel)
+        def taken = (0..<10).collect { channel.take() }
+        commitAndClose(channel)
+
+        then:
+        afterPut > 0
+        afterPut < 10 * body.length // the stored, compressed, size
+        afterRollback == afterPut
+        taken.every { it.body == body }
+        channel.limiter.events() == 0
+        channel.limiter.bytes() == 0
+
+        cleanup:
+        channel.stop()
+    }
+
+    def "usage is recovered on restart"() {
+        given:
+        def channel = newChronicleChannel(capacity: "10", transactionCapacity: "10")
+        begin(channel)
+        3.times { channel.put(EventBuilder.withBody("event $it", Charsets.UTF_8)) }
+        commitAndClose(channel)
+        def bytes = channel.limiter.bytes()
+        channel.stop()
+
+        when:
+        channel = newChronicleChannel(capacity: "10", transactionCapacity: "10")
+
+        then:
+        channel.limiter.events() == 3
+        channel.limiter.bytes() == bytes
+
+        cleanup:
+        channel.stop()
+    }
+
+    def "transactionCapacity limits puts and takes"() {
+        given:
+        def channel = newChronicleChannel(transactionCapacity: "3")
+        begin(channel)
+        3.times { channel.put(EventBuilder.withBody("event $it", Charsets.UTF_8)) }
+
+        when:
+        channel.put(EventBuilder.withBody("too many", Charsets.UTF_8))
+
+        then:
+        thrown(ChannelException)
+
+        when:
+        commitAndClose(channel)
+        begin(channel)
+        channel.take()
+        def batch = []
+        def count = channel.takeBatch(10, batch)
+
+        then:
+        count == 2
+
+        when:
+        channel.take()
+
+        then:
+        thrown(ChannelException)
+
+        cleanup:
+        rollbackAndClose(channel)
+        channel.stop()
+    }
+
+    def "transactionCapacity must fit within the capacity"() {
+        when:
+        new ChronicleChannel(name: 'chronicle-channel').configure(new Context([
+                (ChronicleChannelConfiguration.PATH_KEY): tempDir.canonicalPath,
+                (ChronicleChannelConfiguration.CAPACITY_KEY): "10",
+                (ChronicleChannelConfiguration.TRANSACTION_CAPACITY_KEY): "100"
+        ]))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "puts are refused while the disk is low on space"() {
+        given:
+        def channel = newChronicleChannel(minFreeSpace: String.valueOf(Long.MAX_VALUE))
+
+        when:
+        begin(channel)
+        channel.put(EventBuilder.withBody("no room", Charsets.UTF_8))
+
+        then:
+        thrown(ChannelFullException)
+
+        cleanup:
+        rollbackAndClose(channel)
+        channel.stop()
+    }
+
+    def "a take passing a block of records releases the files behind it"() {
+        given:
+        def channel = newChronicleChannel(dataBlockSize: "4096", indexBlockSize: "4096") // 512 entries a file
+        begin(channel)
+        2000.times { channel.put(EventBuilder.withBody(new byte[100])) }
+        commitAndClose(channel)
+        def cycleDir = tempDir.listFiles().find { it.isDirectory() }
+
+        expect:
+        new File(cycleDir, "index-0").exists()
+
+        when:
+        begin(channel)
+        1200.times { channel.take() }
+        commitAndClose(channel)
+        def deadline = System.currentTimeMillis() + 5000
+        while (new File(cycleDir, "index-1").exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+
+        then:
+        !new File(cycleDir, "index-0").exists()
+        !new File(cycleDir, "index-1").exists()
+        new File(cycleDir, "index-2").exists()
+        channel.committedSize == 800
+
+        when: "the rest are still there to take"
+        begin(channel)
+        def rest = (1..800).collect { channel.take() }
+        commitAndClose(channel)
+
+        then:
+        rest.every { it != null && it.body.length == 100 }
+
+        cleanup:
+        channel.stop()
+    }
+}
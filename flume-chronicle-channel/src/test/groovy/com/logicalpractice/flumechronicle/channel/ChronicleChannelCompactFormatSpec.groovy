@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel
+
+import com.google.common.base.Charsets
+import com.google.common.io.Files
+import org.apache.flume.event.EventBuilder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ *
+ */
+class ChronicleChannelCompactFormatSpec extends Specification implements ChannelTransactionSupport {
+
+    File tempDir = Files.createTempDir()
+
+    def headers = [
+            timestamp: "1420070400000",
+            host: "server1.example.com",
+            topic: "logs",
+            negative: "-12",
+            padded: "007",
+            text: "café"
+    ]
+
+    def "compact events round trip"() {
+        given:
+        def channel = newChronicleChannel(eventFormat: ChronicleChannelConfiguration.EVENT_FORMAT_COMPACT)
+        begin(channel)
+        3.times { channel.put(EventBuilder.withBody("message $it", Charsets.UTF_8, headers)) }
+        commitAndClose(channel)
+
+        when:
+        begin(channel)
+        def events = (0..2).collect { channel.take() }
+        commitAndClose(channel)
+        channel.stop()
+
+        then:
+        events.collect { new String(it.body, Charsets.UTF_8) } == (0..2).collect { "message $it".toString() }
+        events.every { it.headers == headers }
+    }
+
+    def "compact events are smaller"() {
+        given:
+        def event = EventBuilder.withBody("body", Charsets.UTF_8, headers)
+        def dictionary = new HeaderDictionary(tempDir.canonicalPath)
+        def bytes = net.openhft.lang.io.ByteBufferBytes.wrap(java.nio.ByteBuffer.allocate(1024))
+
+        when:
+        CompactEventBytes.writeTo(bytes, event, dictionary, null)
+        def compactSize = bytes.position()
+
+        then:
+        compactSize < EventBytes.sizeOf(event)
+        compactSize <= CompactEventBytes.sizeOf(event, null)
+
+        when:
+        bytes.position(0)
+        def result = EventBytes.readFrom(bytes, dictionary)
+
+        then:
+        result.headers == headers
+        bytes.position() == compactSize
+
+        cleanup:
+        dictionary.close()
+    }
+
+    def "records in either format are readable after reopening"() {
+        given:
+        def channel = newChronicleChannel(eventFormat: ChronicleChannelConfiguration.EVENT_FORMAT_STANDARD)
+        begin(channel)
+        channel.put(EventBuilder.withBody("standard", Charsets.UTF_8, headers))
+        commitAndClose(channel)
+        channel.stop()
+
+        channel = newChronicleChannel(eventFormat: ChronicleChannelConfiguration.EVENT_FORMAT_COMPACT)
+        begin(channel)
+        channel.put(EventBuilder.withBody("compact", Charsets.UTF_8, headers))
+        commitAndClose(channel)
+        channel.stop()
+
+        channel = newChronicleChannel(eventFormat: ChronicleChannelConfiguration.EVENT_FORMAT_STANDARD)
+
+        when:
+        begin(channel)
+        def events = (0..1).collect { channel.take() }
+        commitAndClose(channel)
+        channel.stop()
+
+        then:
+        events.collect { new String(it.body, Charsets.UTF_8) } == ["standard", "compact"]
+        events.every { it.headers == headers }
+    }
+
+    @Unroll
+    def "isCanonicalLong(#value) == #expected"() {
+        expect:
+        CompactEventBytes.isCanonicalLong(value) == expected
+
+        where:
+        value                  | expected
+        "0"                    | true
+        "1420070400000"        | true
+        "-12"                  | true
+        "9223372036854775807"  | true
+        "-9223372036854775808" | true
+        "9223372036854775808"  | false
+        "007"                  | false
+        "-0"                   | false
+        "-"                    | false
+        ""                     | false
+        "12a"                  | false
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel
+
+import com.google.common.base.Charsets
+import com.google.common.io.Files
+import org.apache.flume.event.EventBuilder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ *
+ */
+class ChronicleChannelCompressionSpec extends Specification implements ChannelTransactionSupport {
+
+    File tempDir = Files.createTempDir()
+
+    static final String LOG_LINE = '{"level":"INFO","logger":"com.example.Service","message":"request handled","status":200}'
+
+    @Unroll
+    def "#compression compressed bodies round trip in the #format format"() {
+        given:
+        def channel = newChronicleChannel(eventFormat: format, compression: compression)
+        def large = EventBuilder.withBody((LOG_LINE * 20).getBytes(Charsets.UTF_8), [host: "server1"])
+        def small = EventBuilder.withBody("short".getBytes(Charsets.UTF_8), [host: "server1"])
+        begin(channel)
+        channel.put(large)
+        channel.put(small)
+        commitAndClose(channel)
+
+        when:
+        begin(channel)
+        def results = [channel.take(), channel.take()]
+        commitAndClose(channel)
+        channel.stop()
+
+        then:
+        results[0].body == large.body
+        results[0].headers == large.headers
+        results[1].body == small.body
+
+        where:
+        [compression, format] << [["lz4", "snappy", "deflate"], ["standard", "compact"]].combinations()
+    }
+
+    def "compressed bodies are smaller"() {
+        given:
+        def event = EventBuilder.withBody((LOG_LINE * 20).getBytes(Charsets.UTF_8))
+        def compressor = new BodyCompressor(Compression.LZ4, 256)
+
+        expect:
+        compressor.compress(event.body)
+        EventBytes.sizeOf(event, compressor) < EventBytes.sizeOf(event) / 4
+    }
+
+    def "incompressible or small bodies are left as is"() {
+        given:
+        def random = new byte[1024]
+        new Random(1).nextBytes(random)
+        def compressor = new BodyCompressor(Compression.DEFLATE, 256)
+
+        expect:
+        !compressor.compress(random)
+        !compressor.compress(LOG_LINE.getBytes(Charsets.UTF_8))
+    }
+
+    def "a compressor reuses its inflater for each body read"() {
+        given:
+        def writer = new BodyCompressor(Compression.DEFLATE, 256)
+        def reader = new BodyCompressor(Compression.DEFLATE, 256)
+        def bodies = [(LOG_LINE * 20).getBytes(Charsets.UTF_8), (LOG_LINE * 30).getBytes(Charsets.UTF_8)]
+
+        expect:
+        bodies.every { body ->
+            def bytes = net.openhft.lang.io.ByteBufferBytes.wrap(java.nio.ByteBuffer.allocate(4096))
+            writer.compress(body)
+            writer.writeSection(bytes, body.length)
+            bytes.flip()
+            BodyCompressor.readSection(bytes, reader) == body
+        }
+
+        cleanup:
+        writer.close()
+        reader.close()
+    }
+
+    def "stop closes the compressors"() {
+        given:
+        def channel = newChronicleChannel(compression: "deflate")
+        begin(channel)
+        channel.put(EventBuilder.withBody((LOG_LINE * 20).getBytes(Charsets.UTF_8)))
+        commitAndClose(channel)
+
+        expect:
+        channel.openCompressors.size() == 1
+
+        when:
+        channel.stop()
+
+        then:
+        channel.openCompressors.isEmpty()
+    }
+
+    def "zero copy take decompresses the body"() {
+        given:
+        def channel = newChronicleChannel(compression: "lz4", zeroCopyTake: "true")
+        def body = (LOG_LINE * 20).getBytes(Charsets.UTF_8)
+        begin(channel)
+        channel.put(EventBuilder.withBody(body))
+        commitAndClose(channel)
+
+        when:
+        begin(channel)
+        def event = channel.take() as ExcerptEvent
+        def bodyBytes = event.bodyBytes
+        def fromBytes = new byte[bodyBytes.remaining()]
+        bodyBytes.read(fromBytes)
+        def fromBody = event.body
+        commitAndClose(channel)
+        channel.stop()
+
+        then:
+        fromBytes == body
+        fromBody == body
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel
+
+import com.google.common.base.Charsets
+import com.google.common.io.Files
+import org.apache.flume.ChannelException
+import org.apache.flume.ChannelFullException
+import org.apache.flume.Context
+import org.apache.flume.Event
+import org.apache.flume.event.EventBuilder
+import org.apache.flume.lifecycle.LifecycleState
+import spock.lang.Specification
+
+/**
+ *
+ */
+class ChronicleChannelConsumerGroupSpec extends Specification implements ChannelTransactionSupport {
+
+    File tempDir = Files.createTempDir()
+
+    def cleanup() {
+        startedChannels.findAll { it.lifecycleState == LifecycleState.START }*.stop()
+    }
+
+    def "each group takes every event once"() {
+        given:
+        def hdfs = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "hdfs")
+        def solr = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "solr")
+
+        when: "events are put through either channel"
+        put(hdfs, (0..<10).collect { "a$it" })
+        put(solr, (0..<10).collect { "b$it" })
+
+        then:
+        hdfs.committedSize == 20
+        solr.committedSize == 20
+
+        when:
+        def takenByHdfs = take(hdfs, 25)
+        def takenBySolr = take(solr, 25)
+
+        then:
+        takenByHdfs as Set == ((0..<10).collect { "a$it".toString() } + (0..<10).collect { "b$it".toString() }) as Set
+        takenByHdfs.size() == 20
+        takenBySolr as Set == takenByHdfs as Set
+        takenBySolr.size() == 20
+        hdfs.committedSize == 0
+        solr.committedSize == 0
+    }
+
+    def "the groups share one header dictionary in the compact format"() {
+        given:
+        def hdfs = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "hdfs", eventFormat: "compact")
+        def solr = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "solr", eventFormat: "compact")
+
+        when: "each channel interns headers the other hasn't seen"
+        put(hdfs, [EventBuilder.withBody("a", Charsets.UTF_8, [host: "server1"])])
+        put(solr, [EventBuilder.withBody("b", Charsets.UTF_8, [dc: "east", host: "server2"])])
+
+        then:
+        hdfs.dictionary.is(solr.dictionary)
+        takeEvents(hdfs, 3)*.headers == [[host: "server1"], [dc: "east", host: "server2"]]
+        takeEvents(solr, 3)*.headers == [[host: "server1"], [dc: "east", host: "server2"]]
+
+        when: "restarted the ids still resolve"
+        hdfs.stop()
+        solr.stop()
+        hdfs = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "hdfs", eventFormat: "compact")
+        put(hdfs, [EventBuilder.withBody("c", Charsets.UTF_8, [dc: "west", host: "server1"])])
+
+        then:
+        takeEvents(hdfs, 2)*.headers == [[dc: "west", host: "server1"]]
+    }
+
+    def "a take rolled back by one group is taken again by it alone"() {
+        given:
+        def hdfs = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "hdfs")
+        def solr = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "solr")
+        put(hdfs, ["event"])
+
+        when:
+        begin(hdfs)
+        hdfs.take()
+        rollbackAndClose(hdfs)
+
+        then:
+        take(solr, 2) == ["event"]
+        take(hdfs, 2) == ["event"]
+        take(hdfs, 2) == []
+    }
+
+    def "a group restarted while the others are running recovers what it hasn't taken"() {
+        given:
+        def hdfs = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "hdfs")
+        def solr = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "solr")
+        put(hdfs, (0..<10).collect { "a$it" })
+        take(solr, 4)
+        solr.stop()
+
+        when: "events are put and taken by the other group meanwhile"
+        put(hdfs, (0..<5).collect { "b$it" })
+        take(hdfs, 15)
+        solr = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "solr")
+
+        then:
+        hdfs.committedSize == 0
+        solr.committedSize == 11
+        take(solr, 15).size() == 11
+    }
+
+    def "the queue is kept until the slowest group has taken it"() {
+        given:
+        def hdfs = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "hdfs")
+        def solr = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "solr")
+        put(hdfs, (0..<10).collect { "a$it" })
+        take(hdfs, 10)
+
+        when:
+        hdfs.shards[0].cleanup().run()
+
+        then:
+        take(solr, 10).size() == 10
+    }
+
+    def "a put waits for room in the backlog of the slowest group"() {
+        given:
+        def settings = [consumerGroups: "hdfs,solr", capacity: "2", transactionCapacity: "2", keepAlive: "0"]
+        def hdfs = newChronicleChannel(settings + [consumerGroup: "hdfs"])
+        def solr = newChronicleChannel(settings + [consumerGroup: "solr"])
+        put(hdfs, ["a", "b"])
+        take(hdfs, 2)
+
+        when: "solr has yet to take them"
+        begin(hdfs)
+        hdfs.put(EventBuilder.withBody("c", Charsets.UTF_8))
+
+        then:
+        thrown(ChannelFullException)
+        hdfs.limiter.events() == 0
+        solr.limiter.events() == 2
+
+        when:
+        rollbackAndClose(hdfs)
+        take(solr, 2)
+        put(hdfs, ["c"])
+
+        then:
+        hdfs.limiter.events() == 1
+        solr.limiter.events() == 1
+        take(solr, 2) == ["c"]
+        take(hdfs, 2) == ["c"]
+    }
+
+    def "the same group can't be read by two channels"() {
+        given:
+        newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "hdfs")
+
+        when:
+        newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "hdfs")
+
+        then:
+        thrown(ChannelException)
+    }
+
+    def "a group whose start failed part way can be started again"() {
+        given:
+        def hdfs = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "hdfs", shards: 2)
+        def blocker = new File(tempDir, "shard-1/lease-solr.dat")
+        blocker.mkdirs() // the second shard can't open its lease
+
+        when:
+        newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "solr", shards: 2)
+
+        then:
+        thrown(ChannelException)
+
+        when: "the failed channel no longer holds back the puts or the group"
+        put(hdfs, ["a"])
+        blocker.delete()
+        def solr = newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "solr", shards: 2)
+
+        then:
+        take(hdfs, 2) == ["a"]
+        take(solr, 2) == ["a"]
+    }
+
+    def "the groups can't be changed once the path has a channel"() {
+        given:
+        newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "hdfs").stop()
+
+        when:
+        newChronicleChannel(settings)
+
+        then:
+        thrown(ChannelException)
+
+        where:
+        settings << [
+                [consumerGroups: "solr,hdfs", consumerGroup: "hdfs"],
+                [consumerGroups: "hdfs,solr,kafka", consumerGroup: "hdfs"],
+                [:]
+        ]
+    }
+
+    def "groups can't be added to a channel without them"() {
+        given:
+        def channel = newChronicleChannel([:])
+        put(channel, ["event"])
+        channel.stop()
+
+        when:
+        newChronicleChannel(consumerGroups: "hdfs,solr", consumerGroup: "hdfs")
+
+        then:
+        thrown(ChannelException)
+    }
+
+    def "the consumer group must be one of the consumer groups"() {
+        when:
+        new ChronicleChannel(name: 'chronicle-channel').configure(new Context(
+                [(ChronicleChannelConfiguration.PATH_KEY): tempDir.canonicalPath] + settings))
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        settings << [
+                [consumerGroups: "hdfs,solr"],
+                [consumerGroups: "hdfs,solr", consumerGroup: "kafka"],
+                [consumerGroup: "hdfs"],
+                [consumerGroups: "hdfs,hdfs", consumerGroup: "hdfs"]
+        ]
+    }
+
+    void put(ChronicleChannel channel, List bodies) {
+        begin(channel)
+        bodies.each { channel.put(it instanceof Event ? it : EventBuilder.withBody(it as String, Charsets.UTF_8)) }
+        commitAndClose(channel)
+    }
+
+    List<String> take(ChronicleChannel channel, int max) {
+        takeEvents(channel, max).collect { new String(it.body, Charsets.UTF_8) }
+    }
+
+    List<Event> takeEvents(ChronicleChannel channel, int max) {
+        begin(channel)
+        def events = []
+        for (int i = 0; i < max; i++) {
+            def event = channel.take()
+            if (event == null) {
+                break
+            }
+            events << event
+        }
+        commitAndClose(channel)
+        events
+    }
+
+    @Override
+    String channelName(File path, Map settings) {
+        "chronicle-${settings.consumerGroup ?: 'channel'}"
+    }
+}
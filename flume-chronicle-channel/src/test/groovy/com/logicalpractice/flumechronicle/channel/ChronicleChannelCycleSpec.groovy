@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel
+
+import com.google.common.io.Files
+import org.apache.flume.ChannelException
+import org.apache.flume.event.EventBuilder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.text.SimpleDateFormat
+
+/**
+ *
+ */
+class ChronicleChannelCycleSpec extends Specification implements ChannelTransactionSupport {
+
+    File tempDir = Files.createTempDir()
+
+    def minuteCycles = [
+            (ChronicleChannelConfiguration.CYCLE_FORMAT_KEY): "yyyyMMddHHmm",
+            (ChronicleChannelConfiguration.CYCLE_LENGTH_KEY): "60000",
+            (ChronicleChannelConfiguration.ENTRIES_PER_CYCLE_KEY): String.valueOf(1L << 24)
+    ]
+
+    def "minute cycles are written to minute directories"() {
+        given:
+        def channel = configureChronicleChannel(tempDir, minuteCycles + [
+                (ChronicleChannelConfiguration.DATA_BLOCK_SIZE_KEY): String.valueOf(1 << 16),
+                (ChronicleChannelConfiguration.INDEX_BLOCK_SIZE_KEY): String.valueOf(1 << 16)
+        ])
+        channel.start()
+        def format = new SimpleDateFormat("yyyyMMddHHmm")
+        format.timeZone = TimeZone.getTimeZone("GMT")
+        def before = format.format(new Date())
+
+        when:
+        begin(channel)
+        100.times { channel.put(EventBuilder.withBody(new byte[1000])) }
+        commitAndClose(channel)
+
+        begin(channel)
+        def events = (0..<100).collect { channel.take() }
+        commitAndClose(channel)
+        def after = format.format(new Date())
+        channel.stop()
+
+        then:
+        events.every { it != null && it.body.length == 1000 }
+        tempDir.list().find { it == before || it == after }
+    }
+
+    def "an event larger than the data block is rejected"() {
+        given:
+        def channel = configureChronicleChannel(tempDir,
+                (ChronicleChannelConfiguration.DATA_BLOCK_SIZE_KEY): "4096")
+        channel.start()
+        def overhead = 4 + EventBytes.sizeOf(EventBuilder.withBody(new byte[0]))
+
+        when: "the largest event that fits"
+        begin(channel)
+        channel.put(EventBuilder.withBody(new byte[4092 - overhead]))
+        channel.put(EventBuilder.withBody(new byte[4092 - overhead]))
+        commitAndClose(channel)
+
+        begin(channel)
+        def taken = [channel.take(), channel.take()]
+        commitAndClose(channel)
+
+        then:
+        taken.every { it.body.length == 4092 - overhead }
+
+        when:
+        begin(channel)
+        channel.put(EventBuilder.withBody(new byte[4093 - overhead]))
+
+        then:
+        thrown(ChannelException)
+
+        cleanup:
+        rollbackAndClose(channel)
+        channel.stop()
+    }
+
+    @Unroll
+    def "rejects #reason"() {
+        when:
+        configureChronicleChannel(tempDir, settings)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        reason                                 | settings
+        "minute cycles overflowing the index"  | [(ChronicleChannelConfiguration.CYCLE_FORMAT_KEY): "yyyyMMddHHmm",
+                                                  (ChronicleChannelConfiguration.CYCLE_LENGTH_KEY): "60000"]
+        "a format repeating a name"            | [(ChronicleChannelConfiguration.CYCLE_FORMAT_KEY): "yyyyMMddHH",
+                                                  (ChronicleChannelConfiguration.CYCLE_LENGTH_KEY): "60000",
+                                                  (ChronicleChannelConfiguration.ENTRIES_PER_CYCLE_KEY): "256"]
+        "a format without the year"            | [(ChronicleChannelConfiguration.CYCLE_FORMAT_KEY): "MMddHH"]
+        "an invalid format"                    | [(ChronicleChannelConfiguration.CYCLE_FORMAT_KEY): "yyyyMMddHHbb"]
+        "a zero cycle length"                  | [(ChronicleChannelConfiguration.CYCLE_LENGTH_KEY): "0"]
+        "entries per cycle not a power of 2"   | [(ChronicleChannelConfiguration.ENTRIES_PER_CYCLE_KEY): "1000"]
+        "a data block not a power of 2"        | [(ChronicleChannelConfiguration.DATA_BLOCK_SIZE_KEY): "100000"]
+        "a tiny index block"                   | [(ChronicleChannelConfiguration.INDEX_BLOCK_SIZE_KEY): "1024"]
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel
+
+import com.google.common.base.Charsets
+import com.google.common.io.Files
+import net.openhft.lang.io.VanillaMappedBytes
+import net.openhft.lang.io.VanillaMappedFile
+import org.apache.flume.event.EventBuilder
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ *
+ */
+class ChronicleChannelDurabilitySpec extends Specification implements ChannelTransactionSupport {
+
+    File tempDir = Files.createTempDir()
+
+    ChronicleChannel channel
+
+    def cleanup() {
+        channel?.stop()
+    }
+
+    def "os durability never forces"() {
+        given:
+        channel = newChronicleChannel([:])
+
+        when:
+        putAndTake(5)
+
+        then:
+        channel.channelCounter.syncCount == 0
+    }
+
+    def "commit durability forces each put and take commit"() {
+        given:
+        channel = newChronicleChannel(durability: "commit")
+
+        when:
+        putAndTake(5)
+
+        then:
+        channel.channelCounter.syncCount == 2
+    }
+
+    def "commit durability forces new dictionary entries before the put commit returns"() {
+        given:
+        channel = newChronicleChannel(durability: "commit", eventFormat: "compact")
+
+        when:
+        begin(channel)
+        channel.put(EventBuilder.withBody("body", Charsets.UTF_8, [host: "server1"]))
+        commitAndClose(channel)
+
+        then:
+        !channel.dictionary.unsynced
+    }
+
+    def "os durability leaves dictionary entries to the page cache"() {
+        given:
+        channel = newChronicleChannel(eventFormat: "compact")
+
+        when:
+        begin(channel)
+        channel.put(EventBuilder.withBody("body", Charsets.UTF_8, [host: "server1"]))
+        commitAndClose(channel)
+
+        then:
+        channel.dictionary.unsynced
+    }
+
+    def "concurrent commits share forces"() {
+        given:
+        channel = newChronicleChannel(durability: "commit")
+        def executor = Executors.newFixedThreadPool(8)
+
+        when:
+        executor.invokeAll((0..<8).collect { writer ->
+            { ->
+                50.times {
+                    begin(channel)
+                    channel.put(EventBuilder.withBody("$writer-$it", Charsets.UTF_8))
+                    commitAndClose(channel)
+                }
+                null
+            } as Callable<Void>
+        }).each { it.get() }
+
+        then:
+        channel.committedSize == 400
+        channel.channelCounter.syncCount > 0
+        channel.channelCounter.syncCount <= 400
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "periodic durability forces in the background"() {
+        given:
+        channel = newChronicleChannel(durability: "periodic", durabilityInterval: "10")
+
+        when:
+        putAndTake(5)
+        def deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+        while (channel.channelCounter.syncCount == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5)
+        }
+
+        then:
+        channel.channelCounter.syncCount > 0
+    }
+
+    def "periodic durability forces early once enough bytes are pending"() {
+        given:
+        channel = newChronicleChannel(durability: "periodic", durabilityInterval: "3600000", durabilityBytes: "1024")
+
+        when:
+        begin(channel)
+        50.times { channel.put(EventBuilder.withBody(new byte[100])) }
+        commitAndClose(channel)
+        def deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+        while (channel.channelCounter.syncCount == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5)
+        }
+
+        then:
+        channel.channelCounter.syncCount == 1
+    }
+
+    def "an unknown durability is rejected"() {
+        when:
+        newChronicleChannel(durability: "sometimes")
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "a file stays mapped until it has been forced"() {
+        given:
+        VanillaMappedBytes file = VanillaMappedFile.readWriteBytes(new File(tempDir, "sync.dat"), 4096)
+        def sync = new GroupSync(true, 0L, null, new LatencyHistogram())
+
+        when:
+        def first = sync.written([file], 10L)
+        def second = sync.written([file], 10L)
+
+        then:
+        file.refCount() == 2
+        sync.pendingBytes() == 20L
+
+        when:
+        sync.syncTo(first)
+
+        then: "the second commit is covered by the same force"
+        file.refCount() == 1
+        sync.pendingBytes() == 0L
+
+        when:
+        sync.syncTo(second)
+
+        then:
+        file.refCount() == 1
+
+        cleanup:
+        file.close()
+    }
+
+    private void putAndTake(int count) {
+        begin(channel)
+        count.times { channel.put(EventBuilder.withBody("event $it", Charsets.UTF_8)) }
+        commitAndClose(channel)
+
+        begin(channel)
+        count.times { channel.take() }
+        commitAndClose(channel)
+    }
+
+    @Override
+    String channelName(File path, Map settings) {
+        "durability-channel-${path.name}"
+    }
+}
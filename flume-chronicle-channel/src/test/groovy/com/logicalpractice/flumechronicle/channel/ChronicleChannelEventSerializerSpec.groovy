@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel
+
+import com.google.common.base.Charsets
+import com.google.common.io.Files
+import net.openhft.lang.io.ByteBufferBytes
+import net.openhft.lang.io.Bytes
+import org.apache.flume.Context
+import org.apache.flume.Event
+import org.apache.flume.conf.Configurable
+import org.apache.flume.event.EventBuilder
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+/**
+ *
+ */
+class ChronicleChannelEventSerializerSpec extends Specification implements ChannelTransactionSupport {
+
+    File tempDir = Files.createTempDir()
+
+    def headers = [
+            timestamp: "1420070400000",
+            host: "server1.example.com",
+            text: "café",
+            empty: ""
+    ]
+
+    def "ascii events round trip"() {
+        given:
+        def channel = newChronicleChannel(eventFormat: ChronicleChannelConfiguration.EVENT_FORMAT_ASCII)
+        begin(channel)
+        3.times { channel.put(EventBuilder.withBody("message $it", Charsets.UTF_8, headers)) }
+        commitAndClose(channel)
+
+        when:
+        begin(channel)
+        def events = (0..2).collect { channel.take() }
+        commitAndClose(channel)
+        channel.stop()
+
+        then:
+        events.collect { new String(it.body, Charsets.UTF_8) } == (0..2).collect { "message $it".toString() }
+        events.every { it.headers == headers }
+    }
+
+    def "ascii skipToBody jumps straight to the body"() {
+        given:
+        def event = EventBuilder.withBody("body", Charsets.UTF_8, headers)
+        def bytes = ByteBufferBytes.wrap(ByteBuffer.allocate(1024))
+        AsciiEventBytes.writeTo(bytes, event, null)
+        def written = bytes.position()
+
+        expect:
+        written <= AsciiEventBytes.sizeOf(event, null)
+
+        when:
+        bytes.position(0)
+        def bodySize = EventBytes.skipToBody(bytes)
+
+        then:
+        bodySize == 4
+        bytes.position() == written - 4
+    }
+
+    def "ascii events with compressed bodies round trip"() {
+        given:
+        def body = ("repeated content " * 64).getBytes(Charsets.UTF_8)
+        def channel = newChronicleChannel(
+                eventFormat: ChronicleChannelConfiguration.EVENT_FORMAT_ASCII,
+                compression: "lz4")
+        begin(channel)
+        channel.put(EventBuilder.withBody(body, headers))
+        commitAndClose(channel)
+
+        when:
+        begin(channel)
+        def event = channel.take()
+        commitAndClose(channel)
+        channel.stop()
+
+        then:
+        event.body == body
+        event.headers == headers
+    }
+
+    def "records in every built in format are readable by each other"() {
+        given:
+        def formats = [ChronicleChannelConfiguration.EVENT_FORMAT_STANDARD,
+                       ChronicleChannelConfiguration.EVENT_FORMAT_COMPACT,
+                       ChronicleChannelConfiguration.EVENT_FORMAT_ASCII]
+        formats.each { format ->
+            def channel = newChronicleChannel(eventFormat: format)
+            begin(channel)
+            channel.put(EventBuilder.withBody(format, Charsets.UTF_8, headers))
+            commitAndClose(channel)
+            channel.stop()
+        }
+        def channel = newChronicleChannel(eventFormat: ChronicleChannelConfiguration.EVENT_FORMAT_ASCII)
+
+        when:
+        begin(channel)
+        def events = formats.collect { channel.take() }
+        commitAndClose(channel)
+        channel.stop()
+
+        then:
+        events.collect { new String(it.body, Charsets.UTF_8) } == formats
+        events.every { it.headers == headers }
+    }
+
+    def "custom serializer is created and configured from the class name"() {
+        given:
+        def channel = newChronicleChannel(
+                eventFormat: PrefixingSerializer.name,
+                "eventFormat.prefix": "prefix:")
+        begin(channel)
+        channel.put(EventBuilder.withBody("body", Charsets.UTF_8))
+        commitAndClose(channel)
+
+        when:
+        begin(channel)
+        def event = channel.take()
+        commitAndClose(channel)
+        channel.stop()
+
+        then:
+        new String(event.body, Charsets.UTF_8) == "prefix:body"
+    }
+
+    def "unknown event format is rejected"() {
+        when:
+        new ChronicleChannel(name: 'chronicle-channel').configure(new Context([
+                (ChronicleChannelConfiguration.PATH_KEY): tempDir.canonicalPath,
+                (ChronicleChannelConfiguration.EVENT_FORMAT_KEY): "no.such.Serializer"
+        ]))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    /**
+     * Stores just the body, adding the configured prefix on read.
+     */
+    static class PrefixingSerializer implements ChronicleEventSerializer, Configurable {
+        String prefix
+
+        @Override
+        void configure(Context context) {
+            prefix = context.getString("prefix")
+        }
+
+        @Override
+        int sizeOf(Event event) {
+            4 + event.body.length
+        }
+
+        @Override
+        void writeTo(Bytes out, Event event) {
+            out.writeInt(event.body.length)
+            out.write(event.body)
+        }
+
+        @Override
+        Event readFrom(Bytes input) {
+            EventBuilder.withBody(readBody(input), readHeaders(input))
+        }
+
+        @Override
+        Map<String, String> readHeaders(Bytes input) {
+            [:]
+        }
+
+        @Override
+        byte[] readBody(Bytes input) {
+            def body = new byte[skipToBody(input)]
+            input.read(body)
+            (prefix + new String(body, Charsets.UTF_8)).getBytes(Charsets.UTF_8)
+        }
+
+        @Override
+        int skipToBody(Bytes input) {
+            input.readInt()
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel
+
+import com.google.common.base.Charsets
+import com.google.common.io.Files
+import org.apache.flume.event.EventBuilder
+import spock.lang.Specification
+
+import javax.management.ObjectName
+import java.lang.management.ManagementFactory
+
+/**
+ *
+ */
+class ChronicleChannelMetricsSpec extends Specification implements ChannelTransactionSupport {
+
+    File tempDir = Files.createTempDir()
+
+    ChronicleChannel channel
+
+    def cleanup() {
+        channel?.stop()
+    }
+
+    def "puts and takes are counted"() {
+        given:
+        channel = newChronicleChannel(capacity: "100", transactionCapacity: "10")
+
+        when:
+        begin(channel)
+        10.times { channel.put(EventBuilder.withBody("event $it", Charsets.UTF_8)) }
+        commitAndClose(channel)
+
+        begin(channel)
+        4.times { channel.take() }
+        commitAndClose(channel)
+
+        then:
+        def counter = channel.channelCounter
+        counter.eventPutAttemptCount == 10
+        counter.eventPutSuccessCount == 10
+        counter.eventTakeAttemptCount == 4
+        counter.eventTakeSuccessCount == 4
+        counter.channelSize == 6
+        counter.channelCapacity == 100
+        counter.channelFillPercentage == 6.0
+    }
+
+    def "the counters are published through JMX under the channel name"() {
+        given:
+        channel = newChronicleChannel([:])
+        begin(channel)
+        channel.put(EventBuilder.withBody("event", Charsets.UTF_8))
+        commitAndClose(channel)
+
+        when:
+        def name = new ObjectName("org.apache.flume.channel:type=${channel.name}")
+        def server = ManagementFactory.platformMBeanServer
+
+        then:
+        server.getAttribute(name, "EventPutSuccessCount") == 1L
+        server.getAttribute(name, "ChannelFillPercentage") == 0.0d
+        server.getAttribute(name, "PutCommitLatencyMax") == 0L
+    }
+
+    def "sampled transactions are timed"() {
+        given:
+        channel = newChronicleChannel(metricsSampling: "1")
+
+        when:
+        10.times {
+            begin(channel)
+            channel.put(EventBuilder.withBody("event $it", Charsets.UTF_8))
+            commitAndClose(channel)
+        }
+        begin(channel)
+        def taken = channel.takeBatch(10, [])
+        commitAndClose(channel)
+
+        then:
+        taken == 10
+        def counter = channel.channelCounter
+        counter.putCommitLatency().count() == 10
+        counter.takeLatency().count() == 1
+        counter.takeScanLength().max() >= 10
+        counter.residenceTime().count() == 10
+        counter.residenceTime().max() > 0
+    }
+
+    def "histograms are off by default"() {
+        given:
+        channel = newChronicleChannel([:])
+
+        when:
+        begin(channel)
+        channel.put(EventBuilder.withBody("event", Charsets.UTF_8))
+        commitAndClose(channel)
+        begin(channel)
+        channel.take()
+        commitAndClose(channel)
+
+        then:
+        def counter = channel.channelCounter
+        counter.putCommitLatency().count() == 0
+        counter.takeLatency().count() == 0
+        counter.residenceTime().count() == 0
+    }
+
+    def "the backlog age is that of the oldest untaken event"() {
+        given:
+        channel = newChronicleChannel(shards: "2")
+
+        expect:
+        channel.channelCounter.backlogAge == 0
+
+        when:
+        begin(channel)
+        channel.put(EventBuilder.withBody("event", Charsets.UTF_8))
+        commitAndClose(channel)
+        Thread.sleep(50)
+
+        then:
+        channel.channelCounter.backlogAge >= 50
+
+        when:
+        begin(channel)
+        channel.take()
+        commitAndClose(channel)
+
+        then:
+        channel.channelCounter.backlogAge == 0
+    }
+
+    def "the backlog age after a restart is no less than the age of the cycle"() {
+        given:
+        channel = newChronicleChannel([:])
+        begin(channel)
+        channel.put(EventBuilder.withBody("event", Charsets.UTF_8))
+        commitAndClose(channel)
+        channel.stop()
+
+        when:
+        channel = newChronicleChannel([:])
+        def cycleLength = ChronicleChannelConfiguration.DEFAULT_CYCLE_LENGTH
+        def cycleAge = System.currentTimeMillis() % cycleLength
+
+        then:
+        channel.channelCounter.backlogAge >= cycleAge
+        channel.channelCounter.backlogAge <= cycleLength
+    }
+
+    def "disk usage is measured on start and follows the cleanup"() {
+        given:
+        channel = newChronicleChannel([:])
+        def counter = channel.channelCounter
+
+        expect:
+        counter.diskUsage > 0
+
+        when:
+        channel.shards[0].diskUsage().run()
+
+        then: "the files written since are picked up"
+        counter.diskUsage == du(tempDir)
+
+        when:
+        def cycleDir = new File(tempDir, "1970010101") // the second hour of the default cycles
+        cycleDir.mkdirs()
+        new File(cycleDir, "data-1-0").bytes = new byte[1000]
+        channel.shards[0].diskUsage().run()
+
+        then:
+        counter.diskUsage == du(tempDir)
+
+        when: "the position moves on to the current cycle"
+        begin(channel)
+        channel.put(EventBuilder.withBody("event", Charsets.UTF_8))
+        commitAndClose(channel)
+        begin(channel)
+        channel.take()
+        commitAndClose(channel)
+        channel.shards[0].diskUsage().run()
+        channel.shards[0].cleanup().run()
+
+        then:
+        !cycleDir.exists()
+        counter.diskUsage == du(tempDir)
+    }
+
+    static long du(File directory) {
+        directory.listFiles().sum { it.isDirectory() ? du(it) : it.length() } as Long ?: 0L
+    }
+
+    @Override
+    String channelName(File path, Map settings) {
+        "metrics-channel-${path.name}"
+    }
+}
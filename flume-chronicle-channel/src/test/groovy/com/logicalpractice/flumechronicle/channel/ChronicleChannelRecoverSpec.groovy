@@ -23,6 +23,8 @@ import org.apache.flume.Context
 import org.apache.flume.event.EventBuilder
 import spock.lang.Specification
 
+import java.util.concurrent.Executors
+
 /**
  *
  */
@@ -138,6 +140,91 @@ class ChronicleChannelRecoverSpec extends Specification implements ChannelTransa
         channel.position.get() == previousPosition
     }
 
+    def "Restarting after a crash only scans the records the checkpoint doesn't cover"() {
+        given:
+        def channel = newChronicleChannel(tempDir)
+        200.times {
+            begin(channel)
+            1000.times { channel.put(EventBuilder.withBody("e".bytes)) }
+            commitAndClose(channel)
+        }
+        begin(channel)
+        10.times { channel.take() }
+        commitAndClose(channel)
+        channel.saveCheckpoint()
+
+        begin(channel)
+        5.times { channel.put(EventBuilder.withBody("after the checkpoint".bytes)) }
+        commitAndClose(channel)
+        // note no stop
+
+        when:
+        channel = newChronicleChannel(tempDir)
+
+        then:
+        channel.committedSize == 199995L
+        channel.lastRecovery.scanned < 100000L
+
+        when: "take everything"
+        begin(channel)
+        def events = (1..199995).collect { channel.take() }
+        def next = channel.take()
+        commitAndClose(channel)
+
+        then:
+        events.every { it != null }
+        next == null
+    }
+
+    def "Puts in flight when the checkpoint is saved are resolved on recovery"() {
+        given:
+        def channel = newChronicleChannel(tempDir)
+        begin(channel)
+        10.times { channel.put(EventBuilder.withBody("committed".bytes)) }
+        commitAndClose(channel)
+        def committer = Executors.newSingleThreadExecutor()
+        def dropper = Executors.newSingleThreadExecutor()
+        committer.submit({ begin(channel); channel.put(EventBuilder.withBody("late".bytes)) }).get()
+        dropper.submit({ begin(channel); channel.put(EventBuilder.withBody("dropped".bytes)) }).get()
+        channel.saveCheckpoint()
+        committer.submit({ commitAndClose(channel) }).get()
+        // note no stop, 'dropped' is never committed
+
+        when:
+        channel = newChronicleChannel(tempDir)
+
+        then:
+        channel.committedSize == 11L
+        channel.lastRecovery.discarded == 1L
+        channel.lastRecovery.scanned == 0L
+
+        cleanup:
+        committer.shutdownNow()
+        dropper.shutdownNow()
+    }
+
+    def "Reopening with a lost lease file ignores the checkpoint"() {
+        given:
+        def channel = newChronicleChannel(tempDir)
+        begin(channel)
+        10.times { channel.put(EventBuilder.withBody("Event body".bytes)) }
+        commitAndClose(channel)
+        channel.saveCheckpoint()
+        begin(channel)
+        3.times { channel.take() }
+        commitAndClose(channel)
+        channel.stop()
+
+        new File(tempDir, "lease.dat").delete()
+
+        when:
+        channel = newChronicleChannel(tempDir)
+
+        then:
+        channel.committedSize == 7L
+        channel.lastRecovery.scanned == 7L
+    }
+
     ChronicleChannel newChronicleChannel(File path) {
         def result = new ChronicleChannel(name:'chronicle-channel');
         result.configure(new Context(ImmutableMap.of(
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel
+
+import com.google.common.base.Charsets
+import com.google.common.io.Files
+import org.apache.flume.ChannelException
+import org.apache.flume.event.EventBuilder
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+/**
+ *
+ */
+class ChronicleChannelShardSpec extends Specification implements ChannelTransactionSupport {
+
+    File tempDir = Files.createTempDir()
+
+    def executor = Executors.newFixedThreadPool(4)
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def "puts are striped across the shards and a taker takes from all of them"() {
+        given:
+        def channel = newChronicleChannel(shards: "4")
+
+        when: "each of the writers puts from its own thread"
+        executor.invokeAll((0..<8).collect { writer ->
+            { ->
+                begin(channel)
+                25.times { channel.put(EventBuilder.withBody("$writer-$it", Charsets.UTF_8)) }
+                commitAndClose(channel)
+                null
+            } as Callable<Void>
+        })
+
+        then:
+        channel.committedSize == 200
+        (0..3).every { new File(tempDir, "shard-$it").isDirectory() }
+        !new File(tempDir, "position.dat").exists()
+
+        when: "a single taker takes everything"
+        begin(channel)
+        def events = (1..200).collect { channel.take() }
+        def next = channel.take()
+        commitAndClose(channel)
+
+        then:
+        events.collect { new String(it.body, Charsets.UTF_8) } as Set ==
+                ((0..<8).collectMany { writer -> (0..<25).collect { "$writer-$it".toString() } } as Set)
+        next == null
+        channel.committedSize == 0
+
+        cleanup:
+        channel.stop()
+    }
+
+    def "events with the same shard key are kept in order in one shard"() {
+        given:
+        def channel = newChronicleChannel(shards: "4", shardKey: "key")
+        begin(channel)
+        20.times { channel.put(EventBuilder.withBody("a$it".bytes, [key: "a"])) }
+        20.times { channel.put(EventBuilder.withBody("b$it".bytes, [key: "b"])) }
+        commitAndClose(channel)
+
+        when:
+        def events = []
+        begin(channel)
+        channel.takeBatch(40, events)
+        commitAndClose(channel)
+        def bodies = events.collect { new String(it.body, Charsets.UTF_8) }
+
+        then:
+        bodies.findAll { it.startsWith("a") } == (0..<20).collect { "a$it".toString() }
+        bodies.findAll { it.startsWith("b") } == (0..<20).collect { "b$it".toString() }
+        channel.shards.findAll { it.position().get() != 0L }.size() ==
+                ("a".hashCode() % 4 == "b".hashCode() % 4 ? 1 : 2)
+
+        cleanup:
+        channel.stop()
+    }
+
+    def "each shard is recovered on restart"() {
+        given:
+        def channel = newChronicleChannel(shards: "3", shardKey: "key")
+        begin(channel)
+        30.times { channel.put(EventBuilder.withBody("event".bytes, [key: String.valueOf(it)])) }
+        commitAndClose(channel)
+        begin(channel)
+        5.times { channel.take() }
+        commitAndClose(channel)
+        begin(channel)
+        5.times { channel.take() }
+        // note no commit
+        channel.stop()
+
+        when:
+        channel = newChronicleChannel(shards: "3", shardKey: "key")
+
+        then:
+        channel.committedSize == 25
+
+        cleanup:
+        channel.stop()
+    }
+
+    def "the number of shards can't be changed"() {
+        given:
+        def channel = newChronicleChannel(shards: "2")
+        channel.stop()
+
+        when:
+        newChronicleChannel(shards: shards)
+
+        then:
+        thrown(ChannelException)
+
+        where:
+        shards << ["1", "3"]
+    }
+}
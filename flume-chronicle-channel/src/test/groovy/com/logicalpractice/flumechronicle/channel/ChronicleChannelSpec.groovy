@@ -58,6 +58,30 @@ public class ChronicleChannelSpec extends Specification implements ChannelTransa
         testObject.getLifecycleState() == LifecycleState.START
     }
 
+    def "stop unmaps the lease"() {
+        given:
+        testObject.start()
+        def lease = testObject.shards[0].lease.mappedBytes()
+
+        when:
+        testObject.stop()
+
+        then:
+        lease.unmapped()
+    }
+
+    def "stop unmaps the position"() {
+        given:
+        testObject.start()
+        def position = testObject.position.mappedBytes()
+
+        when:
+        testObject.stop()
+
+        then:
+        position.unmapped()
+    }
+
     def "Put and Take Single Event"() throws Exception {
         given:
         Event input = EventBuilder.withBody("This is a Message", Charsets.UTF_8,
@@ -197,6 +221,32 @@ public class ChronicleChannelSpec extends Specification implements ChannelTransa
         commitAndClose();
     }
 
+    def "put committed after being passed over is still taken"() {
+        given:
+        testObject.start()
+        def writer = Executors.newSingleThreadExecutor()
+        writer.submit(new Put(EventBuilder.withBody("late", Charsets.UTF_8))).get()
+        checkCompleted(executor.invokeAll([new PutWithCommit(EventBuilder.withBody("early", Charsets.UTF_8))]))
+
+        when: "take everything visible"
+        begin()
+        def first = testObject.take()
+        def second = testObject.take()
+
+        and: "then commit the open put"
+        writer.submit({ commitAndClose(); null } as Callable<Void>).get()
+        def third = testObject.take()
+
+        then:
+        "early" == new String(first.getBody(), Charsets.UTF_8)
+        second == null
+        "late" == new String(third.getBody(), Charsets.UTF_8)
+
+        cleanup:
+        commitAndClose()
+        writer.shutdownNow()
+    }
+
     def "take then rollback, can be read on next take"() {
         given:
         testObject.start()
@@ -220,6 +270,36 @@ public class ChronicleChannelSpec extends Specification implements ChannelTransa
         assertEventsEqual(event, result)
     }
 
+    def "a thread's next transaction doesn't repeat the records of its last"() {
+        given:
+        testObject.start()
+        begin()
+        3.times { testObject.put(EventBuilder.withBody("event $it".bytes)) }
+        commitAndClose()
+        begin()
+        testObject.take()
+        commitAndClose()
+
+        when: "the same thread takes and rolls back"
+        begin()
+        def rolledBack = testObject.take()
+        rollbackAndClose()
+
+        then: "only its own take is undone"
+        new String(rolledBack.body) == "event 1"
+        testObject.committedSize == 2
+
+        when:
+        begin()
+        def results = [testObject.take(), testObject.take(), testObject.take()]
+        commitAndClose()
+
+        then:
+        results[0..1].collect { new String(it.body) } == ["event 1", "event 2"]
+        results[2] == null
+        testObject.committedSize == 0
+    }
+
     def "take adjusts the position on commit"() {
         given:
         testObject.start()
@@ -270,6 +350,199 @@ public class ChronicleChannelSpec extends Specification implements ChannelTransa
         testObject.position.get() == savedPosition + 5
     }
 
+    def "the position waits for an earlier take to commit"() {
+        given:
+        testObject.start()
+        def event = EventBuilder.withBody("held".bytes)
+        begin()
+        5.times { testObject.put(event) }
+        commitAndClose()
+        def slowTaker = Executors.newSingleThreadExecutor()
+        def initial = testObject.position.get()
+
+        when: "the first record is held while the rest are taken"
+        slowTaker.submit({ begin(); testObject.take() } as Callable).get()
+        begin()
+        4.times { testObject.take() }
+        commitAndClose()
+
+        then:
+        testObject.position.get() == initial
+
+        when:
+        slowTaker.submit({ commitAndClose() } as Callable).get()
+
+        then:
+        testObject.position.get() == testObject.frontier.scanned()
+
+        cleanup:
+        slowTaker.shutdownNow()
+    }
+
+    def "the position catches up with concurrent takers"() {
+        given:
+        testObject.start()
+        def event = EventBuilder.withBody("concurrent".bytes)
+        begin()
+        400.times { testObject.put(event) }
+        commitAndClose()
+
+        when:
+        executor.invokeAll((0..<8).collect {
+            { ->
+                10.times {
+                    begin()
+                    5.times { testObject.take() }
+                    commitAndClose()
+                }
+                null
+            } as Callable<Void>
+        }).each { it.get() }
+        testObject.shards[0].catchUpPosition()
+
+        then:
+        testObject.committedSize == 0
+        testObject.position.get() == testObject.frontier.scanned()
+        testObject.position.maxProgress() == testObject.position.get()
+    }
+
+    def "takeBatch takes up to max events in order"() {
+        given:
+        testObject.start()
+        begin()
+        10.times { testObject.put(EventBuilder.withBody("event $it", Charsets.UTF_8)) }
+        commitAndClose()
+
+        when:
+        def first = []
+        def second = []
+        begin()
+        def firstCount = testObject.takeBatch(6, first)
+        def secondCount = testObject.takeBatch(6, second)
+        commitAndClose()
+
+        then:
+        firstCount == 6
+        secondCount == 4
+        (first + second).collect { new String(it.body, Charsets.UTF_8) } == (0..9).collect { "event $it".toString() }
+        testObject.committedSize == 0
+    }
+
+    def "takeBatch then rollback, can be read on next takeBatch"() {
+        given:
+        testObject.start()
+        begin()
+        5.times { testObject.put(EventBuilder.withBody("event $it", Charsets.UTF_8)) }
+        commitAndClose()
+
+        begin()
+        testObject.takeBatch(3, [])
+        rollbackAndClose()
+
+        when:
+        def events = []
+        begin()
+        def count = testObject.takeBatch(10, events)
+        commitAndClose()
+
+        then:
+        count == 5
+        events.collect { new String(it.body, Charsets.UTF_8) } as Set == (0..4).collect { "event $it".toString() } as Set
+    }
+
+    def "takeBatch passes over puts in flight and takes them once committed"() {
+        given:
+        testObject.start()
+        begin()
+        5.times { testObject.put(EventBuilder.withBody("event $it", Charsets.UTF_8)) }
+        commitAndClose()
+        def appended = new CountDownLatch(1)
+        def commit = new CountDownLatch(1)
+        def putting = executor.submit({
+            begin()
+            3.times { testObject.put(EventBuilder.withBody("late $it", Charsets.UTF_8)) }
+            appended.countDown()
+            commit.await()
+            commitAndClose()
+            null
+        } as Callable<Void>)
+        appended.await()
+
+        when:
+        def first = []
+        begin()
+        testObject.takeBatch(10, first)
+        commitAndClose()
+        commit.countDown()
+        putting.get()
+        def second = []
+        begin()
+        testObject.takeBatch(10, second)
+        commitAndClose()
+
+        then:
+        first.collect { new String(it.body, Charsets.UTF_8) } == (0..4).collect { "event $it".toString() }
+        second.collect { new String(it.body, Charsets.UTF_8) } == (0..2).collect { "late $it".toString() }
+        testObject.committedSize == 0
+    }
+
+    def "takeBatch requires an open transaction"() {
+        given:
+        testObject.start()
+
+        when:
+        testObject.takeBatch(1, [])
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "take waits for a put commit with a take timeout"() {
+        given:
+        testObject.configure(new Context([
+                (ChronicleChannelConfiguration.PATH_KEY): Files.createTempDir().canonicalPath,
+                (ChronicleChannelConfiguration.TAKE_TIMEOUT_KEY): "5000"
+        ]))
+        testObject.start()
+
+        when:
+        def taking = executor.submit({
+            begin()
+            def event = testObject.take()
+            commitAndClose()
+            event
+        } as Callable<Event>)
+        while (testObject.takeSignal.parkedCount() == 0) {
+            Thread.sleep(1)
+        }
+        checkCompleted(executor.invokeAll([new PutWithCommit(EventBuilder.withBody("wake up", Charsets.UTF_8))]))
+
+        then:
+        "wake up" == new String(taking.get(1, TimeUnit.SECONDS).getBody(), Charsets.UTF_8)
+    }
+
+    def "take returns null once the take timeout expires"() {
+        given:
+        testObject.configure(new Context([
+                (ChronicleChannelConfiguration.PATH_KEY): Files.createTempDir().canonicalPath,
+                (ChronicleChannelConfiguration.TAKE_TIMEOUT_KEY): "50"
+        ]))
+        testObject.start()
+
+        when:
+        begin()
+        def start = System.nanoTime()
+        def event = testObject.take()
+        def batch = testObject.takeBatch(10, [])
+        def elapsed = System.nanoTime() - start
+        commitAndClose()
+
+        then:
+        event == null
+        batch == 0
+        elapsed >= TimeUnit.MILLISECONDS.toNanos(100)
+    }
+
     private void checkCompleted(List<Future<Void>> futures) {
         for (Future<Void> future : futures) {
             try {
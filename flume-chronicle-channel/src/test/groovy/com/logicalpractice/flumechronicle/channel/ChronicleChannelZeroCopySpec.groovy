@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel
+
+import com.google.common.base.Charsets
+import com.google.common.collect.ImmutableMap
+import com.google.common.io.Files
+import org.apache.flume.Context
+import org.apache.flume.event.EventBuilder
+import spock.lang.Specification
+
+/**
+ *
+ */
+class ChronicleChannelZeroCopySpec extends Specification implements ChannelTransactionSupport {
+
+    File tempDir = Files.createTempDir()
+
+    ChronicleChannel channel
+
+    def setup() {
+        channel = new ChronicleChannel(name:'chronicle-channel')
+        channel.configure(new Context(ImmutableMap.of(
+                ChronicleChannelConfiguration.PATH_KEY, tempDir.getCanonicalPath(),
+                ChronicleChannelConfiguration.ZERO_COPY_TAKE_KEY, "true"
+        )))
+        channel.start()
+    }
+
+    def cleanup() {
+        channel.stop()
+    }
+
+    def "take returns an event backed by the excerpt"() {
+        given:
+        def input = EventBuilder.withBody("This is a Message", Charsets.UTF_8,
+                ImmutableMap.of("header1", "value1", "header2", "value2"))
+        begin(channel)
+        channel.put(input)
+        commitAndClose(channel)
+
+        when:
+        begin(channel)
+        def result = channel.take()
+        def headers = result.headers
+        def body = result.body
+        def bodyBytes = (result as ExcerptEvent).bodyBytes
+        def bodyFromBytes = new byte[bodyBytes.remaining()]
+        bodyBytes.read(bodyFromBytes)
+        commitAndClose(channel)
+
+        then:
+        result instanceof ExcerptEvent
+        headers == input.headers
+        body == input.body
+        bodyFromBytes == input.body
+    }
+
+    def "decoded content is retained after commit"() {
+        given:
+        begin(channel)
+        channel.put(EventBuilder.withBody("body", Charsets.UTF_8, [key: "value"]))
+        commitAndClose(channel)
+
+        when:
+        begin(channel)
+        def result = channel.take()
+        result.body
+        commitAndClose(channel)
+
+        then:
+        new String(result.body, Charsets.UTF_8) == "body"
+
+        when: "the headers were never decoded"
+        result.headers
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "batch of events can be read in any order before commit"() {
+        given:
+        begin(channel)
+        10.times { channel.put(EventBuilder.withBody("event $it", Charsets.UTF_8, [n: "$it".toString()])) }
+        commitAndClose(channel)
+
+        when:
+        def events = []
+        begin(channel)
+        channel.takeBatch(10, events)
+        def bodies = events.reverse().collect { new String(it.body, Charsets.UTF_8) }
+        def headers = events.collect { it.headers.n }
+        commitAndClose(channel)
+
+        then:
+        bodies == (9..0).collect { "event $it".toString() }
+        headers == (0..9).collect { "$it".toString() }
+    }
+}
@@ -86,4 +86,84 @@ class ChronicleCleanupSpec extends Specification {
         !directory.exists()
 
     }
+
+    def "should remove old directories in a parseable cycle format"() {
+        given:
+        def minuteDir = Files.createTempDir()
+        def queueBuilder = ChronicleQueueBuilder
+                .vanilla(minuteDir)
+                .cycleFormat("yyyyMMddHHmm")
+                .cycleLength((int) TimeUnit.MINUTES.toMillis(1), false)
+                .entriesPerCycle(1L << 24)
+        def chronicle = queueBuilder.build()
+        def appender = chronicle.createAppender()
+        appender.startExcerpt()
+        appender.writeBytes("Message")
+        appender.finish()
+        def position = new ChroniclePosition(minuteDir.getAbsolutePath())
+        position.set(appender.lastWrittenIndex())
+        def current = minuteDir.listFiles().find { it.isDirectory() }
+
+        def old = new File(minuteDir, "201401011405")
+        old.mkdir()
+        def other = new File(minuteDir, "not-a-cycle")
+        other.mkdir()
+
+        when:
+        new ChronicleCleanup(queueBuilder, minuteDir, position).run()
+
+        then:
+        !old.exists()
+        current.exists()
+        other.exists()
+
+        cleanup:
+        chronicle.close()
+    }
+
+    def "should release the consumed files of the current cycle"() {
+        given: "small blocks, many files for a cycle"
+        def blockDir = Files.createTempDir()
+        def queueBuilder = ChronicleQueueBuilder
+                .vanilla(blockDir)
+                .cycleFormat("yyyyMMDDHH")
+                .cycleLength((int) TimeUnit.HOURS.toMillis(1))
+                .dataBlockSize(4096)
+                .indexBlockSize(1024) // 128 entries a file
+        def chronicle = queueBuilder.build()
+        def appender = chronicle.createAppender()
+        def indexes = (0..<1000).collect {
+            appender.startExcerpt(100)
+            appender.write(new byte[100])
+            appender.finish()
+            appender.lastWrittenIndex()
+        }
+        def cycleDir = blockDir.listFiles().find { it.isDirectory() }
+        def position = new ChroniclePosition(blockDir.getAbsolutePath())
+        def testObject = new ChronicleCleanup(queueBuilder, blockDir, position)
+
+        when:
+        position.set(indexes[600])
+        testObject.run()
+
+        then: "the files before those of the position are gone"
+        def names = cycleDir.list() as Set
+        (0..3).every { !names.contains("index-$it".toString()) }
+        (4..7).every { names.contains("index-$it".toString()) }
+        names.count { it.startsWith("data-") } < 20
+
+        and: "the records after the position can still be read"
+        def tailer = chronicle.createTailer()
+        indexes[600..-1].every { tailer.index(it) && tailer.capacity() == 100 }
+
+        when: "the position moves on"
+        position.set(indexes[999])
+        testObject.run()
+
+        then:
+        !(cycleDir.list() as Set).contains("index-4")
+
+        cleanup:
+        chronicle.close()
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel
+
+import com.google.common.base.Charsets
+import com.google.common.io.Files
+import org.apache.flume.event.EventBuilder
+import spock.lang.Specification
+
+/**
+ *
+ */
+class ChronicleMigrationSpec extends Specification implements ChannelTransactionSupport {
+
+    File sourceDir = Files.createTempDir()
+    File targetDir = Files.createTempDir()
+
+    def "untaken events are moved into a channel with a different layout"() {
+        given:
+        def source = configureChronicleChannel(sourceDir, [eventFormat: "compact"])
+        source.start()
+        begin(source)
+        50.times { source.put(EventBuilder.withBody("event $it", Charsets.UTF_8, [seq: "$it".toString()])) }
+        commitAndClose(source)
+        begin(source)
+        10.times { source.take() }
+        commitAndClose(source)
+        source.stop()
+
+        def layout = [shards: "2", cycleFormat: "yyyyMMddHHmm", cycleLength: "60000", entriesPerCycle: "1048576"]
+
+        when:
+        def moved = new ChronicleMigration(
+                configureChronicleChannel(sourceDir, [eventFormat: "compact"]),
+                configureChronicleChannel(targetDir, layout + [transactionCapacity: "16"]), 16).drain()
+
+        then:
+        moved == 40
+
+        when:
+        def drained = configureChronicleChannel(sourceDir, [:])
+        drained.start()
+
+        then: "the source has nothing left to take"
+        drained.committedSize == 0
+
+        when:
+        def target = configureChronicleChannel(targetDir, layout)
+        target.start()
+        begin(target)
+        def events = (1..40).collect { target.take() }
+        def next = target.take()
+        commitAndClose(target)
+
+        then:
+        next == null
+        events.collect { it.headers.seq as int } as Set == (10..<50) as Set
+        events.every { new String(it.body, Charsets.UTF_8) == "event ${it.headers.seq}".toString() }
+
+        cleanup:
+        drained?.stop()
+        target?.stop()
+    }
+
+    @Override
+    String channelName(File path, Map settings) {
+        "migration-${path.name}"
+    }
+}
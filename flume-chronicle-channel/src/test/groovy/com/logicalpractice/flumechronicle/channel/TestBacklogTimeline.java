@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestBacklogTimeline {
+
+    BacklogTimeline testObject = new BacklogTimeline(1000L, 10L, 5000L);
+
+    @Test
+    public void testSeedIsTheOldestUntilPassed() throws Exception {
+        testObject.mark(20L, 7000L);
+        testObject.trim(19L);
+
+        assertEquals(5000L, testObject.oldestPutTime());
+
+        testObject.trim(20L);
+        assertEquals(7000L, testObject.oldestPutTime());
+    }
+
+    @Test
+    public void testMarksAtMostOncePerGranularity() throws Exception {
+        testObject.mark(20L, 6000L);
+        testObject.mark(30L, 6500L);
+        testObject.mark(40L, 7000L);
+
+        testObject.trim(35L);
+        assertEquals(6000L, testObject.oldestPutTime());
+
+        testObject.trim(40L);
+        assertEquals(7000L, testObject.oldestPutTime());
+    }
+
+    @Test
+    public void testOvertakenMarksAreIgnored() throws Exception {
+        testObject.mark(20L, 6000L);
+        testObject.mark(15L, 7000L);
+
+        testObject.trim(16L);
+        assertEquals(5000L, testObject.oldestPutTime());
+    }
+
+    @Test
+    public void testThinsOutOnceFull() throws Exception {
+        long index = 10L, time = 5000L;
+        for (int i = 0; i < 10000; i++) {
+            index += 10L;
+            time += 1000L;
+            testObject.mark(index, time);
+        }
+
+        testObject.trim(index - 1L);
+        long oldest = testObject.oldestPutTime();
+        assertTrue("behind the last mark: " + oldest, oldest < time);
+        assertTrue("within the thinned out resolution: " + oldest, oldest > time - 10000L);
+
+        testObject.trim(index);
+        assertEquals(time, testObject.oldestPutTime());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.apache.flume.ChannelFullException;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class TestCapacityLimiter {
+
+    @Test
+    public void testAcquireAndRelease() throws Exception {
+        CapacityLimiter testObject = new CapacityLimiter(2, 100, 0, TimeUnit.SECONDS, 0, 0);
+        testObject.acquire(40);
+        testObject.acquire(40);
+
+        assertEquals(2L, testObject.events());
+        assertEquals(80L, testObject.bytes());
+
+        testObject.release(2, 80);
+        assertEquals(0L, testObject.events());
+        assertEquals(0L, testObject.bytes());
+    }
+
+    @Test(expected = ChannelFullException.class)
+    public void testFullByCount() throws Exception {
+        CapacityLimiter testObject = new CapacityLimiter(1, 0, 0, TimeUnit.SECONDS, 0, 0);
+        testObject.acquire(10);
+        testObject.acquire(10);
+    }
+
+    @Test
+    public void testFullByBytesLeavesCountUnchanged() throws Exception {
+        CapacityLimiter testObject = new CapacityLimiter(0, 100, 0, TimeUnit.SECONDS, 0, 0);
+        testObject.acquire(60);
+        try {
+            testObject.acquire(60);
+            fail("expected ChannelFullException");
+        } catch (ChannelFullException expected) {
+            // ok
+        }
+        assertEquals(1L, testObject.events());
+        assertEquals(60L, testObject.bytes());
+    }
+
+    @Test
+    public void testOversizedRecordAdmittedWhenEmpty() throws Exception {
+        CapacityLimiter testObject = new CapacityLimiter(0, 100, 0, TimeUnit.SECONDS, 0, 0);
+        testObject.acquire(1000);
+
+        assertEquals(1000L, testObject.bytes());
+    }
+
+    @Test
+    public void testRecoveredUsage() throws Exception {
+        CapacityLimiter testObject = new CapacityLimiter(10, 0, 0, TimeUnit.SECONDS, 10, 500);
+
+        assertEquals(500L, testObject.bytes());
+        try {
+            testObject.acquire(1);
+            fail("expected ChannelFullException");
+        } catch (ChannelFullException expected) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testWaitingAcquireIsWokenByRelease() throws Exception {
+        final CapacityLimiter testObject = new CapacityLimiter(1, 0, 10, TimeUnit.SECONDS, 0, 0);
+        testObject.acquire(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> waiting = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    testObject.acquire(1);
+                    return null;
+                }
+            });
+            Thread.sleep(50L);
+            assertFalse(waiting.isDone());
+
+            testObject.release(1, 1);
+            waiting.get(1, TimeUnit.SECONDS);
+            assertEquals(1L, testObject.events());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
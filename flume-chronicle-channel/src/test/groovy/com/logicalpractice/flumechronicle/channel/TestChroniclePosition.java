@@ -47,4 +47,25 @@ public class TestChroniclePosition {
 
         assertFalse(testObject.compareAndSwap(0L, 3L));
     }
+
+    @Test
+    public void progressSlotsFollowThePosition() throws Exception {
+        String path = Files.createTempDir().getCanonicalPath();
+        ChroniclePosition position = new ChroniclePosition(path, "position.dat", 4);
+        try {
+            position.set(5L);
+            position.resetProgress(5L);
+            position.advanceProgress(1, 9L);
+            position.advanceProgress(3, 7L);
+            position.advanceProgress(1, 6L); // never moves back
+
+            assertEquals(5L, position.get());
+            assertEquals(5L, position.progress(0));
+            assertEquals(9L, position.progress(1));
+            assertEquals(7L, position.progress(3));
+            assertEquals(9L, position.maxProgress());
+        } finally {
+            position.close();
+        }
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import com.google.common.io.Files;
+import net.openhft.lang.io.VanillaMappedBytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestConsumedBitmap {
+
+    // 512 entries a block
+    private static final long INDEX_BLOCK_SIZE = 4096;
+
+    File path = Files.createTempDir();
+    CycleMapper cycles = new CycleMapper("yyyyMMddHH", (int) TimeUnit.HOURS.toMillis(1), 1L << 20);
+    long first = cycles.firstIndexOf(2);
+
+    ConsumedBitmap testObject;
+
+    @Before
+    public void setUp() throws Exception {
+        cycles.directoryOf(path, 2).mkdirs();
+        testObject = new ConsumedBitmap(cycles, path, INDEX_BLOCK_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        testObject.close();
+    }
+
+    @Test
+    public void testSetAndIsSet() throws Exception {
+        assertFalse(testObject.isSet(first + 1));
+        assertFalse("reading doesn't create the block", new File(cycles.directoryOf(path, 2), "consumed-0").exists());
+
+        testObject.set(first + 1);
+
+        assertTrue(testObject.isSet(first + 1));
+        assertFalse(testObject.isSet(first + 2));
+        assertTrue(new File(cycles.directoryOf(path, 2), "consumed-0").exists());
+    }
+
+    @Test
+    public void testRunCrossesWordsAndBlocks() throws Exception {
+        IndexRuns indexes = new IndexRuns(4);
+        for (long entry = 1; entry <= 700; entry++) {
+            indexes.add(first + entry);
+        }
+        testObject.set(indexes);
+
+        assertEquals(first + 700, testObject.runFrom(first));
+        assertEquals(first + 700, testObject.runFrom(first + 100));
+        assertTrue(new File(cycles.directoryOf(path, 2), "consumed-1").exists());
+    }
+
+    @Test
+    public void testRunsSetOnlyTheirOwnBits() throws Exception {
+        IndexRuns indexes = new IndexRuns(4);
+        for (long entry = 60; entry <= 70; entry++) {
+            indexes.add(first + entry);
+        }
+        indexes.add(first + 3);
+        testObject.set(indexes);
+
+        assertTrue(testObject.isSet(first + 3));
+        assertFalse(testObject.isSet(first + 59));
+        assertEquals(first + 70, testObject.runFrom(first + 59));
+        assertFalse(testObject.isSet(first + 71));
+    }
+
+    @Test
+    public void testRunStopsAtAClearBit() throws Exception {
+        testObject.set(first + 1);
+        testObject.set(first + 2);
+        testObject.set(first + 4);
+
+        assertEquals(first + 2, testObject.runFrom(first));
+        assertEquals(first + 4, testObject.runFrom(first + 3));
+        assertEquals("nothing follows", first + 5, testObject.runFrom(first + 5));
+    }
+
+    @Test
+    public void testRunEndsWithTheCycle() throws Exception {
+        long last = cycles.lastIndexOf(2);
+        assertEquals(last, testObject.runFrom(last));
+    }
+
+    @Test
+    public void testReleasedBlocksAreNotMappedAgain() throws Exception {
+        testObject.set(first + 1);
+        testObject.set(first + 600);
+
+        testObject.releaseBefore(first + 600);
+
+        assertFalse("a released block reads as clear", testObject.isSet(first + 1));
+        assertTrue(testObject.isSet(first + 600));
+    }
+
+    @Test
+    public void testLateMarkOfAReleasedBlockIsSkipped() throws Exception {
+        testObject.set(first + 600);
+        testObject.releaseBefore(first + 600);
+        new File(cycles.directoryOf(path, 2), "consumed-0").delete();
+
+        IndexRuns indexes = new IndexRuns(4);
+        indexes.add(first + 2);
+        indexes.add(first + 601);
+        testObject.set(indexes);
+        testObject.set(first + 3);
+
+        assertNull(testObject.blockOf(first + 2));
+        assertTrue(testObject.isSet(first + 601));
+        assertFalse(new File(cycles.directoryOf(path, 2), "consumed-0").exists());
+    }
+
+    @Test
+    public void testReservedBlockOutlivesItsRelease() throws Exception {
+        testObject.set(first + 1);
+        VanillaMappedBytes block = testObject.blockOf(first + 1);
+
+        testObject.releaseBefore(first + 600);
+
+        assertEquals("still mapped for the reservation", 1, block.refCount());
+        assertTrue((block.readVolatileLong(0) & 2L) != 0L);
+        block.release();
+        assertEquals(0, block.refCount());
+    }
+}
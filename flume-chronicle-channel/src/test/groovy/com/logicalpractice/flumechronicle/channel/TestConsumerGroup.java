@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestConsumerGroup {
+
+    @Test
+    public void testParse() throws Exception {
+        List<ConsumerGroup> groups = ConsumerGroup.parse("hdfs, solr kafka");
+
+        assertEquals(3, groups.size());
+        assertEquals("hdfs", groups.get(0).name());
+        assertEquals("kafka", groups.get(2).name());
+        assertEquals(2, groups.get(2).ordinal());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsDuplicates() throws Exception {
+        ConsumerGroup.parse("hdfs,solr,hdfs");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsBadNames() throws Exception {
+        ConsumerGroup.parse("hdfs,../solr");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsTooMany() throws Exception {
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i <= ConsumerGroup.MAX_GROUPS; i++) {
+            names.append("g").append(i).append(',');
+        }
+        ConsumerGroup.parse(names.toString());
+    }
+
+    @Test
+    public void testFileName() throws Exception {
+        assertEquals("position.dat", ConsumerGroup.SOLE.fileName("position", ".dat"));
+        assertEquals("position-hdfs.dat", ConsumerGroup.parse("hdfs").get(0).fileName("position", ".dat"));
+    }
+
+    @Test
+    public void testSoleGroupKeepsTheUngroupedValues() throws Exception {
+        ConsumerGroup group = ConsumerGroup.SOLE;
+
+        assertTrue(group.isAvailable(0));
+        assertTrue(group.isTaken(1));
+        assertTrue("a take by an earlier version", group.isTaken(12345));
+        assertTrue(group.isConsumed(Integer.MAX_VALUE));
+        assertFalse("a put in flight", group.isAvailable(-12345));
+        assertFalse(group.isConsumed(-12345));
+    }
+
+    @Test
+    public void testEachGroupHasItsOwnBits() throws Exception {
+        List<ConsumerGroup> groups = ConsumerGroup.parse("a,b,c");
+        int takenByB = 1 << 2;
+        int consumedByA = 3;
+
+        assertTrue(groups.get(0).isAvailable(takenByB));
+        assertTrue(groups.get(1).isTaken(takenByB));
+        assertTrue(groups.get(2).isAvailable(takenByB));
+
+        assertTrue(groups.get(0).isConsumed(consumedByA | takenByB));
+        assertTrue(groups.get(1).isTaken(consumedByA | takenByB));
+        assertTrue(groups.get(2).isAvailable(consumedByA | takenByB));
+
+        for (ConsumerGroup group : groups) {
+            assertTrue(group.isConsumed(Integer.MAX_VALUE));
+            assertFalse(group.isAvailable(-1));
+        }
+    }
+}
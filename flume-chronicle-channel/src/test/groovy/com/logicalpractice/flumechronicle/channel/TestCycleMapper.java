@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import com.google.common.io.Files;
+import net.openhft.chronicle.Chronicle;
+import net.openhft.chronicle.ChronicleQueueBuilder;
+import net.openhft.chronicle.ExcerptAppender;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestCycleMapper {
+
+    @Test
+    public void testNamesTheDirectoriesAsChronicleDoes() throws Exception {
+        File path = Files.createTempDir();
+        ChronicleQueueBuilder.VanillaChronicleQueueBuilder queueBuilder = ChronicleQueueBuilder.vanilla(path)
+                .cycleFormat("yyyyMMddHHmm")
+                .cycleLength((int) TimeUnit.MINUTES.toMillis(1), false)
+                .entriesPerCycle(1L << 24);
+        CycleMapper testObject = new CycleMapper(queueBuilder);
+
+        Chronicle chronicle = queueBuilder.build();
+        ExcerptAppender appender = chronicle.createAppender();
+        appender.startExcerpt(8);
+        appender.writeLong(1L);
+        appender.finish();
+        int cycle = testObject.cycleOf(appender.lastWrittenIndex());
+        chronicle.close();
+
+        assertTrue(testObject.directoryOf(path, cycle).isDirectory());
+        assertEquals(cycle, testObject.cycleOf(testObject.nameOf(cycle)));
+    }
+
+    @Test
+    public void testCyclesAndIndexes() throws Exception {
+        CycleMapper testObject = new CycleMapper("yyyyMMddHH", (int) TimeUnit.HOURS.toMillis(1), 1L << 20);
+
+        assertEquals("1970010102", testObject.nameOf(2));
+        assertEquals(2L * 3600 * 1000, testObject.startMillisOf(2));
+        assertEquals(2L << 20, testObject.firstIndexOf(2));
+        assertEquals((3L << 20) - 1, testObject.lastIndexOf(2));
+        assertEquals(2, testObject.cycleOf(testObject.lastIndexOf(2)));
+        assertEquals(5L, testObject.entryOf(testObject.firstIndexOf(2) + 5));
+    }
+
+    @Test
+    public void testNamesThatDontParseBackAreNotCycles() throws Exception {
+        CycleMapper testObject = new CycleMapper("yyyyMMDDHH", (int) TimeUnit.HOURS.toMillis(1), 1L << 20);
+        int dayOneHundred = (int) TimeUnit.DAYS.toHours(100);
+
+        assertEquals(CycleMapper.NOT_A_CYCLE, testObject.cycleOf(testObject.nameOf(dayOneHundred)));
+        assertEquals(CycleMapper.NOT_A_CYCLE, testObject.cycleOf("not-a-cycle"));
+        assertEquals("the name is cached", testObject.nameOf(dayOneHundred), testObject.nameOf(dayOneHundred));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TestHeaderDictionary {
+
+    File path;
+
+    HeaderDictionary testObject;
+
+    @Before
+    public void setUp() throws Exception {
+        path = Files.createTempDir();
+        testObject = new HeaderDictionary(path.getCanonicalPath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        testObject.close();
+    }
+
+    @Test
+    public void testIntern() throws Exception {
+        assertEquals(HeaderDictionary.NOT_FOUND, testObject.idOf("host"));
+
+        int id = testObject.internKey("host");
+
+        assertEquals(id, testObject.internKey("host"));
+        assertEquals(id, testObject.idOf("host"));
+        assertEquals("host", testObject.get(id));
+    }
+
+    @Test
+    public void testFileOnlyCreatedOnFirstEntry() throws Exception {
+        assertFalse(new File(path, "headers.dict").exists());
+
+        testObject.internKey("host");
+
+        assertTrue(new File(path, "headers.dict").exists());
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        int host = testObject.internKey("host");
+        int value = testObject.internValue("host", "server1");
+        testObject.close();
+
+        testObject = new HeaderDictionary(path.getCanonicalPath());
+
+        assertEquals("host", testObject.get(host));
+        assertEquals("server1", testObject.get(value));
+        assertEquals(value, testObject.idOf("server1"));
+        assertEquals(value + 1, testObject.internKey("topic"));
+    }
+
+    @Test
+    public void testValueCardinalityLimit() throws Exception {
+        for (int i = 0; i < HeaderDictionary.MAX_VALUES_PER_KEY; i++) {
+            assertNotEquals(HeaderDictionary.NOT_FOUND, testObject.internValue("id", "value" + i));
+        }
+        assertEquals(HeaderDictionary.NOT_FOUND, testObject.internValue("id", "another"));
+
+        // other keys are not affected
+        assertNotEquals(HeaderDictionary.NOT_FOUND, testObject.internValue("host", "another"));
+    }
+
+    @Test
+    public void testValueCardinalityLimitSurvivesReload() throws Exception {
+        for (int i = 0; i < HeaderDictionary.MAX_VALUES_PER_KEY - 1; i++) {
+            testObject.internValue("id", "value" + i);
+        }
+        testObject.close();
+
+        testObject = new HeaderDictionary(path.getCanonicalPath());
+
+        assertNotEquals(HeaderDictionary.NOT_FOUND, testObject.internValue("id", "last"));
+        assertEquals(HeaderDictionary.NOT_FOUND, testObject.internValue("id", "another"));
+        assertEquals(HeaderDictionary.MAX_VALUES_PER_KEY + 1, testObject.size());
+    }
+
+    @Test
+    public void testValueCardinalityLimitHoldsForConcurrentInterns() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < HeaderDictionary.MAX_VALUES_PER_KEY; i++) {
+                            testObject.internValue("id", thread + "-" + i);
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(HeaderDictionary.MAX_VALUES_PER_KEY + 1, testObject.size());
+    }
+
+    @Test
+    public void testLongStringsAreNotInterned() throws Exception {
+        char[] chars = new char[HeaderDictionary.MAX_LENGTH + 1];
+        java.util.Arrays.fill(chars, 'a');
+
+        assertEquals(HeaderDictionary.NOT_FOUND, testObject.internKey(new String(chars)));
+    }
+}
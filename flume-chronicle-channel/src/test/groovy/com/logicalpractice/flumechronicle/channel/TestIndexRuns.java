@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestIndexRuns {
+
+    IndexRuns testObject = new IndexRuns(1);
+
+    @Test
+    public void testConsecutiveIndexesShareARun() throws Exception {
+        for (long index = 10; index < 20; index++) {
+            testObject.add(index);
+        }
+
+        assertEquals(10, testObject.size());
+        assertEquals(1, testObject.runs());
+        assertEquals(10L, testObject.start(0));
+        assertEquals(10, testObject.length(0));
+        assertEquals(19L, testObject.end(0));
+    }
+
+    @Test
+    public void testRunsWithResize() throws Exception {
+        for (long index = 0; index < 64; index += 2) {
+            testObject.add(index);
+        }
+        testObject.add(63L);
+
+        assertEquals(33, testObject.size());
+        assertEquals(33, testObject.runs());
+        for (int run = 0; run < 32; run++) {
+            assertEquals(run * 2L, testObject.start(run));
+        }
+        assertEquals(63L, testObject.start(32));
+    }
+
+    @Test
+    public void testLowestAndHighest() throws Exception {
+        testObject.add(20L);
+        testObject.add(21L);
+        testObject.add(5L);
+
+        assertEquals(5L, testObject.lowest());
+        assertEquals(21L, testObject.highest());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        testObject.add(1L);
+        testObject.add(2L);
+        testObject.clear();
+        assertEquals(0, testObject.size());
+        assertEquals(0, testObject.runs());
+
+        testObject.add(3L);
+        assertEquals(1, testObject.runs());
+        assertEquals(3L, testObject.start(0));
+        assertEquals(1, testObject.length(0));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestLatencyHistogram {
+
+    LatencyHistogram testObject = new LatencyHistogram();
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals(0L, testObject.count());
+        assertEquals(0L, testObject.percentile(99.0));
+        assertEquals(0L, testObject.max());
+    }
+
+    @Test
+    public void testSmallValuesAreExact() throws Exception {
+        for (long i = 0; i < 16; i++) {
+            assertEquals(i, LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(i)));
+        }
+    }
+
+    @Test
+    public void testBucketsBoundTheirValues() throws Exception {
+        long[] values = {16L, 17L, 31L, 32L, 33L, 1000L, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(value + " <= " + upper, value <= upper);
+            assertTrue(value + " within 1/16th of " + upper, upper - value <= value / 16);
+            if (bucket > 0) {
+                assertTrue(LatencyHistogram.upperBoundOf(bucket - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        for (int i = 1; i <= 1000; i++) {
+            testObject.record(i);
+        }
+
+        assertEquals(1000L, testObject.count());
+        assertEquals(511L, testObject.percentile(50.0));
+        assertEquals(991L, testObject.percentile(99.0));
+        assertEquals(1023L, testObject.percentile(99.9));
+        assertEquals(1023L, testObject.max());
+    }
+
+    @Test
+    public void testNegativeValuesCountAsZero() throws Exception {
+        testObject.record(-5L);
+
+        assertEquals(0L, testObject.max());
+        assertEquals(1L, testObject.count());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class TestResidenceSampler {
+
+    ResidenceSampler testObject = new ResidenceSampler();
+
+    @Test
+    public void testTakeReturnsThePutTime() throws Exception {
+        testObject.put(5L, 100L, 0L);
+
+        assertEquals(100L, testObject.take(5L));
+        assertEquals("taken once", -1L, testObject.take(5L));
+    }
+
+    @Test
+    public void testOccupiedSlotIsKeptUntilPassed() throws Exception {
+        testObject.put(5L, 100L, 0L);
+        testObject.put(5L + 1024, 200L, 0L);
+
+        assertEquals(-1L, testObject.take(5L + 1024));
+
+        testObject.put(5L + 1024, 200L, 5L);
+
+        assertEquals(200L, testObject.take(5L + 1024));
+    }
+
+    @Test
+    public void testRacingPutsNeverPairAnIndexWithAnotherTime() throws Exception {
+        final int threads = 4;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        barrier.await();
+                        for (long i = 1; i <= 100000; i++) {
+                            // the same slot for every thread, the time identifies the put
+                            long index = (i * threads + thread) * 1024;
+                            testObject.put(index, index, index);
+                            long taken = testObject.take(index);
+                            assertTrue(taken == -1L || taken == index);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -50,4 +50,14 @@ public class TestResizingLongArray {
             assertEquals((long) i, testObject.get(i));
         }
     }
+
+    @Test
+    public void testClear() throws Exception {
+        testObject.add(1L);
+        testObject.clear();
+        assertEquals(0, testObject.size());
+
+        testObject.add(2L);
+        assertEquals(2L, testObject.get(0));
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestTakeFrontier {
+
+    TakeFrontier testObject = new TakeFrontier(10L);
+
+    @Test
+    public void testAdvance() throws Exception {
+        assertEquals(10L, testObject.scanned());
+        assertTrue(testObject.advance(10L, 11L));
+        assertEquals(11L, testObject.scanned());
+
+        assertFalse(testObject.advance(10L, 11L));
+    }
+
+    @Test
+    public void testReleasedAheadOfFrontierIsNotAGap() throws Exception {
+        testObject.released(11L);
+
+        assertEquals(TakeFrontier.NO_GAP, testObject.pollGap());
+    }
+
+    @Test
+    public void testReleasedBehindFrontierIsAGap() throws Exception {
+        testObject.released(9L);
+        testObject.released(7L);
+
+        assertEquals(7L, testObject.pollGap());
+        assertEquals(9L, testObject.pollGap());
+        assertEquals(TakeFrontier.NO_GAP, testObject.pollGap());
+    }
+
+    @Test
+    public void testBatchReleased() throws Exception {
+        IndexRuns indexes = new IndexRuns(4);
+        indexes.add(9L);
+        indexes.add(10L);
+        indexes.add(11L);
+
+        testObject.released(indexes);
+
+        assertEquals(2, testObject.gapCount());
+        assertEquals(9L, testObject.pollGap());
+        assertEquals(10L, testObject.pollGap());
+    }
+
+    @Test
+    public void testLeaseIsPersistedAheadOfTheFrontier() throws Exception {
+        String path = Files.createTempDir().getCanonicalPath();
+        ChroniclePosition leaseStore = new ChroniclePosition(path, "lease.dat");
+        testObject = new TakeFrontier(10L, leaseStore, 100L, false);
+        assertEquals(10L, leaseStore.get());
+
+        assertTrue(testObject.advance(10L, 11L));
+        assertEquals(111L, testObject.lease());
+        assertEquals(111L, leaseStore.get());
+
+        assertTrue(testObject.advance(11L, 50L));
+        assertEquals("within the lease", 111L, leaseStore.get());
+
+        // a restart from a position behind the lease keeps it
+        testObject = new TakeFrontier(20L, leaseStore, 100L, false);
+        assertEquals(111L, testObject.lease());
+        leaseStore.close();
+    }
+
+    @Test
+    public void testForcedLeaseIsPersisted() throws Exception {
+        String path = Files.createTempDir().getCanonicalPath();
+        ChroniclePosition leaseStore = new ChroniclePosition(path, "lease.dat");
+        testObject = new TakeFrontier(10L, leaseStore, 100L, true);
+
+        assertTrue(testObject.advance(10L, 11L));
+        leaseStore.close();
+
+        ChroniclePosition reopened = new ChroniclePosition(path, "lease.dat");
+        assertEquals(111L, reopened.get());
+        reopened.close();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class TestTakeSignal {
+
+    @Test
+    public void testAwaitReturnsWhenAlreadySignalled() throws Exception {
+        TakeSignal testObject = new TakeSignal(0L, 10, 10);
+        long seen = testObject.published();
+        testObject.signal();
+
+        assertTrue(testObject.await(seen, System.nanoTime()));
+    }
+
+    @Test
+    public void testAwaitTimesOut() throws Exception {
+        TakeSignal testObject = new TakeSignal(0L, 10, 10);
+        long start = System.nanoTime();
+
+        assertFalse(testObject.await(testObject.published(), start + TimeUnit.MILLISECONDS.toNanos(20)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, testObject.parkedCount());
+    }
+
+    @Test
+    public void testParkedAwaitIsWokenBySignal() throws Exception {
+        final TakeSignal testObject = new TakeSignal(0L, 0, 0);
+        final long seen = testObject.published();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> waiting = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return testObject.await(seen, System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+                }
+            });
+            while (testObject.parkedCount() == 0) {
+                Thread.sleep(1L);
+            }
+            testObject.signal();
+
+            assertTrue(waiting.get(1, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParkingReusesTheThreadsWaiter() throws Exception {
+        TakeSignal testObject = new TakeSignal(0L, 0, 0);
+
+        for (int i = 0; i < 3; i++) {
+            assertFalse(testObject.await(testObject.published(), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+
+        assertEquals(1, testObject.waiterCount());
+        assertEquals(0, testObject.parkedCount());
+    }
+
+    @Test
+    public void testWaitersOfDeadThreadsAreDropped() throws Exception {
+        final TakeSignal testObject = new TakeSignal(0L, 0, 0);
+        Thread parker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    testObject.await(testObject.published(), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        parker.start();
+        parker.join();
+
+        testObject.await(testObject.published(), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1));
+
+        assertEquals(1, testObject.waiterCount());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.logicalpractice.flumechronicle.channel;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.file.FileChannel;
+import org.apache.flume.channel.file.FileChannelConfiguration;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Creates the channels compared by the benchmarks: 'chronicle', 'memory' or 'file'. Each
+ * is configured so that capacity never limits a benchmark and a take from an empty channel
+ * returns at once, the file channel doesn't fsync per transaction to match the chronicle
+ * channel.
+ */
+class BenchmarkChannels {
+
+    static final int CAPACITY = 1000000;
+
+    static Channel create(String type, File directory) {
+        Context context = new Context();
+        Channel channel;
+        switch (type) {
+            case "chronicle":
+                context.put(ChronicleChannelConfiguration.PATH_KEY, directory.getAbsolutePath());
+                channel = new ChronicleChannel();
+                break;
+            case "memory":
+                context.put("capacity", String.valueOf(CAPACITY));
+                context.put("transactionCapacity", "10000");
+                context.put("keep-alive", "0");
+                channel = new MemoryChannel();
+                break;
+            case "file":
+                context.put(FileChannelConfiguration.DATA_DIRS, new File(directory, "data").getAbsolutePath());
+                context.put(FileChannelConfiguration.CHECKPOINT_DIR, new File(directory, "checkpoint").getAbsolutePath());
+                context.put(FileChannelConfiguration.CAPACITY, String.valueOf(CAPACITY));
+                context.put(FileChannelConfiguration.FSYNC_PER_TXN, "false");
+                context.put(FileChannelConfiguration.KEEP_ALIVE, "0");
+                channel = new FileChannel();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown channel type: " + type);
+        }
+        channel.setName(type + "-benchmark");
+        Configurables.configure(channel, context);
+        return channel;
+    }
+
+    static Event event(int bodySize) {
+        byte[] body = new byte[bodySize];
+        new Random(bodySize).nextBytes(body);
+        return EventBuilder.withBody(body, ImmutableMap.of(
+                "host", "web-01.example.com",
+                "timestamp", "1420070400000",
+                "topic", "access-log",
+                "env", "production"));
+    }
+
+    static void put(Channel channel, Event event, int count) {
+        Transaction transaction = channel.getTransaction();
+        transaction.begin();
+        try {
+            for (int i = 0; i < count; i++) {
+                channel.put(event);
+            }
+            transaction.commit();
+        } catch (RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        } finally {
+            transaction.close();
+        }
+    }
+
+    /**
+     * @return the number of events taken, fewer than 'max' once the channel is empty
+     */
+    static int take(Channel channel, int max) {
+        Transaction transaction = channel.getTransaction();
+        transaction.begin();
+        try {
+            int taken = 0;
+            while (taken < max && channel.take() != null) {
+                taken++;
+            }
+            transaction.commit();
+            return taken;
+        } catch (RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        } finally {
+            transaction.close();
+        }
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
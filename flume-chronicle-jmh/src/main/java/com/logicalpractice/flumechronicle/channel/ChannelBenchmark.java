@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.logicalpractice.flumechronicle.channel;
+
+import com.google.common.io.Files;
+import org.apache.flume.Channel;
+import org.apache.flume.Event;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded transactions against each type of channel. The score is the time of a
+ * whole transaction of 'batchSize' events, including the commit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class ChannelBenchmark {
+
+    @Param({"chronicle", "memory", "file"})
+    String channelType;
+
+    @Param({"1", "10", "100"})
+    int batchSize;
+
+    @Param({"256"})
+    int bodySize;
+
+    File directory;
+
+    Channel channel;
+
+    Event event;
+
+    @Setup(Level.Trial)
+    public void startChannel() {
+        directory = Files.createTempDir();
+        channel = BenchmarkChannels.create(channelType, directory);
+        channel.start();
+        event = BenchmarkChannels.event(bodySize);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopChannel() {
+        channel.stop();
+        BenchmarkChannels.delete(directory);
+    }
+}
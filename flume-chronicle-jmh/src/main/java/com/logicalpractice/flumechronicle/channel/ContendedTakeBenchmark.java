@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.logicalpractice.flumechronicle.channel;
+
+import com.google.common.io.Files;
+import org.apache.flume.Channel;
+import org.apache.flume.Event;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Several takers competing for the events of a single putter, scored per transaction for
+ * each side. The putter stops putting while the backlog is over {@link #MAX_BACKLOG} so
+ * that a slow channel isn't simply measured filling up, and a taker finding the channel
+ * empty commits an empty transaction as a sink would.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContendedTakeBenchmark {
+
+    static final int MAX_BACKLOG = 100000;
+
+    @Param({"chronicle", "memory", "file"})
+    String channelType;
+
+    @Param({"10"})
+    int batchSize;
+
+    @Param({"256"})
+    int bodySize;
+
+    File directory;
+
+    Channel channel;
+
+    Event event;
+
+    final AtomicLong backlog = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void startChannel() {
+        directory = Files.createTempDir();
+        channel = BenchmarkChannels.create(channelType, directory);
+        channel.start();
+        event = BenchmarkChannels.event(bodySize);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopChannel() {
+        channel.stop();
+        BenchmarkChannels.delete(directory);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void put() {
+        if (backlog.get() > MAX_BACKLOG) {
+            Blackhole.consumeCPU(1000);
+            return;
+        }
+        BenchmarkChannels.put(channel, event, batchSize);
+        backlog.addAndGet(batchSize);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public int take() {
+        int taken = BenchmarkChannels.take(channel, batchSize);
+        backlog.addAndGet(-taken);
+        return taken;
+    }
+}
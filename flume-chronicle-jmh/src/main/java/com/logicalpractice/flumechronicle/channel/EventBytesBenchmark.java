@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.logicalpractice.flumechronicle.channel;
+
+import net.openhft.lang.io.ByteBufferBytes;
+import net.openhft.lang.io.Bytes;
+import org.apache.flume.Event;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of the standard record format, outside of any channel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBytesBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    int bodySize;
+
+    Event event;
+
+    Bytes out;
+
+    Bytes in;
+
+    @Setup
+    public void setup() {
+        event = BenchmarkChannels.event(bodySize);
+        int size = EventBytes.sizeOf(event);
+        out = ByteBufferBytes.wrap(ByteBuffer.allocateDirect(size));
+        in = ByteBufferBytes.wrap(ByteBuffer.allocateDirect(size));
+        EventBytes.writeTo(in, event);
+    }
+
+    @Benchmark
+    public int sizeOf() {
+        return EventBytes.sizeOf(event);
+    }
+
+    @Benchmark
+    public long writeTo() {
+        out.position(0L);
+        EventBytes.writeTo(out, event);
+        return out.position();
+    }
+
+    @Benchmark
+    public Event readFrom() {
+        in.position(0L);
+        return EventBytes.readFrom(in);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Put and commit a batch. The batch is taken again outside of the measurement so that the
+ * channels don't grow without bound.
+ */
+@State(Scope.Thread)
+public class PutBenchmark extends ChannelBenchmark {
+
+    @Benchmark
+    public void putCommit() {
+        BenchmarkChannels.put(channel, event, batchSize);
+    }
+
+    @TearDown(Level.Invocation)
+    public void takeBatch() {
+        BenchmarkChannels.take(channel, batchSize);
+    }
+}
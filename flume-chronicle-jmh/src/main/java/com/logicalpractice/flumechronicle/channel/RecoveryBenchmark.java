@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.logicalpractice.flumechronicle.channel;
+
+import com.google.common.io.Files;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.conf.Configurables;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for a chronicle channel to start over a backlog of untaken events, with the recovery
+ * checkpoint as saved by the previous stop or with it removed, forcing a full scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecoveryBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int backlog;
+
+    @Param({"true", "false"})
+    boolean checkpoint;
+
+    File directory;
+
+    ChronicleChannel channel;
+
+    @Setup(Level.Trial)
+    public void createBacklog() {
+        directory = Files.createTempDir();
+        Channel filling = newChannel();
+        filling.start();
+        try {
+            for (int i = 0; i < backlog; i += 1000) {
+                BenchmarkChannels.put(filling, BenchmarkChannels.event(256), Math.min(1000, backlog - i));
+            }
+        } finally {
+            filling.stop();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() {
+        if (!checkpoint) {
+            deleteCheckpoints(directory);
+        }
+        channel = newChannel();
+    }
+
+    @Benchmark
+    public long start() {
+        channel.start();
+        return channel.getCommittedSize();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() {
+        channel.stop();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteBacklog() {
+        BenchmarkChannels.delete(directory);
+    }
+
+    private ChronicleChannel newChannel() {
+        ChronicleChannel result = new ChronicleChannel();
+        result.setName("recovery-benchmark");
+        Context context = new Context();
+        context.put(ChronicleChannelConfiguration.PATH_KEY, directory.getAbsolutePath());
+        Configurables.configure(result, context);
+        return result;
+    }
+
+    private static void deleteCheckpoints(File directory) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                deleteCheckpoints(child);
+            } else if (child.getName().equals(RecoveryCheckpoint.FILE_NAME)) {
+                child.delete();
+            }
+        }
+    }
+}
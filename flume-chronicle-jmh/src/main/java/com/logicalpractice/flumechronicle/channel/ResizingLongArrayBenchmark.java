@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending the indexes of a transaction, to an array that has already grown ('reused', as
+ * a transaction does after its first batch) and to a new one growing from its initial size.
+ * 'addRunsReused' appends the same consecutive indexes to the {@link IndexRuns} transactions
+ * now reuse, where they make a single run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResizingLongArrayBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    int size;
+
+    ResizingLongArray reused;
+
+    IndexRuns runs;
+
+    @Setup
+    public void setup() {
+        reused = new ResizingLongArray(4);
+        fill(reused);
+        runs = new IndexRuns(8);
+    }
+
+    @Benchmark
+    public int addReused() {
+        reused.clear();
+        fill(reused);
+        return reused.size();
+    }
+
+    @Benchmark
+    public int addFresh() {
+        ResizingLongArray array = new ResizingLongArray(4);
+        fill(array);
+        return array.size();
+    }
+
+    @Benchmark
+    public int addRunsReused() {
+        runs.clear();
+        for (int i = 0; i < size; i++) {
+            runs.add(i);
+        }
+        return runs.size();
+    }
+
+    private void fill(ResizingLongArray array) {
+        for (int i = 0; i < size; i++) {
+            array.add(i);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.logicalpractice.flumechronicle.channel;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Take and commit a batch, each batch is put outside of the measurement.
+ */
+@State(Scope.Thread)
+public class TakeBenchmark extends ChannelBenchmark {
+
+    @Setup(Level.Invocation)
+    public void putBatch() {
+        BenchmarkChannels.put(channel, event, batchSize);
+    }
+
+    @Benchmark
+    public int takeCommit() {
+        return BenchmarkChannels.take(channel, batchSize);
+    }
+}
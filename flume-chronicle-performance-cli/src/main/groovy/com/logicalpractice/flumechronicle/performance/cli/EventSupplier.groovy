@@ -29,9 +29,35 @@ class EventSupplier implements Supplier<Event> {
     private final byte [] body
 
     EventSupplier(int size) {
+        this(size, "random")
+    }
+
+    /**
+     * @param content 'random' for incompressible bytes or 'json' for log line like text
+     */
+    EventSupplier(int size, String content) {
         this.size = size
-        this.body = new byte[size]
+        this.body = content == "json" ? jsonBody(size) : randomBody(size)
+    }
+
+    private static byte[] randomBody(int size) {
+        def body = new byte[size]
         new Random().nextBytes(body)
+        body
+    }
+
+    private static byte[] jsonBody(int size) {
+        def random = new Random()
+        def levels = ["DEBUG", "INFO", "WARN", "ERROR"]
+        def text = new StringBuilder()
+        while (text.length() < size) {
+            text << '{"timestamp":' << (1420070400000L + random.nextInt(3_600_000)) <<
+                    ',"level":"' << levels[random.nextInt(levels.size())] <<
+                    '","logger":"com.example.service.RequestHandler","thread":"worker-' << random.nextInt(32) <<
+                    '","message":"handled request ' << random.nextInt(1_000_000) <<
+                    ' in ' << random.nextInt(500) << 'ms","status":200}\n'
+        }
+        text.substring(0, size).getBytes("UTF-8")
     }
 
     @Override
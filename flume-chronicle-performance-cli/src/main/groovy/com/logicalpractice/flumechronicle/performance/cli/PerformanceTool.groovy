@@ -18,6 +18,7 @@ package com.logicalpractice.flumechronicle.performance.cli
 
 import com.logicalpractice.flumechronicle.channel.ChronicleChannel
 import com.logicalpractice.flumechronicle.channel.ChronicleChannelConfiguration
+import com.logicalpractice.flumechronicle.channel.LatencyHistogram
 import net.sourceforge.argparse4j.ArgumentParsers
 import net.sourceforge.argparse4j.impl.Arguments
 import net.sourceforge.argparse4j.inf.ArgumentParser
@@ -93,8 +94,49 @@ class PerformanceTool {
         parser.addArgument("--body-size")
                 .metavar("bytes")
                 .setDefault(1024)
+                .type(Integer)
                 .help("size in bytes of the event body")
 
+        parser.addArgument("--body-content")
+                .metavar("content")
+                .choices("random", "json")
+                .setDefault("random")
+                .help("random bytes or compressible json log lines")
+
+        parser.addArgument("--rate")
+                .metavar("events/s")
+                .setDefault(0)
+                .type(Integer)
+                .help("total rate at which the writers put events, open loop so a stall isn't hidden " +
+                      "by delaying the sends, 0 puts as fast as the channel allows")
+
+        parser.addArgument("--series-file")
+                .metavar("path")
+                .help("write the puts and takes per second over the run to this file")
+
+        parser.addArgument("--series-format")
+                .metavar("format")
+                .choices("csv", "json")
+                .setDefault("csv")
+
+        parser.addArgument("--series-interval")
+                .metavar("millis")
+                .setDefault(1_000)
+                .type(Integer)
+
+        parser.addArgument("--scenario")
+                .metavar("phases")
+                .help("run scripted phases in place of --event-count, a comma separated list of " +
+                      "fill:size, drain, burst:count, steady:duration, stall:duration and restart, " +
+                      "e.g. fill:2GB,restart,drain")
+
+        parser.addArgument("--durability")
+                .metavar("mode")
+                .choices("os", "periodic", "commit")
+                .setDefault("os")
+                .help("when committed events are forced to disk, the file channel only " +
+                      "distinguishes commit from the rest")
+
         parser.addArgument("--log-level")
                 .metavar("level")
                 .choices("trace", "debug", "info", "warn", "error")
@@ -111,8 +153,6 @@ class PerformanceTool {
 
         Context channelContext = new Context()
 
-        Channel channel
-
         def type = ns.getString("channel_type")
 
         def path = new File(ns.getString("path"))
@@ -120,19 +160,15 @@ class PerformanceTool {
             case "file":
                 channelContext.put(FileChannelConfiguration.DATA_DIRS, new File(path, "data").absolutePath)
                 channelContext.put(FileChannelConfiguration.CHECKPOINT_DIR, new File(path, "checkpoint").absolutePath)
-                channelContext.put(FileChannelConfiguration.FSYNC_PER_TXN, "false")
-                channel = new FileChannel()
-                channel.setName("fileChannel")
+                channelContext.put(FileChannelConfiguration.FSYNC_PER_TXN,
+                        String.valueOf(ns.getString("durability") == "commit"))
                 break
             case "chronicle":
                 channelContext.put(ChronicleChannelConfiguration.PATH_KEY, path.absolutePath)
-                channel = new ChronicleChannel()
-                channel.setName("chronicleChannel")
+                channelContext.put(ChronicleChannelConfiguration.DURABILITY_KEY, ns.getString("durability"))
                 break
             case "memory":
                 channelContext.put("capacity", "10000")
-                channel = new MemoryChannel()
-                channel.setName("memoryChannel")
                 break
             default:
                 System.out.println("Unknown channel-type: $type")
@@ -147,7 +183,16 @@ class PerformanceTool {
 
         applyChannelParams(channelContext, ns)
 
-        Configurables.configure(channel, channelContext)
+        // a scenario creates the channel again to restart it
+        def newChannel = { ->
+            Channel result = type == "file" ? new FileChannel() :
+                    type == "chronicle" ? new ChronicleChannel() : new MemoryChannel()
+            result.setName("${type}Channel")
+            Configurables.configure(result, channelContext)
+            result
+        }
+
+        Channel channel = newChannel()
 
         channel.start()
 
@@ -168,38 +213,91 @@ class PerformanceTool {
             println "warmup done"
         }
 
-        def tasks = []
         def writers = ns.getInt("writers")
         def readers = ns.getInt("readers")
+        def rate = ns.getInt("rate")
+        def series = new ThroughputSeries()
+        def sampler = Executors.newSingleThreadScheduledExecutor()
+        def seriesInterval = ns.getInt("series_interval")
+
+        if (ns.getString("scenario")) {
+            def phases = Scenario.parse(ns.getString("scenario"))
+            def scenario = new Scenario(
+                    newChannel: newChannel,
+                    channel: channel,
+                    executor: executor,
+                    path: path,
+                    eventSupplier: new EventSupplier(ns.getInt("body_size"), ns.getString("body_content")),
+                    bodySize: ns.getInt("body_size"),
+                    writers: writers,
+                    writerBatchSize: ns.getInt("writer_batch_size"),
+                    readers: readers,
+                    readerBatchSize: ns.getInt("reader_batch_size"),
+                    rate: rate,
+                    series: series
+            )
+            println "starting scenario"
+            try {
+                sampler.scheduleAtFixedRate(series, seriesInterval, seriesInterval, TimeUnit.MILLISECONDS)
+                scenario.run(phases)
+            } finally {
+                sampler.shutdownNow()
+                scenario.channel.stop()
+            }
+            series.run()
+            println "finished scenario"
+            writeSeries(series, ns)
+            executor.shutdownNow()
+            return
+        }
+
+        def tasks = []
         def eventCount = ns.getInt("event_count")
         def totalEventCount = eventCount * writers
         def eventsPerReader = totalEventCount / readers
         def readerCounts = [eventsPerReader] * readers
         readerCounts[0] += totalEventCount % readers
 
+        def writerInterval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * writers / rate) : 0L
+
+        def putCommitLatency = new LatencyHistogram()
+        def takeCommitLatency = new LatencyHistogram()
+        def endToEndLatency = new LatencyHistogram()
+
         tasks += (1..writers).collect {
             new WriteLoadDriver(
                     channel: channel,
                     count: eventCount,
-                    eventSupplier: new EventSupplier(ns.getInt("body_size")),
-                    batchSize: ns.getInt("writer_batch_size")
+                    eventSupplier: new EventSupplier(ns.getInt("body_size"), ns.getString("body_content")),
+                    batchSize: ns.getInt("writer_batch_size"),
+                    interval: writerInterval,
+                    commitLatency: putCommitLatency,
+                    series: series
             )}
 
         tasks += readerCounts.collect {
             new ReadLoadDriver(
                     channel: channel,
                     count: it,
-                    batchSize: ns.getInt("reader_batch_size")
+                    batchSize: ns.getInt("reader_batch_size"),
+                    commitLatency: takeCommitLatency,
+                    endToEndLatency: endToEndLatency,
+                    series: series
             )}
         println "starting run"
         def start = System.nanoTime()
         def end = 0L
+        def diskUsed = "unknown"
         try {
+            sampler.scheduleAtFixedRate(series, seriesInterval, seriesInterval, TimeUnit.MILLISECONDS)
             executor.invokeAll(tasks).each { it.get() }
             end = System.nanoTime()
+            diskUsed = diskUsage(path)
         } finally {
+            sampler.shutdownNow()
             channel.stop()
         }
+        series.run()
 
         println "finished run"
 
@@ -208,11 +306,46 @@ class PerformanceTool {
 
         println "time taken: ${TimeUnit.NANOSECONDS.toMillis(runTime)}ms totalEvents:$totalEventCount"
         println "per event: ${perEvent}ns "
+        println "disk used: ${diskUsed}"
+        printLatency("put commit", putCommitLatency)
+        printLatency("take commit", takeCommitLatency)
+        printLatency("end to end", endToEndLatency)
 
+        writeSeries(series, ns)
 
         executor.shutdownNow()
     }
 
+    private static void writeSeries(ThroughputSeries series, Namespace ns) {
+        if (ns.getString("series_file")) {
+            def seriesFile = new File(ns.getString("series_file"))
+            series.writeTo(seriesFile, ns.getString("series_format"))
+            println "throughput series: ${seriesFile.absolutePath}"
+        }
+    }
+
+    static void printLatency(String name, LatencyHistogram histogram) {
+        def micros = { long nanos -> String.format("%.1f", nanos / 1000.0d) }
+        println "${name} latency us: " +
+                "p50=${micros(histogram.percentile(50))} " +
+                "p99=${micros(histogram.percentile(99))} " +
+                "p99.9=${micros(histogram.percentile(99.9))} " +
+                "max=${micros(histogram.max())} " +
+                "count=${histogram.count()}"
+    }
+
+    /**
+     * Space actually allocated on disk, the channel's data files are sparse so the
+     * file lengths aren't useful.
+     */
+    static String diskUsage(File path) {
+        try {
+            ["du", "-sh", path.absolutePath].execute().text.split(/\s+/)[0]
+        } catch (IOException ignored) {
+            "unknown"
+        }
+    }
+
     private static List applyChannelParams(Context channelContext, Namespace ns) {
         def params = ns.getList("channel_param")
         if (params) {
@@ -14,8 +14,10 @@
  * limitations under the License.
  */
 
+
 package com.logicalpractice.flumechronicle.performance.cli
 
+import com.logicalpractice.flumechronicle.channel.LatencyHistogram
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j;
 import org.apache.flume.Channel
@@ -23,10 +25,10 @@ import org.apache.flume.Event;
 
 import java.util.concurrent.Callable
 import java.util.concurrent.TimeUnit
-import java.util.concurrent.locks.LockSupport;
 
 /**
- *
+ * Takes 'count' events, committing every 'batchSize'. The end to end latency of an event
+ * is from the send time stamped by the {@link WriteLoadDriver} until it's taken.
  */
 @CompileStatic
 @Slf4j
@@ -36,6 +38,21 @@ class ReadLoadDriver implements Callable<Long> {
     int count
     int batchSize = 1
 
+    /**
+     * Time of each commit, optional
+     */
+    LatencyHistogram commitLatency
+
+    /**
+     * Time from being due to be sent to being taken, optional
+     */
+    LatencyHistogram endToEndLatency
+
+    /**
+     * Counts the events committed, optional
+     */
+    ThroughputSeries series
+
     @Override
     public Long call() throws Exception {
         long received = 0L
@@ -54,16 +71,32 @@ class ReadLoadDriver implements Callable<Long> {
                 }
             }
             received += event.getBody().length
+            if (endToEndLatency != null) {
+                String sendTime = event.getHeaders().get(WriteLoadDriver.SEND_TIME_HEADER)
+                if (sendTime != null) {
+                    endToEndLatency.record(System.nanoTime() - Long.parseLong(sendTime))
+                }
+            }
             if ((i % batchSize) == 0) {
-                channel.getTransaction().commit()
-                channel.getTransaction().close()
+                commit(batchSize)
 
                 channel.getTransaction().begin()
             }
         }
-        channel.getTransaction().commit()
-        channel.getTransaction().close()
+        commit(count % batchSize)
         log.info "reader finishing"
         received
     }
+
+    private void commit(int batch) {
+        long begin = System.nanoTime()
+        channel.getTransaction().commit()
+        if (commitLatency != null && batch > 0) {
+            commitLatency.record(System.nanoTime() - begin)
+        }
+        channel.getTransaction().close()
+        if (series != null) {
+            series.takes.addAndGet(batch)
+        }
+    }
 }
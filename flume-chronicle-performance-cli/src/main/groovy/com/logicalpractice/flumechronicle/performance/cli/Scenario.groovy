@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.logicalpractice.flumechronicle.performance.cli
+
+import com.google.common.base.Supplier
+import com.logicalpractice.flumechronicle.channel.ChronicleChannel
+import com.logicalpractice.flumechronicle.channel.LatencyHistogram
+import org.apache.flume.Channel
+import org.apache.flume.Event
+import org.apache.flume.channel.MemoryChannel
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * A scripted run through the states that a fixed count run never reaches, a comma separated
+ * list of phases run in order:
+ *
+ *    fill:size       writers only, put 'size' of event bodies (e.g. 2GB) to build a backlog
+ *    drain           readers only, take the whole backlog as fast as they can
+ *    burst:count     put 'count' events as fast as possible while the readers take them
+ *    steady:duration put at --rate for 'duration' (e.g. 10m) while the readers take them
+ *    stall:duration  put at --rate for 'duration' with the readers stopped
+ *    restart         stop the channel and time starting it again over the backlog
+ *
+ * Each phase reports its throughput, latencies and the disk used at its end. The backlog is
+ * tracked by the scenario, so the channel must only be used by the scenario.
+ */
+class Scenario {
+
+    static class Phase {
+        String name
+        String argument
+
+        @Override
+        String toString() {
+            argument ? "$name:$argument" : name
+        }
+    }
+
+    Closure<Channel> newChannel
+    Channel channel
+    ExecutorService executor
+    File path
+
+    Supplier<Event> eventSupplier
+    int bodySize
+    int writers
+    int writerBatchSize
+    int readers
+    int readerBatchSize
+
+    /**
+     * Events per second across the writers, 0 is unlimited
+     */
+    int rate
+
+    /**
+     * Shared by every phase so the series covers the whole scenario
+     */
+    ThroughputSeries series
+
+    /**
+     * Events put and not yet taken
+     */
+    long backlog
+
+    static List<Phase> parse(String script) {
+        script.split(/,/).collect { String step ->
+            def parts = step.trim().split(/:/, 2)
+            def phase = new Phase(name: parts[0], argument: parts.length > 1 ? parts[1] : null)
+            switch (phase.name) {
+                case "fill":
+                    parseSize(phase.argument)
+                    break
+                case "burst":
+                    Long.parseLong(phase.argument)
+                    break
+                case "steady":
+                case "stall":
+                    parseDuration(phase.argument)
+                    break
+                case "drain":
+                case "restart":
+                    break
+                default:
+                    throw new IllegalArgumentException("unknown phase '$step'")
+            }
+            phase
+        }
+    }
+
+    /**
+     * On return 'channel' is the channel as last started, a restart replaces it.
+     */
+    void run(List<Phase> phases) {
+        phases.each { Phase phase ->
+            println "phase ${phase}: backlog=${backlog}"
+            switch (phase.name) {
+                case "fill":
+                    def events = (parseSize(phase.argument) + bodySize - 1) / bodySize as long
+                    load(phase, events, rate, 0L)
+                    break
+                case "drain":
+                    load(phase, 0L, 0, backlog)
+                    break
+                case "burst":
+                    def events = Long.parseLong(phase.argument)
+                    load(phase, events, 0, events)
+                    break
+                case "steady":
+                    def events = eventsAtRate(phase)
+                    load(phase, events, rate, events)
+                    break
+                case "stall":
+                    load(phase, eventsAtRate(phase), rate, 0L)
+                    break
+                case "restart":
+                    restart(phase)
+                    break
+            }
+        }
+    }
+
+    private long eventsAtRate(Phase phase) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("phase ${phase} requires a --rate")
+        }
+        TimeUnit.MILLISECONDS.toSeconds(parseDuration(phase.argument) * rate) ?: 1L
+    }
+
+    private void load(Phase phase, long puts, int putRate, long takes) {
+        def putCommitLatency = new LatencyHistogram()
+        def takeCommitLatency = new LatencyHistogram()
+        def endToEndLatency = new LatencyHistogram()
+        def writerInterval = putRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * writers / putRate) : 0L
+
+        def tasks = []
+        tasks += split(puts, writers).collect {
+            new WriteLoadDriver(
+                    channel: channel,
+                    count: it,
+                    eventSupplier: eventSupplier,
+                    batchSize: writerBatchSize,
+                    interval: writerInterval,
+                    commitLatency: putCommitLatency,
+                    series: series
+            )}
+        tasks += split(takes, readers).collect {
+            new ReadLoadDriver(
+                    channel: channel,
+                    count: it,
+                    batchSize: readerBatchSize,
+                    commitLatency: takeCommitLatency,
+                    endToEndLatency: endToEndLatency,
+                    series: series
+            )}
+
+        def start = System.nanoTime()
+        executor.invokeAll(tasks).each { it.get() }
+        def elapsed = System.nanoTime() - start
+        backlog += puts - takes
+
+        println "phase ${phase} finished in ${TimeUnit.NANOSECONDS.toMillis(elapsed)}ms: " +
+                "puts/s=${perSecond(puts, elapsed)} takes/s=${perSecond(takes, elapsed)} " +
+                "backlog=${backlog} disk used=${PerformanceTool.diskUsage(path)}"
+        if (puts > 0) {
+            PerformanceTool.printLatency("  put commit", putCommitLatency)
+        }
+        if (takes > 0) {
+            PerformanceTool.printLatency("  take commit", takeCommitLatency)
+            PerformanceTool.printLatency("  end to end", endToEndLatency)
+        }
+    }
+
+    private void restart(Phase phase) {
+        def stopStart = System.nanoTime()
+        channel.stop()
+        def stopped = System.nanoTime()
+        channel = newChannel()
+        channel.start()
+        def started = System.nanoTime()
+
+        if (channel instanceof ChronicleChannel) {
+            backlog = ((ChronicleChannel) channel).getCommittedSize()
+        } else if (channel instanceof MemoryChannel) {
+            backlog = 0L
+        }
+        println "phase ${phase} finished: stop=${TimeUnit.NANOSECONDS.toMillis(stopped - stopStart)}ms " +
+                "start=${TimeUnit.NANOSECONDS.toMillis(started - stopped)}ms " +
+                "backlog=${backlog} disk used=${PerformanceTool.diskUsage(path)}"
+    }
+
+    /**
+     * @return 'total' divided between 'parts', leaving out the empty parts
+     */
+    private static List<Integer> split(long total, int parts) {
+        (0..<parts).collect { int part ->
+            (int) (total / parts + (part < total % parts ? 1 : 0))
+        }.findAll { it > 0 }
+    }
+
+    private static long perSecond(long count, long nanos) {
+        (long) (count * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1L, nanos))
+    }
+
+    /**
+     * @param size bytes with an optional KB, MB or GB suffix
+     */
+    static long parseSize(String size) {
+        def matcher = size?.toUpperCase() =~ /^(\d+)\s*(KB|MB|GB)?$/
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("invalid size '$size'")
+        }
+        long value = Long.parseLong(matcher.group(1))
+        switch (matcher.group(2)) {
+            case "KB": return value << 10
+            case "MB": return value << 20
+            case "GB": return value << 30
+            default: return value
+        }
+    }
+
+    /**
+     * @param duration with an ms, s, m or h suffix
+     * @return the duration in milliseconds
+     */
+    static long parseDuration(String duration) {
+        def matcher = duration =~ /^(\d+)(ms|s|m|h)$/
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("invalid duration '$duration'")
+        }
+        long value = Long.parseLong(matcher.group(1))
+        switch (matcher.group(2)) {
+            case "ms": return value
+            case "s": return TimeUnit.SECONDS.toMillis(value)
+            case "m": return TimeUnit.MINUTES.toMillis(value)
+            default: return TimeUnit.HOURS.toMillis(value)
+        }
+    }
+}
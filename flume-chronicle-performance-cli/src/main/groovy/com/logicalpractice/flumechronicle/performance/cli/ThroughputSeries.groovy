@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Gareth Davis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.logicalpractice.flumechronicle.performance.cli
+
+import groovy.json.JsonOutput
+import groovy.transform.CompileStatic
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Events put and taken per second over the run, sampled by calling {@link #run()} at a
+ * fixed rate. Each sample is the rate since the previous one, so a stall shows as a dip
+ * that the overall mean would hide.
+ */
+@CompileStatic
+class ThroughputSeries implements Runnable {
+
+    static class Sample {
+        long elapsedMillis
+        long putsPerSecond
+        long takesPerSecond
+    }
+
+    final AtomicLong puts = new AtomicLong()
+    final AtomicLong takes = new AtomicLong()
+
+    private final long start = System.nanoTime()
+    private long lastTime = start
+    private long lastPuts
+    private long lastTakes
+
+    private final List<Sample> samples = []
+
+    @Override
+    synchronized void run() {
+        long now = System.nanoTime()
+        long elapsed = now - lastTime
+        if (elapsed <= 0L) {
+            return
+        }
+        long currentPuts = puts.get()
+        long currentTakes = takes.get()
+        samples << new Sample(
+                elapsedMillis: TimeUnit.NANOSECONDS.toMillis(now - start),
+                putsPerSecond: perSecond(currentPuts - lastPuts, elapsed),
+                takesPerSecond: perSecond(currentTakes - lastTakes, elapsed))
+        lastTime = now
+        lastPuts = currentPuts
+        lastTakes = currentTakes
+    }
+
+    synchronized List<Sample> getSamples() {
+        new ArrayList<Sample>(samples)
+    }
+
+    /**
+     * @param format 'csv' or 'json'
+     */
+    void writeTo(File file, String format) {
+        file.withWriter("UTF-8") { Writer out ->
+            if (format == "json") {
+                out << JsonOutput.prettyPrint(JsonOutput.toJson(getSamples().collect {
+                    [elapsedMillis: it.elapsedMillis, putsPerSecond: it.putsPerSecond, takesPerSecond: it.takesPerSecond]
+                }))
+            } else {
+                out << "elapsedMillis,putsPerSecond,takesPerSecond\n"
+                getSamples().each { Sample sample ->
+                    out << sample.elapsedMillis << ',' << sample.putsPerSecond << ',' << sample.takesPerSecond << '\n'
+                }
+            }
+        }
+    }
+
+    private static long perSecond(long count, long nanos) {
+        (long) (count * (double) TimeUnit.SECONDS.toNanos(1) / nanos)
+    }
+}
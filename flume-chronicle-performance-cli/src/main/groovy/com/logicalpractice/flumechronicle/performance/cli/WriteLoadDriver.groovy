@@ -14,56 +14,105 @@
  * limitations under the License.
  */
 
+
 package com.logicalpractice.flumechronicle.performance.cli
 
 import com.google.common.base.Supplier
+import com.logicalpractice.flumechronicle.channel.LatencyHistogram
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 import org.apache.flume.Channel
 import org.apache.flume.Event
 
 import java.util.concurrent.Callable
+import java.util.concurrent.locks.LockSupport
 
 /**
+ * Puts 'count' events, committing every 'batchSize'.
+ *
+ * With an 'interval' the load is open loop: event i is due at start + i * interval whether
+ * or not the channel kept up, and the time it was due is what's stamped in the event's
+ * {@link #SEND_TIME_HEADER}. A stall therefore shows in the end to end latency of every
+ * event that should have been sent during it, rather than delaying the sends and hiding.
  */
 @CompileStatic
 @Slf4j
 class WriteLoadDriver implements Callable<Long> {
 
+    /**
+     * System.nanoTime() at which the event was due to be sent
+     */
+    static final String SEND_TIME_HEADER = "perf.sendTime"
+
     Channel channel
     int count
     int batchSize = 1
     Supplier<Event> eventSupplier
 
+    /**
+     * Nanos between events, 0 to put as fast as the channel allows
+     */
+    long interval = 0L
+
+    /**
+     * Time of each commit, optional
+     */
+    LatencyHistogram commitLatency
+
+    /**
+     * Counts the events committed, optional
+     */
+    ThroughputSeries series
 
     @Override
     Long call() {
         long sent = 0L
+        long start = System.nanoTime()
         channel.getTransaction().begin()
         int batch = 0
         try {
             for (int i = 0; i < count; i++) {
 
+                long sendTime = interval > 0L ? awaitSendTime(start + i * interval) : System.nanoTime()
                 def event = eventSupplier.get()
+                event.getHeaders().put(SEND_TIME_HEADER, String.valueOf(sendTime))
                 channel.put(event)
                 sent += event.getBody().length
 
                 batch += 1
 
                 if (batch % batchSize == 0) {
-                    channel.getTransaction().commit()
-                    channel.getTransaction().close()
+                    commit(batch)
 
                     channel.getTransaction().begin()
                     batch = 0
                 }
             }
-            channel.getTransaction().commit()
-            channel.getTransaction().close()
+            commit(batch)
             log.info "writer finishing"
         } catch (Exception e) {
             log.error "failure", e
         }
         sent
     }
+
+    private void commit(int batch) {
+        long begin = System.nanoTime()
+        channel.getTransaction().commit()
+        if (commitLatency != null && batch > 0) {
+            commitLatency.record(System.nanoTime() - begin)
+        }
+        channel.getTransaction().close()
+        if (series != null) {
+            series.puts.addAndGet(batch)
+        }
+    }
+
+    private static long awaitSendTime(long due) {
+        long now
+        while ((now = System.nanoTime()) < due) {
+            LockSupport.parkNanos(due - now)
+        }
+        due
+    }
 }